@@ -1,15 +1,24 @@
 package de.saar.minecraft.architect;
 
+import de.saar.minecraft.shared.BlockDestroyedMessage;
+import de.saar.minecraft.shared.BlockPlacedMessage;
 import de.saar.minecraft.shared.NewGameState;
 import de.saar.minecraft.shared.ProtectBlockMessage;
+import de.saar.minecraft.shared.ProtectedBlock;
 import de.saar.minecraft.shared.TextMessage;
+import de.saar.minecraft.tracing.TraceContext;
 import io.grpc.stub.StreamObserver;
+import java.util.Collection;
+import java.util.Iterator;
 import org.tinylog.Logger;
 
 /**
  * defines some basic functionalities of the architect such as logging and passing messages along.
  **/
 public abstract class AbstractArchitect implements Architect {
+    /** Larger batches of blocks are split into several messages. */
+    private static final int MAX_BLOCKS_PER_MESSAGE = 4096;
+
     /**
      * channel for message exchange with the MC server.
      **/
@@ -27,6 +36,11 @@ public abstract class AbstractArchitect implements Architect {
      * has the player left?.
      **/
     protected boolean playerHasLeft = false;
+    /**
+     * blocks the player has placed in this game, null unless
+     * {@link #enableWorldStateTracking()} was called.
+     **/
+    protected volatile WorldState worldState;
 
     @Override
     public void shutdown() {
@@ -40,6 +54,47 @@ public abstract class AbstractArchitect implements Architect {
         }
     }
 
+    /**
+     * Makes the architect server keep track of the blocks the player places and
+     * destroys in {@link #worldState}.  The world state is updated before
+     * handleBlockPlaced and handleBlockDestroyed are called.  Call this method
+     * e.g. in the constructor or in initialize.
+     */
+    protected void enableWorldStateTracking() {
+        if (worldState == null) {
+            worldState = new WorldState();
+        }
+    }
+
+    /**
+     * Returns the blocks the player has placed in this game.
+     *
+     * @return the world state, or null if world state tracking is not enabled
+     */
+    public WorldState getWorldState() {
+        return worldState;
+    }
+
+    /**
+     * Records a placed block in the world state, if it is tracked.
+     */
+    void updateWorldState(BlockPlacedMessage request) {
+        WorldState state = worldState;
+        if (state != null) {
+            state.placeBlock(request.getX(), request.getY(), request.getZ(), request.getType());
+        }
+    }
+
+    /**
+     * Records a destroyed block in the world state, if it is tracked.
+     */
+    void updateWorldState(BlockDestroyedMessage request) {
+        WorldState state = worldState;
+        if (state != null) {
+            state.removeBlock(request.getX(), request.getY(), request.getZ());
+        }
+    }
+
     /**
      * Save ID of the game we are connected to.
      *
@@ -73,14 +128,21 @@ public abstract class AbstractArchitect implements Architect {
      *                     a json object and only the "message" field will be forwarded
      *                     to the player.  Use this feature to add metadata you want to have
      *                     logged into the database by the broker.
+     *                     If the event being handled is traced, the message carries its
+     *                     trace context; work on other threads keeps it if it is wrapped
+     *                     with io.grpc.Context.current().wrap().
      * @param newGameState new state of the game
      */
     protected void sendMessage(String text, NewGameState newGameState) {
-        TextMessage message = TextMessage.newBuilder()
+        TextMessage.Builder builder = TextMessage.newBuilder()
                 .setGameId(gameId)
                 .setText(text)
-                .setNewGameState(newGameState)
-                .build();
+                .setNewGameState(newGameState);
+        TraceContext trace = TraceContext.current();
+        if (trace != null) {
+            builder.setTraceParent(trace.toTraceParent());
+        }
+        TextMessage message = builder.build();
         synchronized (this) {
             try {
                 messageChannel.onNext(message);
@@ -113,6 +175,52 @@ public abstract class AbstractArchitect implements Architect {
                 .setZ(z)
                 .setType(type)
                 .build();
+        sendControlMessage(message);
+    }
+
+    /**
+     * send a message that protects several blocks back to the minecraft server.  This
+     * is much cheaper than a message per block, both for the Minecraft server and for
+     * the broker, which logs each message as a single entry.
+     *
+     * @param blocks the blocks to protect, see {@link #protectedBlock}
+     */
+    protected void sendControlMessages(Collection<ProtectedBlock> blocks) {
+        Iterator<ProtectedBlock> it = blocks.iterator();
+        while (it.hasNext()) {
+            ProtectedBlock first = it.next();
+            ProtectBlockMessage.Builder message = ProtectBlockMessage.newBuilder()
+                    .setGameId(gameId)
+                    .setX(first.getX())
+                    .setY(first.getY())
+                    .setZ(first.getZ())
+                    .setType(first.getType());
+            for (int i = 1; i < MAX_BLOCKS_PER_MESSAGE && it.hasNext(); i++) {
+                message.addAdditionalBlocks(it.next());
+            }
+            sendControlMessage(message.build());
+        }
+    }
+
+    /**
+     * Creates a block for {@link #sendControlMessages}.
+     *
+     * @param x    x coordinate of block
+     * @param y    y coordinate of block
+     * @param z    z coordinate of block
+     * @param type the block will be turned to this type. Types are listed in org.bukkit.Material
+     * @return the block
+     */
+    protected static ProtectedBlock protectedBlock(int x, int y, int z, String type) {
+        return ProtectedBlock.newBuilder()
+                .setX(x)
+                .setY(y)
+                .setZ(z)
+                .setType(type)
+                .build();
+    }
+
+    private void sendControlMessage(ProtectBlockMessage message) {
         synchronized (this) {
             try {
                 controlChannel.onNext(message);
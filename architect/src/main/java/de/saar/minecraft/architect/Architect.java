@@ -15,6 +15,11 @@ import io.grpc.stub.StreamObserver;
  * it is done several times during the setup of the Architect Server that
  * contains it. Any substantial initialization effort should happen in the
  * {@link #initialize(WorldSelectMessage)} method.</p>
+ *
+ * <p>The ArchitectServer calls initialize, playerReady, the handle methods and
+ * shutdown of one Architect one after the other, in the order in which the
+ * events arrived, so these methods need not be synchronized with each other.
+ * They may be called from different threads, though.</p>
  */
 public interface Architect {
     /**
@@ -2,6 +2,10 @@ package de.saar.minecraft.architect;
 
 import com.google.rpc.Code;
 import com.google.rpc.Status;
+import de.saar.minecraft.architect.jfr.ArchitectEvents;
+import de.saar.minecraft.architect.jfr.ArchitectInitializeEvent;
+import de.saar.minecraft.broker.ArchitectAddress;
+import de.saar.minecraft.broker.BrokerGrpc;
 import de.saar.minecraft.shared.BlockDestroyedMessage;
 import de.saar.minecraft.shared.BlockPlacedMessage;
 import de.saar.minecraft.shared.GameId;
@@ -10,13 +14,32 @@ import de.saar.minecraft.shared.ProtectBlockMessage;
 import de.saar.minecraft.shared.StatusMessage;
 import de.saar.minecraft.shared.TextMessage;
 import de.saar.minecraft.shared.WorldSelectMessage;
+import de.saar.minecraft.tracing.Span;
+import de.saar.minecraft.tracing.Tracer;
+import de.saar.minecraft.tracing.TracingInterceptor;
+import de.saar.minecraft.tracing.ZipkinFileExporter;
+import de.saar.minecraft.util.ServerOptions;
+import de.saar.minecraft.util.Transports;
+import io.grpc.ManagedChannel;
 import io.grpc.Server;
-import io.grpc.ServerBuilder;
+import io.grpc.ServerInterceptors;
+import io.grpc.StatusRuntimeException;
 import io.grpc.protobuf.StatusProto;
 import io.grpc.stub.StreamObserver;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.tinylog.Logger;
 
 /**
@@ -26,13 +49,51 @@ import org.tinylog.Logger;
  * requests from one player on the Minecraft server to their
  * corresponding Architect instance.
  *
+ * <p>The events of each game are put into a mailbox and delivered to the
+ * architect by a pool of worker threads shared by all games, one event at a
+ * time and in the order in which they arrived (see {@link GameMailbox}).
+ * Architects therefore do not need to synchronize their event handlers, and
+ * a slow architect does not hold up the threads of the gRPC server.</p>
+ *
+ * <p>Before an update, a server can be drained: it refuses new games, so that the
+ * broker starts them on other servers, but keeps serving the running games until
+ * they end (see {@link #drainAndStop}).</p>
+ *
+ * <p>Events of games the broker traces are handled in a span that covers the time
+ * in the mailbox and the work of the architect; messages the architect sends
+ * meanwhile carry the trace context back to the broker (see {@link #setTraceFile}).</p>
  */
 public class ArchitectServer {
     //    private static final Logger logger = LogManager.getLogger(ArchitectServer.class);
-    private Server server;
-    private Map<Integer, Architect> runningArchitects;
+    /** How long {@link #stop()} waits for the architects of ended games to shut down. */
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+    private final List<Server> servers = new ArrayList<>();
+    private final Map<Integer, GameMailbox> runningArchitects = new ConcurrentHashMap<>();
+    /** Events delivered to architects of games that have ended. */
+    private final AtomicLong numDeliveredFinished = new AtomicLong();
+    /** Status updates dropped for games that have ended. */
+    private final AtomicLong numShedFinished = new AtomicLong();
+    private int numWorkerThreads = Runtime.getRuntime().availableProcessors();
+    private int shedThreshold = 20;
+    private ExecutorService workers;
+    private String brokerHostname;
+    private int brokerPort;
+    private String advertisedHostname;
+    private String registrationToken;
+    private int maxGames;
+    private volatile boolean registeredWithBroker;
+    private volatile boolean draining;
+    private long drainTimeoutSeconds;
+    private Tracer tracer = new Tracer("architect", null);
+    private ServerOptions serverOptions = new ServerOptions();
+    /** Notified when a game ends and when the architect of an ended game has shut down. */
+    private final Object gameEnded = new Object();
+    /** Ended games whose architects have not shut down yet; guarded by gameEnded. */
+    private int shuttingDownGames;
     private final ArchitectFactory factory;
     private final int port;
+    private final String inProcessName;
+    private final String socketPath;
 
     /**
      * Constructs an ArchitectServer which is configured to listen to a given port and
@@ -41,9 +102,111 @@ public class ArchitectServer {
      * @param factory the factory for new architects
      */
     public ArchitectServer(int port, ArchitectFactory factory) {
+        this(port, null, null, factory);
+    }
+
+    /**
+     * Constructs an ArchitectServer which is reachable on a TCP port, in-process under
+     * a name and/or on a Unix domain socket.  The in-process name lets a broker in the
+     * same JVM reach the server without network and serialization overhead.
+     * @param port the TCP port, or 0 to not listen on TCP
+     * @param inProcessName name for in-process connections, or null
+     * @param socketPath path of the Unix domain socket to listen on, or null
+     * @param factory the factory for new architects
+     */
+    public ArchitectServer(int port, String inProcessName, String socketPath,
+                           ArchitectFactory factory) {
         this.factory = factory;
         this.port = port;
-        runningArchitects = new HashMap<>();
+        this.inProcessName = inProcessName;
+        this.socketPath = socketPath;
+    }
+
+    /**
+     * Sets the number of threads that deliver events to the architects.  Must be
+     * called before {@link #start()}; the default is the number of processors.
+     * @param numWorkerThreads the number of threads
+     */
+    public void setNumWorkerThreads(int numWorkerThreads) {
+        this.numWorkerThreads = numWorkerThreads;
+    }
+
+    /**
+     * Makes the server register with the broker when it starts and deregister when it
+     * stops, so that the broker starts games on it without being restarted.  Must be
+     * called before {@link #start()}.
+     * @param brokerHostname host of the broker
+     * @param brokerPort port of the broker
+     * @param advertisedHostname the hostname under which the broker can reach this server,
+     *                           or null for the name of the local host
+     * @param registrationToken the registrationToken of the broker configuration
+     */
+    public void registerWithBroker(String brokerHostname, int brokerPort,
+                                   String advertisedHostname, String registrationToken) {
+        this.brokerHostname = brokerHostname;
+        this.brokerPort = brokerPort;
+        this.advertisedHostname = advertisedHostname;
+        this.registrationToken = registrationToken;
+    }
+
+    /**
+     * Sets the number of games the broker may run on this server at the same time.
+     * It is sent to the broker when the server registers, see
+     * {@link #registerWithBroker}.  The default is 0, for no limit.
+     * @param maxGames the number of games
+     */
+    public void setMaxGames(int maxGames) {
+        this.maxGames = maxGames;
+    }
+
+    /**
+     * Makes the server drain for up to the given time when the JVM shuts down, e.g.
+     * on SIGTERM, instead of ending all running games right away.  The default is 0.
+     * @param drainTimeoutSeconds maximal time to wait for running games to end
+     */
+    public void setDrainTimeout(long drainTimeoutSeconds) {
+        this.drainTimeoutSeconds = drainTimeoutSeconds;
+    }
+
+    /**
+     * Records the spans of the games the broker traces in the given file, in the
+     * Zipkin json format.  Must be called before {@link #start()}; by default, no
+     * spans are recorded, but trace contexts are still passed on.
+     * @param traceFile the file the spans are appended to
+     * @throws IOException if the file cannot be opened
+     */
+    public void setTraceFile(Path traceFile) throws IOException {
+        tracer = new Tracer("architect", ZipkinFileExporter.open(traceFile));
+    }
+
+    /**
+     * Enables the JDK Flight Recorder events of the architect server, which are
+     * disabled by default.  Every flight recording of the JVM then shows when the
+     * events of each game were delivered and how long the architects took to
+     * initialize.
+     */
+    public void enableFlightRecorderEvents() {
+        ArchitectEvents.enable();
+    }
+
+    /**
+     * Sets the executor, event loops, flow control, keepalive and compression of the
+     * gRPC servers.  Must be called before {@link #start()}.  The call handlers of the
+     * architect server only put events into mailboxes, so the direct executor suits
+     * them unless the {@link ArchitectFactory} is slow to build an architect.
+     * @param serverOptions the options
+     */
+    public void setServerOptions(ServerOptions serverOptions) {
+        this.serverOptions = serverOptions;
+    }
+
+    /**
+     * Sets the number of waiting events of a game above which only the latest status
+     * update of the game is kept.  The default is 20.
+     * @param shedThreshold the number of events
+     */
+    public void setShedThreshold(int shedThreshold) {
+        this.shedThreshold = shedThreshold;
     }
 
     /**
@@ -51,31 +214,341 @@ public class ArchitectServer {
      * @throws IOException when server can not be started
      */
     public void start() throws IOException {
-        server = ServerBuilder.forPort(port)
-                .addService(new ArchitectImpl())
-                .build()
-                .start();
+        var threadNumber = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(numWorkerThreads, runnable -> {
+            var thread = new Thread(runnable, "architect-worker-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // clients may wait for the headers of the streams, see StreamAttachedInterceptor
+        var service = ServerInterceptors.intercept(new ArchitectImpl(),
+                new StreamAttachedInterceptor());
+        var tracing = new TracingInterceptor(tracer);
+        if (port != 0) {
+            servers.add(Transports.tcpServer(port, serverOptions).intercept(tracing)
+                    .addService(service).build().start());
+            Logger.info("Architect server running on port {}.", port);
+        }
+        if (inProcessName != null) {
+            servers.add(Transports.configure(Transports.inProcessServer(inProcessName), serverOptions)
+                    .intercept(tracing)
+                    .addService(service).build().start());
+            Logger.info("Architect server running in-process as {}.", inProcessName);
+        }
+        if (socketPath != null) {
+            servers.add(Transports.configure(Transports.unixSocketServer(socketPath), serverOptions)
+                    .intercept(tracing)
+                    .addService(service).build().start());
+            Logger.info("Architect server running on socket {}.", socketPath);
+        }
 
         Runtime.getRuntime().addShutdownHook(new Thread() {
             @Override
             public void run() {
+                if (drainTimeoutSeconds > 0) {
+                    try {
+                        drainAndStop(drainTimeoutSeconds, TimeUnit.SECONDS);
+                        return;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
                 ArchitectServer.this.stop();
             }
         });
 
         String info = factory.build().getArchitectInformation();
-
-        Logger.info("Architect server running on port {}.", port);
         Logger.info(info);
+
+        if (brokerHostname != null) {
+            registeredWithBroker = callBroker(true);
+        }
     }
 
     /**
-     * Stops the grpc service if it is running.
+     * Registers with or deregisters from the broker.  Failures are logged, the
+     * server keeps running either way.
+     * @return true if the call succeeded
+     */
+    private boolean callBroker(boolean register) {
+        var address = ArchitectAddress.newBuilder().setMaxGames(maxGames);
+        if (registrationToken != null) {
+            address.setRegistrationToken(registrationToken);
+        }
+        if (port != 0) {
+            String hostname = advertisedHostname;
+            if (hostname == null) {
+                try {
+                    hostname = InetAddress.getLocalHost().getHostName();
+                } catch (IOException e) {
+                    hostname = "localhost";
+                }
+            }
+            address.setHostname(hostname).setPort(port);
+        } else if (inProcessName != null) {
+            address.setInProcessName(inProcessName);
+        } else if (socketPath != null) {
+            address.setSocketPath(socketPath);
+        }
+        ManagedChannel channel = Transports.tcpChannel(brokerHostname, brokerPort);
+        try {
+            var broker = BrokerGrpc.newBlockingStub(channel);
+            if (register) {
+                broker.registerArchitect(address.build());
+                Logger.info("Registered with broker at {}:{}.", brokerHostname, brokerPort);
+            } else {
+                broker.deregisterArchitect(address.build());
+                Logger.info("Deregistered from broker at {}:{}.", brokerHostname, brokerPort);
+            }
+            return true;
+        } catch (StatusRuntimeException e) {
+            Logger.warn("Could not {} at broker {}:{}: {}", register ? "register" : "deregister",
+                    brokerHostname, brokerPort, e.getMessage());
+            return false;
+        } finally {
+            channel.shutdown();
+        }
+    }
+
+    /**
+     * Stops the grpc service if it is running.  The architects of games that have
+     * ended are shut down first, waiting at most {@link #SHUTDOWN_TIMEOUT_SECONDS}.
      */
     public void stop() {
-        if (server != null) {
+        if (registeredWithBroker) {
+            registeredWithBroker = false;
+            callBroker(false);
+        }
+        for (Server server : servers) {
             server.shutdown();
         }
+        if (workers != null) {
+            // the architects of ended games are shut down by the workers, once the
+            // events still waiting in their mailboxes have been delivered
+            try {
+                if (!awaitArchitectsShutDown(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    Logger.warn("Stopping before {} architects have shut down.", shuttingDownGames);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            workers.shutdown();
+        }
+        tracer.close();
+    }
+
+    /**
+     * Waits until the architects of all ended games have shut down.
+     */
+    private boolean awaitArchitectsShutDown(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (gameEnded) {
+            while (shuttingDownGames > 0) {
+                long now = System.nanoTime();
+                if (now >= deadline) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(gameEnded, deadline - now);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops accepting new games; the broker then starts them on other architect servers.
+     * Running games are not affected.  If the server registered with the broker, it
+     * deregisters.
+     */
+    public void startDraining() {
+        if (draining) {
+            return;
+        }
+        draining = true;
+        Logger.info("Draining, {} games running.", runningArchitects.size());
+        if (registeredWithBroker) {
+            registeredWithBroker = false;
+            callBroker(false);
+        }
+    }
+
+    /**
+     * Checks whether the server is draining, see {@link #startDraining()}.
+     * @return true if the server refuses new games
+     */
+    public boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * Returns the number of games running on this server.
+     * @return the number of games
+     */
+    public int getNumRunningGames() {
+        return runningArchitects.size();
+    }
+
+    /**
+     * Waits until all running games have ended, logging the progress every ten seconds.
+     * @param timeout maximal time to wait
+     * @param unit unit of the timeout
+     * @return true if all games ended, false if the timeout elapsed before
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public boolean awaitDrained(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long nextReport = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        synchronized (gameEnded) {
+            while (!runningArchitects.isEmpty()) {
+                long now = System.nanoTime();
+                if (now >= deadline) {
+                    return false;
+                }
+                if (now >= nextReport) {
+                    Logger.info("Draining, {} games still running.", runningArchitects.size());
+                    nextReport = now + TimeUnit.SECONDS.toNanos(10);
+                }
+                TimeUnit.NANOSECONDS.timedWait(gameEnded,
+                        Math.min(deadline, nextReport) - now);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Drains the server and stops it when all running games have ended or the timeout
+     * has elapsed, whichever comes first.  Games still running then are ended.
+     * @param timeout maximal time to wait for running games
+     * @param unit unit of the timeout
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public void drainAndStop(long timeout, TimeUnit unit) throws InterruptedException {
+        startDraining();
+        if (!awaitDrained(timeout, unit)) {
+            Logger.warn("Drain timeout elapsed, ending {} running games.",
+                    runningArchitects.size());
+            runningArchitects.forEach(this::endGame);
+        }
+        stop();
+    }
+
+    /**
+     * Returns the number of events waiting to be delivered to the architect of
+     * each running game.
+     * @return map from game ID to the number of waiting events
+     */
+    public Map<Integer, Integer> getMailboxDepths() {
+        Map<Integer, Integer> ret = new HashMap<>();
+        runningArchitects.forEach((id, mailbox) -> ret.put(id, mailbox.getDepth()));
+        return ret;
+    }
+
+    /**
+     * Returns the number of events waiting to be delivered to any architect.
+     * @return the number of waiting events
+     */
+    public int getQueuedEvents() {
+        int ret = 0;
+        for (GameMailbox mailbox : runningArchitects.values()) {
+            ret += mailbox.getDepth();
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the largest number of events that were waiting at the same time for
+     * the architect of any running game.
+     * @return the maximal mailbox depth
+     */
+    public int getMaxMailboxDepth() {
+        int ret = 0;
+        for (GameMailbox mailbox : runningArchitects.values()) {
+            ret = Math.max(ret, mailbox.getMaxDepth());
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the number of events delivered to architects since the server started.
+     * @return the number of delivered events
+     */
+    public long getDeliveredEvents() {
+        long ret = numDeliveredFinished.get();
+        for (GameMailbox mailbox : runningArchitects.values()) {
+            ret += mailbox.getNumDelivered();
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the number of status updates that were dropped since the server started
+     * because newer ones arrived while the architect was busy.
+     * @return the number of dropped status updates
+     */
+    public long getShedStatusUpdates() {
+        long ret = numShedFinished.get();
+        for (GameMailbox mailbox : runningArchitects.values()) {
+            ret += mailbox.getNumShed();
+        }
+        return ret;
+    }
+
+    /**
+     * Wraps an event of a game so that it is handled in a span of the current trace.
+     * The span starts now, when the event is queued, and is annotated when the event
+     * is delivered, so that it shows both the time in the mailbox and the work of the
+     * architect.
+     */
+    private Runnable traced(String name, int gameId, Runnable event) {
+        Span span = tracer.startSpan(name);
+        if (span.context() == null) {
+            return event;
+        }
+        span.tag("game.id", gameId);
+        return () -> {
+            span.annotate("delivered");
+            try {
+                span.run(event);
+            } finally {
+                span.end();
+            }
+        };
+    }
+
+    /**
+     * Removes the mailbox of a game and shuts its architect down after the events
+     * that are still waiting.
+     */
+    private void endGame(int gameId, GameMailbox mailbox) {
+        if (!runningArchitects.remove(gameId, mailbox)) {
+            // ended concurrently, e.g. by the broker while the server drains
+            return;
+        }
+        synchronized (gameEnded) {
+            shuttingDownGames++;
+            gameEnded.notifyAll();
+        }
+        try {
+            mailbox.submit(() -> {
+                try {
+                    mailbox.getArchitect().shutdown();
+                    numDeliveredFinished.addAndGet(mailbox.getNumDelivered() + 1);
+                    numShedFinished.addAndGet(mailbox.getNumShed());
+                    Logger.info("architect for id {} finished", gameId);
+                } finally {
+                    architectShutDown();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Logger.warn("Could not shut down architect for id {}, the server has stopped", gameId);
+            architectShutDown();
+        }
+    }
+
+    private void architectShutDown() {
+        synchronized (gameEnded) {
+            shuttingDownGames--;
+            gameEnded.notifyAll();
+        }
     }
 
     /**
@@ -83,7 +556,7 @@ public class ArchitectServer {
      * @throws InterruptedException if termination did not work
      */
     public void blockUntilShutdown() throws InterruptedException {
-        if (server != null) {
+        for (Server server : servers) {
             server.awaitTermination();
         }
     }
@@ -115,24 +588,42 @@ public class ArchitectServer {
          */
         @Override
         public void startGame(WorldSelectMessage request, StreamObserver<None> responseObserver) {
+            if (draining) {
+                responseObserver.onError(io.grpc.Status.UNAVAILABLE
+                        .withDescription("Architect server is draining")
+                        .asRuntimeException());
+                return;
+            }
             Architect arch = factory.build();
-            runningArchitects.put(request.getGameId(), arch);
+            var mailbox = new GameMailbox(request.getGameId(), arch, workers, shedThreshold);
+            runningArchitects.put(request.getGameId(), mailbox);
 
             responseObserver.onNext(None.getDefaultInstance());
             responseObserver.onCompleted();
             // perfom expensive initialization after letting the broker return.
-            arch.initialize(request);
-            Logger.info("architect initialized for id {}: {}", request.getGameId(), arch);
+            mailbox.submit(traced("initialize", request.getGameId(), () -> {
+                var event = new ArchitectInitializeEvent();
+                event.begin();
+                arch.initialize(request);
+                if (event.shouldCommit()) {
+                    event.gameId = request.getGameId();
+                    event.scenario = request.getName();
+                    event.architect = arch.getClass().getName();
+                    event.commit();
+                }
+                Logger.info("architect initialized for id {}: {}", request.getGameId(), arch);
+            }));
         }
 
         @Override
         public void playerReady(GameId request, StreamObserver<None> responseObserver) {
             int id = request.getId();
-            var architect = runningArchitects.get(id);
-            if (architect != null) {
+            var mailbox = runningArchitects.get(id);
+            if (mailbox != null) {
                 responseObserver.onNext(None.getDefaultInstance());
                 responseObserver.onCompleted();
-                architect.playerReady();
+                Architect architect = mailbox.getArchitect();
+                mailbox.submit(traced("playerReady", id, architect::playerReady));
             } else {
                 Status status = Status.newBuilder()
                     .setCode(Code.INVALID_ARGUMENT.getNumber())
@@ -148,8 +639,8 @@ public class ArchitectServer {
             StreamObserver<TextMessage> responseObserver) {
             Logger.info("architectServer getMessageChannel");
 
-            var architect = runningArchitects.get(request.getId());
-            if (architect == null) {
+            var mailbox = runningArchitects.get(request.getId());
+            if (mailbox == null) {
                 Status status = Status.newBuilder()
                     .setCode(Code.INVALID_ARGUMENT.getNumber())
                     .setMessage("No architect running for game ID " + request.getId())
@@ -159,7 +650,9 @@ public class ArchitectServer {
                 return;
             }
 
-            architect.setMessageChannel(responseObserver);
+            // not through the mailbox, so that the architect can send messages
+            // while it is still initializing
+            mailbox.getArchitect().setMessageChannel(responseObserver);
             Logger.info("set the message channel");
         }
 
@@ -167,8 +660,8 @@ public class ArchitectServer {
         public void getControlChannel(GameId request, StreamObserver<ProtectBlockMessage> responseObserver) {
             Logger.info("architectServer getControlChannel");
 
-            var architect = runningArchitects.get(request.getId());
-            if (architect == null) {
+            var mailbox = runningArchitects.get(request.getId());
+            if (mailbox == null) {
                 Status status = Status.newBuilder()
                         .setCode(Code.INVALID_ARGUMENT.getNumber())
                         .setMessage("No architect running for game ID " + request.getId())
@@ -178,27 +671,23 @@ public class ArchitectServer {
                 return;
             }
 
-            architect.setControlChannel(responseObserver);
+            mailbox.getArchitect().setControlChannel(responseObserver);
             Logger.info("set the message channel");
         }
 
         /**
          * Marks the given game as finished and shuts down its corresponding
-         * architect instance.
+         * architect instance once it has handled the events that are still waiting.
          */
         @Override
         public void endGame(GameId request, StreamObserver<None> responseObserver) {
-            var architect = runningArchitects.get(request.getId());
-            if (architect != null) {
-                architect.shutdown();
-            } else {
+            var mailbox = runningArchitects.get(request.getId());
+            if (mailbox == null) {
                 responseObserver.onError(new RuntimeException("Incorrect ID"));
                 return;
             }
 
-            runningArchitects.remove(request.getId());
-
-            Logger.info("architect for id {} finished", request.getId());
+            ArchitectServer.this.endGame(request.getId(), mailbox);
 
             responseObserver.onNext(None.newBuilder().build());
             responseObserver.onCompleted();
@@ -206,68 +695,85 @@ public class ArchitectServer {
 
         @Override
         public void endAllGames(None request, StreamObserver<None> responseObserver) {
-            for (var a: runningArchitects.values()) {
-                a.shutdown();
-            }
-            runningArchitects.clear();
+            runningArchitects.forEach(ArchitectServer.this::endGame);
             responseObserver.onNext(None.getDefaultInstance());
             responseObserver.onCompleted();
         }
 
         /**
-         * Delegates the status message to the architect for the given game ID.
+         * Queues the status message for the architect for the given game ID.
          */
         @Override
         public void handleStatusInformation(StatusMessage request,
                                             StreamObserver<None> responseObserver) {
-            Architect arch = runningArchitects.get(request.getGameId());
+            GameMailbox mailbox = runningArchitects.get(request.getGameId());
 
-            if (arch == null) {
+            if (mailbox == null) {
                 Status status = Status.newBuilder()
                         .setCode(Code.INVALID_ARGUMENT.getNumber())
                         .setMessage("No architect running for game ID " + request.getGameId())
                         .build();
                 responseObserver.onError(StatusProto.toStatusRuntimeException(status));
             } else {
-                arch.handleStatusInformation(request);
+                Architect arch = mailbox.getArchitect();
+                mailbox.submitStatus(traced("handleStatusInformation", request.getGameId(),
+                        () -> arch.handleStatusInformation(request)));
+                responseObserver.onNext(None.getDefaultInstance());
+                responseObserver.onCompleted();
             }
         }
 
         /**
-         * Delegates the block placed message to the architect for the given game ID.
+         * Queues the block placed message for the architect for the given game ID.
          */
         @Override
         public void handleBlockPlaced(BlockPlacedMessage request,
                                       StreamObserver<None> responseObserver) {
-            Architect arch = runningArchitects.get(request.getGameId());
+            GameMailbox mailbox = runningArchitects.get(request.getGameId());
 
-            if (arch == null) {
+            if (mailbox == null) {
                 Status status = Status.newBuilder()
                     .setCode(Code.INVALID_ARGUMENT.getNumber())
                     .setMessage("No architect running for game ID " + request.getGameId())
                     .build();
                 responseObserver.onError(StatusProto.toStatusRuntimeException(status));
             } else {
-                arch.handleBlockPlaced(request);
+                Architect arch = mailbox.getArchitect();
+                mailbox.submit(traced("handleBlockPlaced", request.getGameId(), () -> {
+                    if (arch instanceof AbstractArchitect) {
+                        ((AbstractArchitect) arch).updateWorldState(request);
+                    }
+                    arch.handleBlockPlaced(request);
+                }));
+                responseObserver.onNext(None.getDefaultInstance());
+                responseObserver.onCompleted();
             }
         }
 
         /**
-         * Delegates the block destroyed message to the architect for the given game ID.
+         * Queues the block destroyed message for the architect for the given game ID.
          */
         @Override
         public void handleBlockDestroyed(BlockDestroyedMessage request,
                                          StreamObserver<None> responseObserver) {
-            Architect arch = runningArchitects.get(request.getGameId());
+            GameMailbox mailbox = runningArchitects.get(request.getGameId());
 
-            if (arch == null) {
+            if (mailbox == null) {
                 Status status = Status.newBuilder()
                     .setCode(Code.INVALID_ARGUMENT.getNumber())
                     .setMessage("No architect running for game ID " + request.getGameId())
                     .build();
                 responseObserver.onError(StatusProto.toStatusRuntimeException(status));
             } else {
-                arch.handleBlockDestroyed(request);
+                Architect arch = mailbox.getArchitect();
+                mailbox.submit(traced("handleBlockDestroyed", request.getGameId(), () -> {
+                    if (arch instanceof AbstractArchitect) {
+                        ((AbstractArchitect) arch).updateWorldState(request);
+                    }
+                    arch.handleBlockDestroyed(request);
+                }));
+                responseObserver.onNext(None.getDefaultInstance());
+                responseObserver.onCompleted();
             }
         }
     }
@@ -5,6 +5,7 @@ import de.saar.minecraft.shared.BlockPlacedMessage;
 import de.saar.minecraft.shared.NewGameState;
 import de.saar.minecraft.shared.StatusMessage;
 import de.saar.minecraft.shared.WorldSelectMessage;
+import io.grpc.Context;
 
 /**
  * creates a dummy architect for testing.
@@ -64,8 +65,8 @@ public class DummyArchitect extends AbstractArchitect {
         }
         statusIteration = 0;
 
-        // spawn a thread for a long-running computation
-        new Thread(() -> {
+        // spawn a thread for a long-running computation; wrapping it keeps the trace context
+        new Thread(Context.current().wrap(() -> {
             String text = "your x was " + x + " and you looked in x direction " + xdir;
             // delay for a bit
             try {
@@ -75,7 +76,7 @@ public class DummyArchitect extends AbstractArchitect {
             }
             // send the text message back to the client
             sendMessage(text);
-        }).start();
+        })).start();
     }
 
     @Override
@@ -85,8 +86,8 @@ public class DummyArchitect extends AbstractArchitect {
         int y = request.getY();
         int z = request.getZ();
 
-        // spawn a thread for a long-running computation
-        new Thread(() -> {
+        // spawn a thread for a long-running computation; wrapping it keeps the trace context
+        new Thread(Context.current().wrap(() -> {
             String text = String.format("A block was placed at %d-%d-%d :%d", x, y, z, type);
             var gameState = NewGameState.NotChanged;
             if (endAfterFirstBlock) {
@@ -99,7 +100,7 @@ public class DummyArchitect extends AbstractArchitect {
                 e.printStackTrace();
             }
             sendMessage(text, gameState);
-        }).start();
+        })).start();
     }
 
     @Override
@@ -109,8 +110,8 @@ public class DummyArchitect extends AbstractArchitect {
         int z = request.getZ();
         int type = request.getType();
 
-        // spawn a thread for a long-running computation
-        new Thread(() -> {
+        // spawn a thread for a long-running computation; wrapping it keeps the trace context
+        new Thread(Context.current().wrap(() -> {
             var text = String.format("A block was destroyed at %d-%d-%d :%d", x, y, z, type);
             // delay for a bit
             try {
@@ -119,7 +120,7 @@ public class DummyArchitect extends AbstractArchitect {
                 e.printStackTrace();
             }
             sendMessage(text);
-        }).start();
+        })).start();
     }
 
     @Override
@@ -0,0 +1,169 @@
+package de.saar.minecraft.architect;
+
+import de.saar.minecraft.architect.jfr.MailboxDispatchEvent;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.tinylog.Logger;
+
+/**
+ * The events for the architect of one game, waiting to be delivered.  Events are
+ * delivered by the threads of a worker pool shared by all games, but at most one
+ * thread works on a mailbox at any time, so the architect receives the events of
+ * its game one after the other.
+ *
+ * <p>Status updates go into a lane of their own, which is only served when no other
+ * events are waiting, so that block events and changes of the game state are never
+ * delayed by status updates.  Events within a lane are delivered in the order in which
+ * they arrived.  When more events than the shedding threshold are waiting, only the
+ * latest status update is kept, since the earlier ones are outdated anyway.</p>
+ */
+class GameMailbox {
+    /** Events delivered before the worker thread is handed to another game. */
+    private static final int BATCH_SIZE = 32;
+    /** A warning is logged whenever the depth reaches a multiple of this. */
+    private static final int WARN_DEPTH = 1000;
+
+    private final int gameId;
+    private final Architect architect;
+    private final Executor workers;
+    private final int shedThreshold;
+    private final Queue<Runnable> events = new ConcurrentLinkedQueue<>();
+    private final Queue<Runnable> statusUpdates = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicInteger statusDepth = new AtomicInteger();
+    private final AtomicLong numShed = new AtomicLong();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicLong numDelivered = new AtomicLong();
+    private volatile int maxDepth;
+
+    GameMailbox(int gameId, Architect architect, Executor workers, int shedThreshold) {
+        this.gameId = gameId;
+        this.architect = architect;
+        this.workers = workers;
+        this.shedThreshold = shedThreshold;
+    }
+
+    Architect getArchitect() {
+        return architect;
+    }
+
+    /**
+     * Adds an event to the mailbox; it is delivered after all earlier events.
+     */
+    void submit(Runnable event) {
+        events.add(event);
+        added(depth.incrementAndGet());
+    }
+
+    /**
+     * Adds a status update to the mailbox; it is delivered when no other events are
+     * waiting.  If the mailbox is too full, earlier status updates that are still
+     * waiting are dropped.
+     */
+    void submitStatus(Runnable statusUpdate) {
+        int current;
+        // the lock keeps statusDepth in step with the lane, so the latest update is never shed
+        synchronized (statusUpdates) {
+            statusUpdates.add(statusUpdate);
+            statusDepth.incrementAndGet();
+            current = depth.incrementAndGet();
+            if (current > shedThreshold) {
+                while (statusDepth.get() > 1) {
+                    statusUpdates.poll();
+                    statusDepth.decrementAndGet();
+                    current = depth.decrementAndGet();
+                    numShed.incrementAndGet();
+                }
+            }
+        }
+        added(current);
+    }
+
+    private void added(int current) {
+        if (current > maxDepth) {
+            maxDepth = current;
+        }
+        if (current % WARN_DEPTH == 0) {
+            Logger.warn("{} events waiting for the architect of game {}", current, gameId);
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            workers.execute(this::deliver);
+        }
+    }
+
+    /**
+     * Delivers up to BATCH_SIZE events and reschedules the mailbox if more are waiting,
+     * so that one busy game cannot keep a worker thread to itself.
+     */
+    private void deliver() {
+        var dispatch = new MailboxDispatchEvent();
+        dispatch.begin();
+        int i;
+        for (i = 0; i < BATCH_SIZE; i++) {
+            Runnable event = events.poll();
+            if (event == null) {
+                synchronized (statusUpdates) {
+                    event = statusUpdates.poll();
+                    if (event == null) {
+                        break;
+                    }
+                    statusDepth.decrementAndGet();
+                }
+            }
+            try {
+                event.run();
+            } catch (RuntimeException e) {
+                Logger.error(e, "Architect for game {} failed to handle an event", gameId);
+            }
+            depth.decrementAndGet();
+            numDelivered.incrementAndGet();
+        }
+        if (dispatch.shouldCommit()) {
+            dispatch.gameId = gameId;
+            dispatch.delivered = i;
+            dispatch.waiting = depth.get();
+            dispatch.commit();
+        }
+        scheduled.set(false);
+        if (!events.isEmpty() || !statusUpdates.isEmpty()) {
+            schedule();
+        }
+    }
+
+    /**
+     * Returns the number of events waiting to be delivered.
+     */
+    int getDepth() {
+        return depth.get();
+    }
+
+    /**
+     * Returns the largest number of events that were waiting at the same time.
+     */
+    int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Returns the number of status updates that were dropped because newer ones arrived
+     * while the mailbox was too full.
+     */
+    long getNumShed() {
+        return numShed.get();
+    }
+
+    /**
+     * Returns the number of events delivered to the architect so far.
+     */
+    long getNumDelivered() {
+        return numDelivered.get();
+    }
+}
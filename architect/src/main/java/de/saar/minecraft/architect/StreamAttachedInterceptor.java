@@ -0,0 +1,69 @@
+package de.saar.minecraft.architect;
+
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+/**
+ * Sends the response headers of the message and control channels as soon as the
+ * architect has the stream, instead of with the first message.  Clients that must
+ * not send events before the architect can answer them, such as the replay tool of
+ * the broker, wait for the headers.
+ */
+class StreamAttachedInterceptor implements ServerInterceptor {
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+            ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        if (call.getMethodDescriptor().getType() != MethodDescriptor.MethodType.SERVER_STREAMING) {
+            return next.startCall(call, headers);
+        }
+        var onceCall = new HeadersOnceCall<>(call);
+        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<>(
+                next.startCall(onceCall, headers)) {
+            @Override
+            public void onHalfClose() {
+                // the handler of a server streaming call runs when the request is complete
+                super.onHalfClose();
+                onceCall.sendHeaders(new Metadata());
+            }
+        };
+    }
+
+    /**
+     * A call that sends its headers only once and not after it was closed, so that
+     * headers sent early do not clash with those the stub sends with the first message.
+     */
+    private static class HeadersOnceCall<ReqT, RespT>
+            extends ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT> {
+        private boolean headersSent;
+        private boolean closed;
+
+        HeadersOnceCall(ServerCall<ReqT, RespT> delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public synchronized void sendHeaders(Metadata headers) {
+            if (!headersSent && !closed) {
+                headersSent = true;
+                super.sendHeaders(headers);
+            }
+        }
+
+        @Override
+        public synchronized void sendMessage(RespT message) {
+            super.sendMessage(message);
+        }
+
+        @Override
+        public synchronized void close(Status status, Metadata trailers) {
+            closed = true;
+            super.close(status, trailers);
+        }
+    }
+}
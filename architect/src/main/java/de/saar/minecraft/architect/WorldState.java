@@ -0,0 +1,470 @@
+package de.saar.minecraft.architect;
+
+import java.util.Arrays;
+
+/**
+ * The blocks placed in a Minecraft world, as a map from block coordinates to block
+ * types.  Coordinates are packed into a single long and stored in an open-addressing
+ * hash table of primitive arrays, so that updates and queries do not allocate.
+ * x and z must lie within +-2^25 and y within +-2^10, which covers the whole
+ * Minecraft world.
+ *
+ * <p>All methods are synchronized, so the world state can be read from other threads
+ * while the architect server updates it.</p>
+ */
+public class WorldState {
+    /** Returned by {@link #getBlockType} if there is no block at the given position. */
+    public static final int NO_BLOCK = -1;
+
+    private static final int XZ_BITS = 26;
+    private static final int Y_BITS = 11;
+    private static final long XZ_MASK = (1L << XZ_BITS) - 1;
+    private static final long Y_MASK = (1L << Y_BITS) - 1;
+    private static final int XZ_OFFSET = 1 << (XZ_BITS - 1);
+    private static final int Y_OFFSET = 1 << (Y_BITS - 1);
+    /** Packed coordinates use 63 bits and are never negative, so -1 marks empty slots. */
+    private static final long EMPTY = -1;
+    private static final int MIN_CAPACITY = 16;
+    /** Held while locking two world states whose identity hashes are equal. */
+    private static final Object TIE_LOCK = new Object();
+
+    private long[] keys;
+    private int[] types;
+    private int size;
+    private int mask;
+
+    private int minX;
+    private int minY;
+    private int minZ;
+    private int maxX;
+    private int maxY;
+    private int maxZ;
+    /** Set when a block on the border of the bounding box was removed. */
+    private boolean boundsStale;
+
+    /**
+     * Called for the blocks of a world state, see {@link #forEach}.
+     */
+    @FunctionalInterface
+    public interface BlockConsumer {
+        /**
+         * Handles the block of the given type at the given position.
+         * @param x x coordinate
+         * @param y y coordinate
+         * @param z z coordinate
+         * @param type block type
+         */
+        void accept(int x, int y, int z, int type);
+    }
+
+    /**
+     * Creates an empty world state.
+     */
+    public WorldState() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Creates an empty world state with room for the given number of blocks.
+     * @param expectedBlocks number of blocks that can be added without resizing
+     */
+    public WorldState(int expectedBlocks) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedBlocks * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * Packs block coordinates into a single long.
+     * @param x x coordinate
+     * @param y y coordinate
+     * @param z z coordinate
+     * @return the packed coordinates
+     */
+    public static long pack(int x, int y, int z) {
+        return ((x + XZ_OFFSET) & XZ_MASK) << (XZ_BITS + Y_BITS)
+                | ((z + XZ_OFFSET) & XZ_MASK) << Y_BITS
+                | ((y + Y_OFFSET) & Y_MASK);
+    }
+
+    /**
+     * Returns the x coordinate of packed coordinates.
+     * @param packed the packed coordinates
+     * @return x coordinate
+     */
+    public static int unpackX(long packed) {
+        return (int) ((packed >>> (XZ_BITS + Y_BITS)) & XZ_MASK) - XZ_OFFSET;
+    }
+
+    /**
+     * Returns the y coordinate of packed coordinates.
+     * @param packed the packed coordinates
+     * @return y coordinate
+     */
+    public static int unpackY(long packed) {
+        return (int) (packed & Y_MASK) - Y_OFFSET;
+    }
+
+    /**
+     * Returns the z coordinate of packed coordinates.
+     * @param packed the packed coordinates
+     * @return z coordinate
+     */
+    public static int unpackZ(long packed) {
+        return (int) ((packed >>> Y_BITS) & XZ_MASK) - XZ_OFFSET;
+    }
+
+    /**
+     * Records a block of the given type at the given position, replacing the
+     * block that was there before.
+     * @param x x coordinate
+     * @param y y coordinate
+     * @param z z coordinate
+     * @param type block type, e.g. the type of a BlockPlacedMessage
+     */
+    public synchronized void placeBlock(int x, int y, int z, int type) {
+        long key = pack(x, y, z);
+        int slot = findSlot(key);
+        if (keys[slot] == key) {
+            types[slot] = type;
+            return;
+        }
+        keys[slot] = key;
+        types[slot] = type;
+        size++;
+        if (size == 1) {
+            minX = maxX = x;
+            minY = maxY = y;
+            minZ = maxZ = z;
+        } else if (!boundsStale) {
+            extendBounds(x, y, z);
+        }
+        if (size * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+    }
+
+    /**
+     * Removes the block at the given position if there is one.
+     * @param x x coordinate
+     * @param y y coordinate
+     * @param z z coordinate
+     * @return true if there was a block
+     */
+    public synchronized boolean removeBlock(int x, int y, int z) {
+        long key = pack(x, y, z);
+        int slot = findSlot(key);
+        if (keys[slot] != key) {
+            return false;
+        }
+        deleteSlot(slot);
+        size--;
+        if (x == minX || x == maxX || y == minY || y == maxY || z == minZ || z == maxZ) {
+            boundsStale = true;
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether there is a block at the given position.
+     * @param x x coordinate
+     * @param y y coordinate
+     * @param z z coordinate
+     * @return true if there is a block
+     */
+    public synchronized boolean isBlockAt(int x, int y, int z) {
+        long key = pack(x, y, z);
+        return keys[findSlot(key)] == key;
+    }
+
+    /**
+     * Returns the type of the block at the given position.
+     * @param x x coordinate
+     * @param y y coordinate
+     * @param z z coordinate
+     * @return the block type or {@link #NO_BLOCK}
+     */
+    public synchronized int getBlockType(int x, int y, int z) {
+        long key = pack(x, y, z);
+        int slot = findSlot(key);
+        return keys[slot] == key ? types[slot] : NO_BLOCK;
+    }
+
+    /**
+     * Returns the number of blocks.
+     * @return the number of blocks
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Removes all blocks.
+     */
+    public synchronized void clear() {
+        allocate(MIN_CAPACITY);
+        size = 0;
+        boundsStale = false;
+    }
+
+    /**
+     * Calls the consumer for every block, in no particular order.  The consumer must
+     * not modify this world state.
+     * @param consumer the consumer
+     */
+    public synchronized void forEach(BlockConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            long key = keys[i];
+            if (key != EMPTY) {
+                consumer.accept(unpackX(key), unpackY(key), unpackZ(key), types[i]);
+            }
+        }
+    }
+
+    /**
+     * Calls the consumer for every block of the target that is missing in this world
+     * state or has a different type here, with the type it has in the target.
+     * @param target the target structure, e.g. the building the player should build
+     * @param consumer the consumer
+     * @return the number of missing blocks
+     */
+    public int forEachMissing(WorldState target, BlockConsumer consumer) {
+        return target.countNotIn(this, consumer);
+    }
+
+    /**
+     * Calls the consumer for every block of this world state that is not part of the
+     * target or has a different type there, with the type it has here.
+     * @param target the target structure, e.g. the building the player should build
+     * @param consumer the consumer
+     * @return the number of extra blocks
+     */
+    public int forEachExtra(WorldState target, BlockConsumer consumer) {
+        return countNotIn(target, consumer);
+    }
+
+    /**
+     * Returns the number of blocks of the target that are missing here or have a
+     * different type here.
+     * @param target the target structure
+     * @return the number of missing blocks
+     */
+    public int countMissing(WorldState target) {
+        return target.countNotIn(this, null);
+    }
+
+    /**
+     * Returns the number of blocks here that are not part of the target or have a
+     * different type there.
+     * @param target the target structure
+     * @return the number of extra blocks
+     */
+    public int countExtra(WorldState target) {
+        return countNotIn(target, null);
+    }
+
+    /**
+     * Counts the blocks of this world state that are not in the other world state
+     * with the same type, calling the consumer for each of them if it is not null.
+     */
+    private int countNotIn(WorldState other, BlockConsumer consumer) {
+        if (other == this) {
+            return 0;
+        }
+        // always lock in the same order to avoid deadlocks between concurrent diffs;
+        // world states with the same identity hash are ordered by holding TIE_LOCK
+        int thisHash = System.identityHashCode(this);
+        int otherHash = System.identityHashCode(other);
+        if (thisHash == otherHash) {
+            synchronized (TIE_LOCK) {
+                synchronized (this) {
+                    synchronized (other) {
+                        return countNotInLocked(other, consumer);
+                    }
+                }
+            }
+        }
+        WorldState first = thisHash < otherHash ? this : other;
+        WorldState second = first == this ? other : this;
+        synchronized (first) {
+            synchronized (second) {
+                return countNotInLocked(other, consumer);
+            }
+        }
+    }
+
+    private int countNotInLocked(WorldState other, BlockConsumer consumer) {
+        int ret = 0;
+        for (int i = 0; i < keys.length; i++) {
+            long key = keys[i];
+            if (key == EMPTY) {
+                continue;
+            }
+            int otherSlot = other.findSlot(key);
+            if (other.keys[otherSlot] != key || other.types[otherSlot] != types[i]) {
+                ret++;
+                if (consumer != null) {
+                    consumer.accept(unpackX(key), unpackY(key), unpackZ(key), types[i]);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the smallest x coordinate of any block, undefined if there are no blocks.
+     * @return smallest x coordinate
+     */
+    public synchronized int getMinX() {
+        updateBounds();
+        return minX;
+    }
+
+    /**
+     * Returns the smallest y coordinate of any block, undefined if there are no blocks.
+     * @return smallest y coordinate
+     */
+    public synchronized int getMinY() {
+        updateBounds();
+        return minY;
+    }
+
+    /**
+     * Returns the smallest z coordinate of any block, undefined if there are no blocks.
+     * @return smallest z coordinate
+     */
+    public synchronized int getMinZ() {
+        updateBounds();
+        return minZ;
+    }
+
+    /**
+     * Returns the largest x coordinate of any block, undefined if there are no blocks.
+     * @return largest x coordinate
+     */
+    public synchronized int getMaxX() {
+        updateBounds();
+        return maxX;
+    }
+
+    /**
+     * Returns the largest y coordinate of any block, undefined if there are no blocks.
+     * @return largest y coordinate
+     */
+    public synchronized int getMaxY() {
+        updateBounds();
+        return maxY;
+    }
+
+    /**
+     * Returns the largest z coordinate of any block, undefined if there are no blocks.
+     * @return largest z coordinate
+     */
+    public synchronized int getMaxZ() {
+        updateBounds();
+        return maxZ;
+    }
+
+    private void extendBounds(int x, int y, int z) {
+        minX = Math.min(minX, x);
+        minY = Math.min(minY, y);
+        minZ = Math.min(minZ, z);
+        maxX = Math.max(maxX, x);
+        maxY = Math.max(maxY, y);
+        maxZ = Math.max(maxZ, z);
+    }
+
+    /**
+     * Recomputes the bounding box after blocks on its border were removed.
+     */
+    private void updateBounds() {
+        if (!boundsStale) {
+            return;
+        }
+        boundsStale = false;
+        boolean first = true;
+        for (long key : keys) {
+            if (key == EMPTY) {
+                continue;
+            }
+            int x = unpackX(key);
+            int y = unpackY(key);
+            int z = unpackZ(key);
+            if (first) {
+                minX = maxX = x;
+                minY = maxY = y;
+                minZ = maxZ = z;
+                first = false;
+            } else {
+                extendBounds(x, y, z);
+            }
+        }
+    }
+
+    /**
+     * Mixes all bits of the key into the low bits of the hash, which select the slot;
+     * x is packed into the high bits of the key and must not be lost in small tables.
+     */
+    static int hash(long key) {
+        long h = key;
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return (int) (h ^ (h >>> 33));
+    }
+
+    /**
+     * Returns the slot that holds the key or the empty slot where it would be inserted.
+     */
+    private int findSlot(long key) {
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Empties a slot and moves later entries of the same probe sequence back, so that
+     * lookups never need to skip deleted entries.
+     */
+    private void deleteSlot(int slot) {
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (keys[next] != EMPTY) {
+            int home = hash(keys[next]) & mask;
+            // move the entry into the hole unless its home slot lies cyclically in (hole, next]
+            boolean homeBetween = hole <= next
+                    ? hole < home && home <= next
+                    : hole < home || home <= next;
+            if (!homeBetween) {
+                keys[hole] = keys[next];
+                types[hole] = types[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[hole] = EMPTY;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        types = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldTypes = types;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = findSlot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                types[slot] = oldTypes[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package de.saar.minecraft.architect.jfr;
+
+import de.saar.minecraft.util.FlightRecorderEvents;
+import java.util.List;
+
+/**
+ * The JDK Flight Recorder events of the architect server.  They are disabled by
+ * default, see ArchitectServer.enableFlightRecorderEvents.
+ */
+public class ArchitectEvents {
+    /**
+     * Enables all events of the architect server, see {@link FlightRecorderEvents}.
+     */
+    public static void enable() {
+        FlightRecorderEvents.enable(List.of(MailboxDispatchEvent.class,
+                ArchitectInitializeEvent.class));
+    }
+}
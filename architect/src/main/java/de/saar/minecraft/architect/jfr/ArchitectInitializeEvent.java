@@ -0,0 +1,30 @@
+package de.saar.minecraft.architect.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The architect of a new game was initialized, see Architect.initialize.
+ */
+@Name("de.saar.minecraft.architect.Initialize")
+@Label("Architect Initialize")
+@Category({"Minecraft", "Architect Server"})
+@Description("The architect of a new game was initialized")
+@Enabled(false)
+@StackTrace(false)
+public class ArchitectInitializeEvent extends Event {
+    @Label("Game ID")
+    public int gameId;
+
+    @Label("Scenario")
+    public String scenario;
+
+    @Label("Architect")
+    @Description("Class of the architect")
+    public String architect;
+}
@@ -0,0 +1,31 @@
+package de.saar.minecraft.architect.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A worker thread delivered a batch of events of one game to its architect.
+ */
+@Name("de.saar.minecraft.architect.MailboxDispatch")
+@Label("Mailbox Dispatch")
+@Category({"Minecraft", "Architect Server"})
+@Description("A batch of events was delivered to the architect of a game")
+@Enabled(false)
+@StackTrace(false)
+public class MailboxDispatchEvent extends Event {
+    @Label("Game ID")
+    public int gameId;
+
+    @Label("Delivered")
+    @Description("Number of events delivered in this batch")
+    public int delivered;
+
+    @Label("Waiting")
+    @Description("Number of events still waiting after this batch")
+    public int waiting;
+}
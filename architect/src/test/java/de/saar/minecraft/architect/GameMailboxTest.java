@@ -0,0 +1,193 @@
+package de.saar.minecraft.architect;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class GameMailboxTest {
+    private static final int NUM_GAMES = 8;
+    /** More than one batch per game, so that the mailboxes are rescheduled. */
+    private static final int EVENTS_PER_GAME = 500;
+
+    @Test
+    public void testFifoAndOneWorkerPerGame() throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(3);
+        List<GameMailbox> mailboxes = new ArrayList<>();
+        List<List<Integer>> delivered = new ArrayList<>();
+        AtomicInteger[] active = new AtomicInteger[NUM_GAMES];
+        AtomicInteger overlaps = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(NUM_GAMES * EVENTS_PER_GAME);
+        for (int game = 0; game < NUM_GAMES; game++) {
+            mailboxes.add(new GameMailbox(game, null, workers, Integer.MAX_VALUE));
+            delivered.add(new ArrayList<>());
+            active[game] = new AtomicInteger();
+        }
+
+        // one producer per game, so that the order of the events of a game is defined
+        List<Thread> producers = new ArrayList<>();
+        for (int game = 0; game < NUM_GAMES; game++) {
+            int g = game;
+            producers.add(new Thread(() -> {
+                for (int i = 0; i < EVENTS_PER_GAME; i++) {
+                    int event = i;
+                    mailboxes.get(g).submit(() -> {
+                        if (active[g].incrementAndGet() != 1) {
+                            overlaps.incrementAndGet();
+                        }
+                        // not synchronized: only one worker may deliver events of the game
+                        delivered.get(g).add(event);
+                        Thread.yield();
+                        active[g].decrementAndGet();
+                        done.countDown();
+                    });
+                }
+            }));
+        }
+        producers.forEach(Thread::start);
+        try {
+            assertTrue(done.await(10, TimeUnit.SECONDS), "not all events were delivered");
+        } finally {
+            workers.shutdown();
+        }
+        assertTrue(workers.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(0, overlaps.get());
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < EVENTS_PER_GAME; i++) {
+            expected.add(i);
+        }
+        for (int game = 0; game < NUM_GAMES; game++) {
+            assertEquals(expected, delivered.get(game));
+            GameMailbox mailbox = mailboxes.get(game);
+            assertEquals(0, mailbox.getDepth());
+            assertEquals(EVENTS_PER_GAME, mailbox.getNumDelivered());
+            assertTrue(mailbox.getMaxDepth() <= EVENTS_PER_GAME);
+        }
+    }
+
+    @Test
+    public void testFailingEventDoesNotStopMailbox() throws InterruptedException {
+        ExecutorService workers = Executors.newSingleThreadExecutor();
+        var mailbox = new GameMailbox(1, null, workers, Integer.MAX_VALUE);
+        CountDownLatch done = new CountDownLatch(1);
+        mailbox.submit(() -> {
+            throw new IllegalStateException("architect failed");
+        });
+        mailbox.submit(done::countDown);
+        try {
+            assertTrue(done.await(10, TimeUnit.SECONDS), "event after the failure was not delivered");
+        } finally {
+            workers.shutdown();
+        }
+        assertTrue(workers.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(2, mailbox.getNumDelivered());
+        assertEquals(0, mailbox.getDepth());
+    }
+
+    @Test
+    public void testBlockEventsOvertakeStatusUpdates() {
+        Queue<Runnable> tasks = new ArrayDeque<>();
+        var mailbox = new GameMailbox(1, null, tasks::add, Integer.MAX_VALUE);
+        List<String> delivered = new ArrayList<>();
+        mailbox.submitStatus(() -> delivered.add("status 1"));
+        mailbox.submit(() -> delivered.add("block 1"));
+        mailbox.submitStatus(() -> delivered.add("status 2"));
+        mailbox.submit(() -> delivered.add("block 2"));
+        assertEquals(4, mailbox.getDepth());
+
+        runAll(tasks);
+        assertEquals(List.of("block 1", "block 2", "status 1", "status 2"), delivered);
+        assertEquals(0, mailbox.getDepth());
+        assertEquals(0, mailbox.getNumShed());
+    }
+
+    @Test
+    public void testOnlyLatestStatusSurvivesAboveThreshold() {
+        Queue<Runnable> tasks = new ArrayDeque<>();
+        var mailbox = new GameMailbox(1, null, tasks::add, 3);
+        List<String> delivered = new ArrayList<>();
+        mailbox.submit(() -> delivered.add("block 1"));
+        mailbox.submitStatus(() -> delivered.add("status 1"));
+        mailbox.submitStatus(() -> delivered.add("status 2"));
+        // at the threshold, nothing is shed yet
+        assertEquals(3, mailbox.getDepth());
+        assertEquals(0, mailbox.getNumShed());
+
+        // above it, the waiting status updates give way to the new one
+        mailbox.submitStatus(() -> delivered.add("status 3"));
+        assertEquals(2, mailbox.getDepth());
+        assertEquals(2, mailbox.getNumShed());
+
+        // block events are never shed, and the latest status update always survives
+        mailbox.submit(() -> delivered.add("block 2"));
+        mailbox.submit(() -> delivered.add("block 3"));
+        mailbox.submitStatus(() -> delivered.add("status 4"));
+        assertEquals(4, mailbox.getDepth());
+        assertEquals(3, mailbox.getNumShed());
+        assertEquals(4, mailbox.getMaxDepth());
+
+        runAll(tasks);
+        assertEquals(List.of("block 1", "block 2", "block 3", "status 4"), delivered);
+        assertEquals(0, mailbox.getDepth());
+        assertEquals(4, mailbox.getNumDelivered());
+        assertEquals(3, mailbox.getNumShed());
+    }
+
+    @Test
+    public void testShedAndDepthConsistentUnderLoad() throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(2);
+        var mailbox = new GameMailbox(1, null, workers, 10);
+        AtomicInteger statusDelivered = new AtomicInteger();
+        AtomicInteger blocksDelivered = new AtomicInteger();
+        int numProducers = 4;
+        int eventsPerProducer = 5000;
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < numProducers; p++) {
+            producers.add(new Thread(() -> {
+                for (int i = 0; i < eventsPerProducer; i++) {
+                    if (i % 4 == 0) {
+                        mailbox.submit(blocksDelivered::incrementAndGet);
+                    } else {
+                        mailbox.submitStatus(statusDelivered::incrementAndGet);
+                    }
+                }
+            }));
+        }
+        producers.forEach(Thread::start);
+        for (Thread producer : producers) {
+            producer.join(10000);
+        }
+        long submitted = (long) numProducers * eventsPerProducer;
+        for (int i = 0; i < 100 && mailbox.getNumDelivered() + mailbox.getNumShed() < submitted; i++) {
+            Thread.sleep(100);
+        }
+        workers.shutdown();
+        assertTrue(workers.awaitTermination(10, TimeUnit.SECONDS));
+
+        // every event is either delivered or shed, and only status updates are shed
+        assertEquals(0, mailbox.getDepth());
+        assertEquals(submitted, mailbox.getNumDelivered() + mailbox.getNumShed());
+        assertEquals(submitted / 4, blocksDelivered.get());
+        assertEquals(submitted * 3 / 4, statusDelivered.get() + mailbox.getNumShed());
+    }
+
+    /**
+     * Runs the deliveries scheduled on a manual executor, including the ones they
+     * schedule themselves.
+     */
+    private static void runAll(Queue<Runnable> tasks) {
+        for (Runnable task = tasks.poll(); task != null; task = tasks.poll()) {
+            task.run();
+        }
+    }
+}
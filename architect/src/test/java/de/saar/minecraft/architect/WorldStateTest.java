@@ -0,0 +1,200 @@
+package de.saar.minecraft.architect;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class WorldStateTest {
+    /** Capacity of a new world state, see WorldState.MIN_CAPACITY. */
+    private static final int CAPACITY = 16;
+
+    @Test
+    public void testPlaceAndReplace() {
+        var world = new WorldState();
+        world.placeBlock(1, 2, 3, 7);
+        world.placeBlock(-4, 60, 100, 8);
+        assertEquals(2, world.size());
+        assertEquals(7, world.getBlockType(1, 2, 3));
+        assertEquals(8, world.getBlockType(-4, 60, 100));
+        assertEquals(WorldState.NO_BLOCK, world.getBlockType(1, 2, 4));
+
+        world.placeBlock(1, 2, 3, 9);
+        assertEquals(2, world.size());
+        assertEquals(9, world.getBlockType(1, 2, 3));
+        assertEquals(-4, world.getMinX());
+        assertEquals(100, world.getMaxZ());
+    }
+
+    @Test
+    public void testRemove() {
+        var world = new WorldState();
+        world.placeBlock(1, 2, 3, 7);
+        world.placeBlock(5, 2, 3, 7);
+        assertTrue(world.removeBlock(5, 2, 3));
+        assertFalse(world.removeBlock(5, 2, 3));
+        assertFalse(world.isBlockAt(5, 2, 3));
+        assertTrue(world.isBlockAt(1, 2, 3));
+        assertEquals(1, world.size());
+        // the bounding box shrinks when a block on its border is removed
+        assertEquals(1, world.getMaxX());
+    }
+
+    @Test
+    public void testPackRoundTrip() {
+        int[][] positions = {{0, 0, 0}, {-1, -1, -1}, {(1 << 25) - 1, 1023, -(1 << 25)}};
+        for (int[] p : positions) {
+            long packed = WorldState.pack(p[0], p[1], p[2]);
+            assertTrue(packed >= 0);
+            assertEquals(p[0], WorldState.unpackX(packed));
+            assertEquals(p[1], WorldState.unpackY(packed));
+            assertEquals(p[2], WorldState.unpackZ(packed));
+        }
+    }
+
+    @Test
+    public void testWraparoundAndReinsertAfterDelete() {
+        // three blocks whose home is the last slot, so that the probe sequence
+        // wraps around to the start of the table
+        List<int[]> blocks = blocksWithHome(CAPACITY - 1, 3);
+        var world = new WorldState();
+        for (int[] b : blocks) {
+            world.placeBlock(b[0], b[1], b[2], b[0]);
+        }
+        int[] first = blocks.get(0);
+        assertTrue(world.removeBlock(first[0], first[1], first[2]));
+        for (int[] b : blocks.subList(1, 3)) {
+            assertEquals(b[0], world.getBlockType(b[0], b[1], b[2]));
+        }
+        assertFalse(world.isBlockAt(first[0], first[1], first[2]));
+
+        world.placeBlock(first[0], first[1], first[2], 42);
+        assertEquals(3, world.size());
+        assertEquals(42, world.getBlockType(first[0], first[1], first[2]));
+        int[] second = blocks.get(1);
+        assertTrue(world.removeBlock(second[0], second[1], second[2]));
+        assertEquals(42, world.getBlockType(first[0], first[1], first[2]));
+        int[] third = blocks.get(2);
+        assertEquals(third[0], world.getBlockType(third[0], third[1], third[2]));
+    }
+
+    @Test
+    public void testAgainstHashMap() {
+        var random = new Random(1);
+        var world = new WorldState();
+        Map<Long, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            int x = random.nextInt(20) - 10;
+            int y = random.nextInt(5);
+            int z = random.nextInt(20) - 10;
+            long key = WorldState.pack(x, y, z);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key) != null, world.removeBlock(x, y, z));
+            } else {
+                int type = random.nextInt(4);
+                expected.put(key, type);
+                world.placeBlock(x, y, z, type);
+            }
+        }
+        assertEquals(expected.size(), world.size());
+        Map<Long, Integer> actual = new HashMap<>();
+        world.forEach((x, y, z, type) -> actual.put(WorldState.pack(x, y, z), type));
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testCountNotIn() {
+        var target = new WorldState();
+        target.placeBlock(0, 0, 0, 1);
+        target.placeBlock(1, 0, 0, 1);
+        target.placeBlock(2, 0, 0, 1);
+        var world = new WorldState();
+        world.placeBlock(0, 0, 0, 1);
+        world.placeBlock(1, 0, 0, 2);
+        world.placeBlock(5, 0, 0, 1);
+
+        // (1, 0, 0) has the wrong type, (2, 0, 0) is missing
+        assertEquals(2, world.countMissing(target));
+        // (1, 0, 0) has the wrong type, (5, 0, 0) is not part of the target
+        assertEquals(2, world.countExtra(target));
+        assertEquals(0, world.countExtra(world));
+
+        List<Integer> missing = new ArrayList<>();
+        world.forEachMissing(target, (x, y, z, type) -> {
+            missing.add(x);
+            assertEquals(1, type);
+        });
+        missing.sort(null);
+        assertEquals(List.of(1, 2), missing);
+
+        List<Integer> extra = new ArrayList<>();
+        world.forEachExtra(target, (x, y, z, type) -> extra.add(x));
+        extra.sort(null);
+        assertEquals(List.of(1, 5), extra);
+    }
+
+    @Test
+    public void testConcurrentDiffs() throws InterruptedException {
+        var a = new WorldState();
+        var b = new WorldState();
+        for (int i = 0; i < 100; i++) {
+            a.placeBlock(i, 0, 0, 1);
+            b.placeBlock(i, 0, 0, i % 2);
+        }
+        // diffs in both directions lock both world states in opposite orders
+        Thread t1 = new Thread(() -> {
+            for (int i = 0; i < 2000; i++) {
+                assertEquals(50, a.countMissing(b));
+            }
+        });
+        Thread t2 = new Thread(() -> {
+            for (int i = 0; i < 2000; i++) {
+                assertEquals(50, b.countMissing(a));
+            }
+        });
+        t1.start();
+        t2.start();
+        t1.join(10000);
+        t2.join(10000);
+        assertFalse(t1.isAlive() || t2.isAlive());
+    }
+
+    @Test
+    public void testHashUsesAllCoordinates() {
+        // blocks that only differ in one coordinate must not all share a slot
+        for (int coordinate = 0; coordinate < 3; coordinate++) {
+            boolean[] used = new boolean[CAPACITY];
+            int slots = 0;
+            for (int i = 0; i < CAPACITY; i++) {
+                int[] p = new int[3];
+                p[coordinate] = i;
+                int slot = WorldState.hash(WorldState.pack(p[0], p[1], p[2])) & (CAPACITY - 1);
+                if (!used[slot]) {
+                    used[slot] = true;
+                    slots++;
+                }
+            }
+            assertTrue(slots > CAPACITY / 4, "coordinate " + coordinate + " uses " + slots + " slots");
+        }
+    }
+
+    /**
+     * Returns positions of blocks that have the given home slot in a world state
+     * with {@link #CAPACITY} slots.
+     */
+    private static List<int[]> blocksWithHome(int slot, int count) {
+        List<int[]> ret = new ArrayList<>();
+        for (int x = 0; ret.size() < count; x++) {
+            if ((WorldState.hash(WorldState.pack(x, 0, 0)) & (CAPACITY - 1)) == slot) {
+                ret.add(new int[] {x, 0, 0});
+            }
+        }
+        return ret;
+    }
+}
@@ -1,35 +1,64 @@
 package de.saar.minecraft.broker;
 
+import com.google.protobuf.Descriptors;
 import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
 import com.google.protobuf.MessageOrBuilder;
 import com.google.protobuf.TextFormat;
 import de.saar.minecraft.architect.ArchitectGrpc;
-import de.saar.minecraft.architect.ArchitectGrpc.ArchitectBlockingStub;
 import de.saar.minecraft.architect.ArchitectInformation;
 import de.saar.minecraft.broker.db.GameLogsDirection;
 import de.saar.minecraft.broker.db.GameStatus;
 import de.saar.minecraft.broker.db.Tables;
-import de.saar.minecraft.broker.db.tables.records.GameLogsRecord;
 import de.saar.minecraft.broker.db.tables.records.GamesRecord;
+import de.saar.minecraft.broker.export.BasicAuthInterceptor;
+import de.saar.minecraft.broker.export.GameExportService;
+import de.saar.minecraft.broker.jfr.ArchitectCallEvent;
+import de.saar.minecraft.broker.jfr.BrokerEvents;
+import de.saar.minecraft.broker.jfr.GameLogEvent;
+import de.saar.minecraft.broker.jfr.GameStartEvent;
+import de.saar.minecraft.broker.logging.FanOutGameLogSink;
+import de.saar.minecraft.broker.logging.FileGameLogSink;
+import de.saar.minecraft.broker.logging.GameLogEntry;
+import de.saar.minecraft.broker.logging.GameLogSink;
+import de.saar.minecraft.broker.logging.JdbcGameLogSink;
+import de.saar.minecraft.broker.logging.MemoryGameLogSink;
 import de.saar.minecraft.shared.*;
-import io.github.classgraph.ClassGraph;
-import io.github.classgraph.Resource;
-import io.github.classgraph.ScanResult;
+import de.saar.minecraft.tracing.Span;
+import de.saar.minecraft.tracing.TraceContext;
+import de.saar.minecraft.tracing.Tracer;
+import de.saar.minecraft.tracing.TracingInterceptor;
+import de.saar.minecraft.tracing.ZipkinFileExporter;
+import de.saar.minecraft.util.Transports;
+import io.grpc.Channel;
+import io.grpc.ClientInterceptors;
 import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
 import io.grpc.Server;
-import io.grpc.ServerBuilder;
+import io.grpc.ServerInterceptors;
 import io.grpc.Status;
 import io.grpc.StatusException;
 import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import org.flywaydb.core.Flyway;
 import org.jooq.DSLContext;
@@ -47,30 +76,207 @@ import org.tinylog.Logger;
 public class Broker {
     private static final String MESSAGE_TYPE_ERROR = "ERROR";
     private static final String MESSAGE_TYPE_LOG = "LOG";
+    private static final String STATUS_CHANGED_PREFIX = "Status of game ";
+    private static final String STATUS_CHANGED_INFIX = " changed to ";
+    private static final int SCHEDULER_THREADS = 2;
+    /** How long no games are started on an architect server that refused one. */
+    private static final long UNAVAILABLE_MILLIS = 60_000;
+    /** How many games' log sequence numbers are remembered, see {@link #newLogEntry}. */
+    private static final int MAX_LOG_SEQUENCES = 10_000;
+    /** The moment the broker was started, as nanoTime and in nanoseconds since the epoch. */
+    private static final long START_NANO_TIME = System.nanoTime();
+    private static final long START_EPOCH_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    /** Shown to players who cannot play because all architect servers are full. */
+    private static final String ALL_ARCHITECTS_BUSY =
+            "All architects are busy at the moment, please try again in a few minutes.";
+    /** Answers of the architect to status messages held back by the broker go here. */
+    private static final StreamObserver<None> IGNORE_ANSWER = new StreamObserver<>() {
+        @Override
+        public void onNext(None value) {
+        }
+
+        @Override
+        public void onError(Throwable t) {
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+    };
 
     private Server server;
+    /** Serves the GameExport service if an export port is configured, otherwise null. */
+    private Server exportServer;
 
-    private List<ArchitectConnection> architectConnections = new ArrayList<>();
+    /** The architect servers new games can be started on; copied on registration. */
+    private final List<ArchitectConnection> architectConnections = new CopyOnWriteArrayList<>();
 
-    private HashMap<Integer, ArchitectConnection> runningGames = new HashMap<>();
-    private ConcurrentHashMap<Integer, Questionnaire> questionnaires = new ConcurrentHashMap<>();
+    private final GameRegistry games = new GameRegistry();
+    private final LatencyTracker latencies;
+    private final ScenarioStatistics statistics;
+    private final GameLogSink gameLogSink;
+    /**
+     * Whether the game logs go to the database.  If not, the tables derived from
+     * them, GAME_SUMMARY and REACTION_TIMES, are not written either.
+     */
+    private final boolean databaseGameLogs;
+    private final Tracer tracer;
+    private final AtomicLong shedStatusMessages = new AtomicLong();
+    /**
+     * The sequence number of the last log entry of each game.  Games are kept until
+     * MAX_LOG_SEQUENCES other games have logged since, so that entries logged after a
+     * game ended still continue its sequence.
+     */
+    private final Map<Integer, Integer> logSequences = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Integer> eldest) {
+            return size() > MAX_LOG_SEQUENCES;
+        }
+    };
+    /** Players waiting for an architect server with room for their game, oldest first. */
+    private final ArrayDeque<WaitingGame> waitingGames = new ArrayDeque<>();
+    private final AtomicLong rejectedGames = new AtomicLong();
+    /** Gets a copy of the events of the games if configured, otherwise null. */
+    private ShadowArchitect shadowArchitect;
 
 
-    private static class ArchitectConnection {
+    static class ArchitectConnection {
+        /** stubs for calls that belong to no game, on the first channel. */
         public ArchitectGrpc.ArchitectStub nonblockingArchitectStub;
         public ArchitectGrpc.ArchitectBlockingStub blockingArchitectStub;
         public ArchitectInformation architectInfo;
         public String host;
         public int port;
+        /** the address as in the configuration, identifies the architect server. */
+        public String address;
+        /**
+         * channels to the server, each with its own connection; all calls of a game
+         * go through the same channel, see {@link #stub(int)}.
+         */
+        public ManagedChannel[] channels;
+        private ArchitectGrpc.ArchitectStub[] stubs;
+        private ArchitectGrpc.ArchitectBlockingStub[] blockingStubs;
+        /** maximal number of games running at the same time, 0 for no limit. */
+        public int maxGames;
+        private final AtomicInteger runningGames = new AtomicInteger();
+        private volatile boolean deregistered;
+        private volatile long unavailableUntil;
+
+        int getRunningGames() {
+            return runningGames.get();
+        }
+
+        /**
+         * Returns the stub for the calls of the given game.  The games are spread over
+         * the channels by their ID, so that the streams and calls of a game stay in
+         * order on one connection.
+         */
+        ArchitectGrpc.ArchitectStub stub(int gameId) {
+            return stubs[Math.floorMod(gameId, stubs.length)];
+        }
+
+        /**
+         * Returns the blocking stub for the calls of the given game, see {@link #stub(int)}.
+         */
+        ArchitectGrpc.ArchitectBlockingStub blockingStub(int gameId) {
+            return blockingStubs[Math.floorMod(gameId, blockingStubs.length)];
+        }
+
+        /**
+         * Closes all channels; calls that are still running are completed first.
+         */
+        void shutdown() {
+            for (ManagedChannel channel : channels) {
+                channel.shutdown();
+            }
+        }
+
+        /**
+         * Returns false for a while after the architect server refused to start a game,
+         * e.g. because it is draining before an update.
+         */
+        boolean isAvailable() {
+            return System.currentTimeMillis() >= unavailableUntil;
+        }
+
+        void markUnavailable() {
+            unavailableUntil = System.currentTimeMillis() + UNAVAILABLE_MILLIS;
+        }
+
+        /**
+         * Counts a new game if the architect server has room for it.  The game is
+         * counted until {@link #gameEnded()} is called.
+         *
+         * @return false if maxGames games are running already
+         */
+        boolean tryReserveGame() {
+            while (true) {
+                int current = runningGames.get();
+                if (maxGames > 0 && current >= maxGames) {
+                    return false;
+                }
+                if (runningGames.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Closes the channels after the last game of a deregistered architect server.
+         */
+        void gameEnded() {
+            if (runningGames.decrementAndGet() == 0 && deregistered) {
+                shutdown();
+            }
+        }
+
+        /**
+         * Marks the architect server as deregistered; its channels are closed as soon
+         * as no games are running on it anymore.
+         */
+        void deregister() {
+            deregistered = true;
+            if (runningGames.get() == 0) {
+                shutdown();
+            }
+        }
     }
 
     final BrokerConfiguration config;
     private final DSLContext jooq;
+    private final DSLContext readJooq;
 
     private final TextFormat.Printer pr = TextFormat.printer();
     private List<String> scenarios;
     private HashMap<String, List<Question>> questionTemplates;
 
+    /**
+     * Shared scheduler for all delayed and periodic work of the broker, e.g. questionnaire
+     * reminders and delayed messages to players.  Tasks scheduled here must not block.
+     */
+    private final ScheduledThreadPoolExecutor scheduler;
+    /**
+     * Starts the games of waiting players (see {@link #admitWaitingGames}), which
+     * calls the architects and the database and so must not run on the scheduler or
+     * in cancellation handlers.
+     */
+    private final ExecutorService admission = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "broker-admission");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * Runs the periodic writes of buffered data to the database, e.g. game logs
+     * and reaction times, which block and so must not run on the scheduler.
+     */
+    private final ScheduledExecutorService databaseWriter =
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "broker-database-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+
     /**
      * Builds a new broker from a given configuration.
      * You usually only want one broker object in your system.
@@ -85,19 +291,55 @@ public class Broker {
             initQuestionnaires(config.getScenarios());
         }
         this.config = config;
+        if (config.getFlightRecorderEvents()) {
+            BrokerEvents.enable();
+        }
         jooq = setupDatabase();
-        // Do a random query every 20 minutes to keep the
+        readJooq = setupReadDatabase();
+        databaseGameLogs = config.getGameLogSinks().isEmpty()
+                || config.getGameLogSinks().stream().anyMatch(s -> s.getType().equals("database"));
+        latencies = new LatencyTracker(jooq, databaseGameLogs);
+        statistics = new ScenarioStatistics(jooq, databaseGameLogs);
+        gameLogSink = createGameLogSink();
+        tracer = createTracer();
+
+        scheduler = new ScheduledThreadPoolExecutor(SCHEDULER_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "broker-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // cancelled reminders are frequent, don't keep them in the queue until they expire
+        scheduler.setRemoveOnCancelPolicy(true);
+
+        // Do a trivial query every 20 minutes to keep the
         // database connection alive.
-        new Thread(() -> {
-            while (true) {
-                try {
-                    Thread.sleep(20 * 1000 * 60);
-                } catch (InterruptedException e) {
-                    //whatever, we don't care
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                jooq.selectOne().fetch();
+                if (readJooq != jooq) {
+                    readJooq.selectOne().fetch();
                 }
-                jooq.select().from(Tables.GAMES).fetch();
+            } catch (Exception e) {
+                Logger.warn("Keep-alive query failed: {}", e.getMessage());
             }
-        }).start();
+        }, 20, 20, TimeUnit.MINUTES);
+
+        databaseWriter.scheduleWithFixedDelay(() -> {
+            try {
+                gameLogSink.flush();
+                tracer.flush();
+            } catch (Exception e) {
+                Logger.error("Could not flush game logs: {}", e.toString());
+            }
+            latencies.flush();
+            storeChangedSummaries();
+        }, 1, 1, TimeUnit.SECONDS);
+
+        if (config.getGameIdleTimeout() > 0) {
+            games.startIdleSweeper(scheduler, config.getGameIdleTimeout(),
+                    game -> abandonGame(game.getGameId(), "no activity for more than "
+                            + config.getGameIdleTimeout() + " seconds"));
+        }
 
         // start web server
         if (config.getHttpPort() == 0) {
@@ -115,6 +357,66 @@ public class Broker {
         return jooq;
     }
 
+    /**
+     * Returns the database context for queries that only read, such as those of the
+     * web interface.  This is the read-only replica if one is configured, so that
+     * expensive queries do not slow down writing the game logs.
+     */
+    DSLContext getReadJooq() {
+        return readJooq;
+    }
+
+    GameRegistry getGames() {
+        return games;
+    }
+
+    LatencyTracker getLatencies() {
+        return latencies;
+    }
+
+    Tracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * Returns the number of players waiting for an architect server with room for
+     * their game.
+     */
+    int getNumWaitingGames() {
+        synchronized (waitingGames) {
+            return waitingGames.size();
+        }
+    }
+
+    /**
+     * Returns the number of games that were not started because all architect servers
+     * were full.
+     */
+    long getRejectedGames() {
+        return rejectedGames.get();
+    }
+
+    /**
+     * Returns the number of status messages that were dropped because the architect
+     * had not answered the earlier ones yet.
+     */
+    long getShedStatusMessages() {
+        return shedStatusMessages.get();
+    }
+
+    ScenarioStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Returns the sink all game logs are written to.
+     *
+     * @return the game log sink
+     */
+    public GameLogSink getGameLogSink() {
+        return gameLogSink;
+    }
+
     /**
      * Getter for broker config.
      *
@@ -136,42 +438,145 @@ public class Broker {
             Logger.info("No architect servers specified in config file.");
         } else {
             for (var asa : config.getArchitectServers()) {
-                var archConn = new ArchitectConnection();
-                ManagedChannel channelToArchitect = ManagedChannelBuilder
-                        .forAddress(asa.getHostname(), asa.getPort())
-                        // Channels are secure by default (via SSL/TLS).
-                        // we disable TLS to avoid needing certificates.
-                        .usePlaintext()
-                        .build();
-                archConn.host = asa.getHostname();
-                archConn.port = asa.getPort();
-                archConn.nonblockingArchitectStub = ArchitectGrpc.newStub(channelToArchitect);
-                archConn.blockingArchitectStub = ArchitectGrpc.newBlockingStub(channelToArchitect);
-                // check connection to Architect server and get architectInfo string
                 try {
-                    archConn.architectInfo = archConn.blockingArchitectStub.hello(
-                            None.newBuilder().build());
+                    this.architectConnections.add(connectArchitect(asa));
                 } catch (StatusRuntimeException e) {
                     Logger.error("Failed to connect to architect server at {}\n{}",
-                            asa, e.getCause().getMessage());
+                            asa, e.getCause() == null ? e.getMessage() : e.getCause().getMessage());
                     System.exit(1);
                 }
-                Logger.info("Connected to architect server at {}", asa);
-                this.architectConnections.add(archConn);
+            }
+        }
+        // mirroring games is best-effort, the broker runs without it
+        if (config.getShadowArchitect() != null) {
+            try {
+                shadowArchitect = new ShadowArchitect(this,
+                        connectArchitect(config.getShadowArchitect()), latencies,
+                        config.getMaxStatusInFlight());
+            } catch (StatusRuntimeException e) {
+                Logger.warn("Failed to connect to shadow architect server at {}, games are not mirrored: {}",
+                        config.getShadowArchitect(), e.getMessage());
             }
         }
 
         // Second open Broker service.
         int port = config.getPort();
-        server = ServerBuilder.forPort(port)
+        server = Transports.tcpServer(port, config.getGrpcServer())
+                // calls of clients that send no trace context belong to the trace of their game
+                .intercept(new TracingInterceptor(tracer, tracer.isEnabled() ? this::gameTrace : null))
                 .addService(new BrokerImpl())
                 .build()
                 .start();
+        if (config.getExportPort() != 0) {
+            // exports read whole tables, so they get a port of their own and the
+            // credentials of the web interface
+            exportServer = Transports.tcpServer(config.getExportPort(), config.getGrpcServer())
+                    .addService(ServerInterceptors.intercept(new GameExportService(config),
+                            new BasicAuthInterceptor(HttpServer.getUser(), HttpServer.getPassword())))
+                    .build()
+                    .start();
+            Logger.info("Game export service running on port {}.", config.getExportPort());
+        }
         Runtime.getRuntime().addShutdownHook(new Thread(Broker.this::stop));
 
         Logger.info("Broker service running.");
     }
 
+    /**
+     * Opens the channels to an architect server and checks that it is available.
+     * Over TCP and Unix domain sockets, {@link BrokerConfiguration#getArchitectChannels()}
+     * channels are opened, so that the streams of many games are not limited by the
+     * concurrent streams and the event loop thread of a single connection.
+     *
+     * @throws StatusRuntimeException if the architect server cannot be reached
+     */
+    private ArchitectConnection connectArchitect(BrokerConfiguration.ArchitectServerAddress asa) {
+        var archConn = new ArchitectConnection();
+        int numChannels = Math.max(1, config.getArchitectChannels());
+        if (asa.getInProcessName() != null) {
+            // in-process calls do not go through a connection
+            numChannels = 1;
+            archConn.host = asa.toString();
+        } else if (asa.getSocketPath() != null) {
+            archConn.host = asa.toString();
+        } else {
+            archConn.host = asa.getHostname();
+            archConn.port = asa.getPort();
+        }
+        archConn.address = asa.toString();
+        archConn.maxGames = asa.getMaxGames();
+        archConn.channels = new ManagedChannel[numChannels];
+        archConn.stubs = new ArchitectGrpc.ArchitectStub[numChannels];
+        archConn.blockingStubs = new ArchitectGrpc.ArchitectBlockingStub[numChannels];
+        var tracing = new TracingInterceptor(tracer);
+        for (int i = 0; i < numChannels; i++) {
+            archConn.channels[i] = openChannel(asa);
+            Channel traced = ClientInterceptors.intercept(archConn.channels[i], tracing);
+            archConn.stubs[i] = ArchitectGrpc.newStub(traced);
+            archConn.blockingStubs[i] = ArchitectGrpc.newBlockingStub(traced);
+        }
+        archConn.nonblockingArchitectStub = archConn.stubs[0];
+        archConn.blockingArchitectStub = archConn.blockingStubs[0];
+        // check connection to Architect server and get architectInfo string
+        try {
+            archConn.architectInfo = archConn.blockingArchitectStub.hello(
+                    None.newBuilder().build());
+        } catch (StatusRuntimeException e) {
+            archConn.shutdown();
+            throw e;
+        }
+        Logger.info("Connected to architect server at {} with {} channels", asa, numChannels);
+        return archConn;
+    }
+
+    private static ManagedChannel openChannel(BrokerConfiguration.ArchitectServerAddress asa) {
+        if (asa.getInProcessName() != null) {
+            return Transports.inProcessChannel(asa.getInProcessName());
+        } else if (asa.getSocketPath() != null) {
+            return Transports.unixSocketChannel(asa.getSocketPath());
+        } else {
+            return Transports.tcpChannel(asa.getHostname(), asa.getPort());
+        }
+    }
+
+    /**
+     * Adds an architect server to the servers new games are started on.  Nothing
+     * happens if the server is registered already.
+     *
+     * @throws StatusRuntimeException if the architect server cannot be reached
+     */
+    synchronized void registerArchitect(BrokerConfiguration.ArchitectServerAddress asa) {
+        String address = asa.toString();
+        for (ArchitectConnection a : architectConnections) {
+            if (a.address.equals(address)) {
+                return;
+            }
+        }
+        architectConnections.add(connectArchitect(asa));
+        Logger.info("Registered architect server at {}", address);
+        requestAdmission();
+    }
+
+    /**
+     * Removes an architect server from the servers new games are started on.  Games
+     * that are running on it are not affected.
+     *
+     * @return false if no architect server with this address was registered
+     */
+    synchronized boolean deregisterArchitect(BrokerConfiguration.ArchitectServerAddress asa) {
+        String address = asa.toString();
+        for (ArchitectConnection a : architectConnections) {
+            if (a.address.equals(address)) {
+                architectConnections.remove(a);
+                a.deregister();
+                Logger.info("Deregistered architect server at {}, {} games still running on it",
+                        address, a.getRunningGames());
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Performs a shutdown of the underlying grpc server after terminating all games
      * currently running.
@@ -180,9 +585,26 @@ public class Broker {
         for (ArchitectConnection a : architectConnections) {
             a.blockingArchitectStub.endAllGames(None.getDefaultInstance());
         }
+        if (shadowArchitect != null) {
+            shadowArchitect.stop();
+        }
         if (server != null) {
             server.shutdown();
         }
+        if (exportServer != null) {
+            exportServer.shutdown();
+        }
+        scheduler.shutdownNow();
+        admission.shutdownNow();
+        databaseWriter.shutdown();
+        try {
+            databaseWriter.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        latencies.flush();
+        gameLogSink.close();
+        tracer.close();
     }
 
     /**
@@ -206,72 +628,73 @@ public class Broker {
         @Override
         public void startGame(GameData request,
                               StreamObserver<WorldSelectMessage> responseObserver) {
-            var scenario = selectScenario();
-
-            GamesRecord rec = jooq.newRecord(Tables.GAMES);
-            rec.setClientIp(request.getClientAddress());
-            rec.setPlayerName(request.getPlayerName());
-            rec.setScenario(scenario);
-            rec.setStartTime(now());
-            rec.setModified(now());
-            rec.store();
-
-            int id = rec.getId();
-            setGameStatus(id, GameStatus.Created);
-
-            var architect = selectArchitect(scenario);
-            runningGames.put(id, architect);
-
-            // Select new game
-            WorldSelectMessage worldSelectMessage = WorldSelectMessage
-                    .newBuilder()
-                    .setGameId(id)
-                    .setName(scenario)
-                    .build();
-            // tell architect about the new game
-            architect.blockingArchitectStub.startGame(worldSelectMessage);
-
-            rec.setArchitectHostname(architect.host);
-            rec.setArchitectPort(architect.port);
-            rec.setArchitectInfo(architect.architectInfo.getInfo());
-            rec.store();
-
-            // tell client the game ID and selected world
-            responseObserver.onNext(worldSelectMessage);
-            responseObserver.onCompleted();
+            String scenario;
+            ArchitectConnection architect;
+            synchronized (waitingGames) {
+                // players who are already waiting go first
+                scenario = waitingGames.isEmpty() ? selectScenario() : null;
+                architect = scenario == null ? null : selectArchitect(scenario);
+                if (architect == null) {
+                    enqueue(request, responseObserver);
+                    return;
+                }
+            }
+            Broker.this.startGame(request, scenario, architect, responseObserver);
         }
 
         @Override
         public void getMessageChannel(GameId request,
                                       StreamObserver<TextMessage> responseObserver) {
             int id = request.getId();
-            var so = new DelegatingStreamObserver(id, responseObserver, Broker.this);
-            var architect = getNonblockingArchitect(id);
-            if (architect != null) {
-                architect.getMessageChannel(request, so);
-            } else {
-                responseObserver.onError(new RuntimeException("Architect is null"));
+            RunningGame game = games.get(id);
+            if (game == null) {
+                responseObserver.onError(createNoSuchIdException(id));
+                return;
             }
+            var so = new DelegatingStreamObserver(id, responseObserver, Broker.this);
+            game.setMessageStream(so);
+            abandonOnCancel(id, responseObserver, "message channel cancelled");
+            game.getArchitect().stub(id).getMessageChannel(request, so);
         }
 
         @Override
         public void getControlChannel(GameId request,
                                       StreamObserver<ProtectBlockMessage> responseObserver) {
             int id = request.getId();
+            RunningGame game = games.get(id);
+            if (game == null) {
+                responseObserver.onError(createNoSuchIdException(id));
+                return;
+            }
             var so = new DelegatingControlStreamObserver(id, responseObserver, Broker.this);
-            var architect = getNonblockingArchitect(id);
-            if (architect != null) {
-                architect.getControlChannel(request, so);
-            } else {
-                responseObserver.onError(new RuntimeException("Architect is null"));
+            game.setControlStream(so);
+            abandonOnCancel(id, responseObserver, "control channel cancelled");
+            game.getArchitect().stub(id).getControlChannel(request, so);
+        }
+
+        /**
+         * Ends the game if the client cancels the given stream, e.g. because the
+         * Minecraft server lost its connection without calling endGame.
+         */
+        private void abandonOnCancel(int id, StreamObserver<?> responseObserver, String reason) {
+            if (responseObserver instanceof ServerCallStreamObserver) {
+                ((ServerCallStreamObserver<?>) responseObserver)
+                        .setOnCancelHandler(() -> abandonGame(id, reason));
             }
         }
 
         public void playerReady(GameId request, StreamObserver<None> responseObserver) {
             int id = request.getId();
+            RunningGame game = games.get(id);
+            if (game == null) {
+                responseObserver.onError(createNoSuchIdException(id));
+                return;
+            }
             setGameStatus(id, GameStatus.Running);
-            var architect = getBlockingArchitect(request.getId());
-            architect.playerReady(request);
+            game.getArchitect().blockingStub(id).playerReady(request);
+            if (shadowArchitect != null) {
+                shadowArchitect.playerReady(request);
+            }
             responseObserver.onNext(None.getDefaultInstance());
             responseObserver.onCompleted();
         }
@@ -287,18 +710,32 @@ public class Broker {
         @Override
         public void endGame(GameId request, StreamObserver<None> responseObserver) {
             int id = request.getId();
-            if (!runningGames.containsKey(id)) {
+            // releasing first makes sure the game is ended only once, even if
+            // its stream is cancelled concurrently
+            RunningGame game = games.release(id);
+            if (game == null) {
                 responseObserver.onError(createNoSuchIdException(id));
                 return;
             }
             log(id, request, GameLogsDirection.PassToArchitect);
-            None v = getBlockingArchitect(id).endGame(request);
+            None v;
+            try {
+                v = game.getArchitect().blockingStub(id).endGame(request);
+            } catch (StatusRuntimeException e) {
+                Logger.warn("Architect could not end game {}: {}", id, e.getMessage());
+                responseObserver.onError(e);
+                return;
+            } finally {
+                // the game has ended on the broker even if the architect failed
+                if (shadowArchitect != null) {
+                    shadowArchitect.endGame(id);
+                }
+                setGameStatus(id, GameStatus.Finished);
+                gameFinished(game);
+            }
 
             responseObserver.onNext(v);
             responseObserver.onCompleted();
-
-            setGameStatus(id, GameStatus.Finished);
-            runningGames.remove(id);
         }
 
         /**
@@ -310,15 +747,17 @@ public class Broker {
         public void handleStatusInformation(StatusMessage request,
                                             StreamObserver<None> responseObserver) {
             int id = request.getGameId();
-            if (!runningGames.containsKey(id)) {
+            RunningGame game = games.get(id);
+            if (game == null) {
                 responseObserver.onError(createNoSuchIdException(id));
                 return;
             }
             log(id, request, GameLogsDirection.FromClient);
-            if (!questionnaires.containsKey(id)) {
-                getNonblockingArchitect(id).handleStatusInformation(
-                        request, responseObserver
-                );
+            if (game.getQuestionnaire() == null) {
+                forwardStatus(game, request, responseObserver);
+                if (shadowArchitect != null) {
+                    shadowArchitect.statusInformation(request);
+                }
             } else {
                 responseObserver.onNext(None.getDefaultInstance());
                 responseObserver.onCompleted();
@@ -329,13 +768,19 @@ public class Broker {
         public void handleBlockPlaced(BlockPlacedMessage request,
                                       StreamObserver<None> responseObserver) {
             int id = request.getGameId();
-            if (!runningGames.containsKey(id)) {
+            RunningGame game = games.get(id);
+            if (game == null) {
                 responseObserver.onError(createNoSuchIdException(id));
                 return;
             }
             log(id, request, GameLogsDirection.FromClient);
-            if (!questionnaires.containsKey(id)) {
-                getNonblockingArchitect(id).handleBlockPlaced(request, responseObserver);
+            if (game.getQuestionnaire() == null) {
+                latencies.eventForwarded(game, request.getClass().getSimpleName());
+                game.getArchitect().stub(id).handleBlockPlaced(request,
+                        ArchitectCallEvent.record(id, "handleBlockPlaced", responseObserver));
+                if (shadowArchitect != null) {
+                    shadowArchitect.blockPlaced(request);
+                }
             } else {
                 responseObserver.onNext(None.getDefaultInstance());
                 responseObserver.onCompleted();
@@ -346,14 +791,19 @@ public class Broker {
         public void handleBlockDestroyed(BlockDestroyedMessage request,
                                          StreamObserver<None> responseObserver) {
             int id = request.getGameId();
-            if (!runningGames.containsKey(id)) {
+            RunningGame game = games.get(id);
+            if (game == null) {
                 responseObserver.onError(createNoSuchIdException(id));
                 return;
             }
             log(id, request, GameLogsDirection.FromClient);
-            if (!questionnaires.containsKey(id)) {
-                getNonblockingArchitect(id).handleBlockDestroyed(
-                        request, responseObserver);
+            if (game.getQuestionnaire() == null) {
+                latencies.eventForwarded(game, request.getClass().getSimpleName());
+                game.getArchitect().stub(id).handleBlockDestroyed(request,
+                        ArchitectCallEvent.record(id, "handleBlockDestroyed", responseObserver));
+                if (shadowArchitect != null) {
+                    shadowArchitect.blockDestroyed(request);
+                }
             } else {
                 responseObserver.onNext(None.getDefaultInstance());
                 responseObserver.onCompleted();
@@ -385,14 +835,16 @@ public class Broker {
                                       StreamObserver<None> responseObserver) {
             int id = request.getGameId();
             log(id, request, GameLogsDirection.FromClient);
-            if (!questionnaires.containsKey(id)) {
+            RunningGame game = games.get(id);
+            Questionnaire questionnaire = game == null ? null : game.getQuestionnaire();
+            if (questionnaire == null) {
                 // ignore text messages if no questionnaire is running
                 responseObserver.onNext(None.getDefaultInstance());
                 responseObserver.onCompleted();
                 return;
             }
             try {
-                questionnaires.get(id).onNext(request);
+                questionnaire.onNext(request);
                 responseObserver.onNext(None.getDefaultInstance());
                 responseObserver.onCompleted();
             } catch (Exception e) {
@@ -401,17 +853,492 @@ public class Broker {
         }
 
         /**
-         * returns the correct architect stub for the given game id.
+         * Adds an architect server to the pool, e.g. when it starts, so that new games
+         * can be started on it without restarting the broker.
          */
-        private ArchitectBlockingStub getBlockingArchitect(int id) {
-            return runningGames.get(id).blockingArchitectStub;
+        @Override
+        public void registerArchitect(ArchitectAddress request,
+                                      StreamObserver<None> responseObserver) {
+            if (!mayRegister(request, responseObserver)) {
+                return;
+            }
+            var address = toServerAddress(request);
+            try {
+                Broker.this.registerArchitect(address);
+            } catch (StatusRuntimeException e) {
+                Logger.warn("Could not register architect server at {}: {}", address,
+                        e.getMessage());
+                responseObserver.onError(Status.UNAVAILABLE
+                        .withDescription("Broker cannot reach architect server at " + address)
+                        .asRuntimeException());
+                return;
+            }
+            responseObserver.onNext(None.getDefaultInstance());
+            responseObserver.onCompleted();
         }
 
         /**
-         * returns the correct architect stub for the given game id.
+         * Removes an architect server from the pool.  Games running on it continue.
          */
-        private ArchitectGrpc.ArchitectStub getNonblockingArchitect(int id) {
-            return runningGames.get(id).nonblockingArchitectStub;
+        @Override
+        public void deregisterArchitect(ArchitectAddress request,
+                                        StreamObserver<None> responseObserver) {
+            if (!mayRegister(request, responseObserver)) {
+                return;
+            }
+            var address = toServerAddress(request);
+            if (!Broker.this.deregisterArchitect(address)) {
+                responseObserver.onError(Status.NOT_FOUND
+                        .withDescription("No architect server registered at " + address)
+                        .asRuntimeException());
+                return;
+            }
+            responseObserver.onNext(None.getDefaultInstance());
+            responseObserver.onCompleted();
+        }
+    }
+
+    /**
+     * Checks that registration is enabled and that the request carries the
+     * registration token of the configuration; otherwise the call fails.  Without
+     * this, anyone who can reach the broker port could send the games of the
+     * players to an architect server of their own.
+     */
+    private boolean mayRegister(ArchitectAddress request, StreamObserver<None> responseObserver) {
+        String token = config.getRegistrationToken();
+        if (token == null) {
+            responseObserver.onError(Status.PERMISSION_DENIED
+                    .withDescription("Registration of architect servers is disabled")
+                    .asRuntimeException());
+            return false;
+        }
+        // compare in constant time so that the token cannot be guessed byte by byte
+        if (!MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+                request.getRegistrationToken().getBytes(StandardCharsets.UTF_8))) {
+            Logger.warn("Rejected registration call with a wrong token for {}", toServerAddress(request));
+            responseObserver.onError(Status.UNAUTHENTICATED
+                    .withDescription("Wrong registration token")
+                    .asRuntimeException());
+            return false;
+        }
+        return true;
+    }
+
+    private static BrokerConfiguration.ArchitectServerAddress toServerAddress(
+            ArchitectAddress request) {
+        var ret = new BrokerConfiguration.ArchitectServerAddress();
+        ret.setHostname(request.getHostname());
+        ret.setPort(request.getPort());
+        ret.setMaxGames(request.getMaxGames());
+        if (!request.getInProcessName().isEmpty()) {
+            ret.setInProcessName(request.getInProcessName());
+        }
+        if (!request.getSocketPath().isEmpty()) {
+            ret.setSocketPath(request.getSocketPath());
+        }
+        return ret;
+    }
+
+    /**
+     * Starts a game on an architect server for which {@link #selectArchitect} has
+     * reserved room.
+     */
+    private void startGame(GameData request, String scenario, ArchitectConnection architect,
+                           StreamObserver<WorldSelectMessage> responseObserver) {
+        var attempt = new StartAttempt(architect);
+        try {
+            tryStartGame(request, scenario, attempt, responseObserver);
+        } catch (RuntimeException e) {
+            failStart(attempt, e, responseObserver);
+        }
+    }
+
+    /**
+     * The state of a game that is being started, so that a failed start can release
+     * what it holds.
+     */
+    private static class StartAttempt {
+        /** The ID of the game, or 0 before its GAMES record is stored. */
+        int gameId;
+        /** The architect server on which room is reserved and not owned by a registered game. */
+        ArchitectConnection reserved;
+        /** The architect server that has started the game. */
+        ArchitectConnection started;
+        Span trace;
+
+        StartAttempt(ArchitectConnection reserved) {
+            this.reserved = reserved;
+        }
+    }
+
+    /**
+     * Cleans up after a game could not be started: releases the game or the room
+     * reserved for it, ends it on the architect server if that had started it,
+     * marks it as finished and tells the player.
+     */
+    private void failStart(StartAttempt attempt, RuntimeException e,
+                           StreamObserver<WorldSelectMessage> responseObserver) {
+        int id = attempt.gameId;
+        Logger.error("Could not start game {}: {}", id, e.toString());
+        RunningGame game = id == 0 ? null : games.release(id);
+        if (game == null && attempt.reserved != null) {
+            attempt.reserved.gameEnded();
+        }
+        if (attempt.started != null) {
+            endGameOnArchitect(attempt.started, id);
+            if (shadowArchitect != null) {
+                shadowArchitect.endGame(id);
+            }
+        }
+        if (attempt.trace != null) {
+            attempt.trace.end();
+        }
+        if (id != 0) {
+            try {
+                setGameStatus(id, GameStatus.Finished);
+            } catch (RuntimeException statusFailed) {
+                Logger.warn("Could not mark game {} as finished: {}", id, statusFailed.toString());
+            }
+        }
+        responseObserver.onError(Status.fromThrowable(e)
+                .augmentDescription("Could not start game " + id)
+                .asRuntimeException());
+    }
+
+    private void tryStartGame(GameData request, String scenario, StartAttempt attempt,
+                              StreamObserver<WorldSelectMessage> responseObserver) {
+        ArchitectConnection architect = attempt.reserved;
+        var event = new GameStartEvent();
+        event.begin();
+        GamesRecord rec = jooq.newRecord(Tables.GAMES);
+        rec.setClientIp(request.getClientAddress());
+        rec.setPlayerName(request.getPlayerName());
+        rec.setScenario(scenario);
+        rec.setStartTime(now());
+        rec.setModified(now());
+        rec.store();
+
+        int id = rec.getId();
+        attempt.gameId = id;
+        setGameStatus(id, GameStatus.Created);
+
+        // Select new game
+        WorldSelectMessage worldSelectMessage = WorldSelectMessage
+                .newBuilder()
+                .setGameId(id)
+                .setName(scenario)
+                .build();
+
+        // all calls of the game belong to this trace, unless the client sends its own
+        Span trace = tracer.startTrace("game", config.getTraceSampleRate())
+                .tag("game.id", id)
+                .tag("scenario", scenario);
+        attempt.trace = trace;
+
+        // tell architect about the new game; architect servers that are draining
+        // refuse new games, then we try the next one
+        while (true) {
+            if (architect == null) {
+                log(id, "No architect server available", MESSAGE_TYPE_ERROR,
+                        GameLogsDirection.None);
+                setGameStatus(id, GameStatus.Finished);
+                trace.end();
+                responseObserver.onError(Status.UNAVAILABLE
+                        .withDescription("No architect server available")
+                        .asRuntimeException());
+                return;
+            }
+            RunningGame game = games.register(id, scenario, architect);
+            attempt.reserved = null;
+            game.getSummary().record(rec.getStartTime());
+            game.setTrace(trace);
+            try {
+                var stub = architect.blockingStub(id);
+                trace.run(() -> stub.startGame(worldSelectMessage));
+                attempt.started = architect;
+                break;
+            } catch (StatusRuntimeException e) {
+                if (e.getStatus().getCode() != Status.Code.UNAVAILABLE) {
+                    throw e;
+                }
+                Logger.info("Architect server at {} refused game {}, trying another one: {}",
+                        architect.address, id, e.getStatus().getDescription());
+                architect.markUnavailable();
+                games.release(id);
+                architect = selectArchitect(scenario);
+                attempt.reserved = architect;
+            }
+        }
+
+        rec.setArchitectHostname(architect.host);
+        rec.setArchitectPort(architect.port);
+        rec.setArchitectInfo(architect.architectInfo.getInfo());
+        rec.store();
+        if (shadowArchitect != null) {
+            shadowArchitect.startGame(worldSelectMessage);
+        }
+
+        // tell client the game ID and selected world
+        responseObserver.onNext(worldSelectMessage);
+        responseObserver.onCompleted();
+
+        if (event.shouldCommit()) {
+            event.gameId = id;
+            event.scenario = scenario;
+            event.architectServer = architect.address;
+            event.commit();
+        }
+    }
+
+    /**
+     * Lets the player wait for an architect server with room for the game, for at most
+     * admissionTimeout seconds, or rejects the game if too many players are waiting.
+     * Must be called while holding the lock of waitingGames.
+     */
+    private void enqueue(GameData request, StreamObserver<WorldSelectMessage> responseObserver) {
+        if (config.getAdmissionTimeout() <= 0 || waitingGames.size() >= config.getMaxWaitingGames()) {
+            rejectGame(request, responseObserver);
+            return;
+        }
+        var waiting = new WaitingGame(request, responseObserver);
+        waitingGames.addLast(waiting);
+        Logger.info("All architect servers are full, {} from {} waits ({} waiting).",
+                request.getPlayerName(), request.getClientAddress(), waitingGames.size());
+        waiting.timeout = scheduler.schedule(() -> {
+            boolean removed;
+            synchronized (waitingGames) {
+                removed = waitingGames.remove(waiting);
+            }
+            if (removed) {
+                rejectGame(request, responseObserver);
+            }
+        }, config.getAdmissionTimeout(), TimeUnit.SECONDS);
+        if (responseObserver instanceof ServerCallStreamObserver) {
+            ((ServerCallStreamObserver<WorldSelectMessage>) responseObserver).setOnCancelHandler(
+                    () -> {
+                        synchronized (waitingGames) {
+                            waitingGames.remove(waiting);
+                        }
+                        waiting.timeout.cancel(false);
+                    });
+        }
+    }
+
+    private void rejectGame(GameData request, StreamObserver<WorldSelectMessage> responseObserver) {
+        rejectedGames.incrementAndGet();
+        Logger.warn("All architect servers are full, rejecting {} from {}.",
+                request.getPlayerName(), request.getClientAddress());
+        responseObserver.onError(Status.RESOURCE_EXHAUSTED
+                .withDescription(ALL_ARCHITECTS_BUSY)
+                .asRuntimeException());
+    }
+
+    /**
+     * Starts the games of waiting players, oldest first, as long as architect servers
+     * have room for them.
+     */
+    private void admitWaitingGames() {
+        while (true) {
+            WaitingGame waiting;
+            String scenario;
+            ArchitectConnection architect;
+            synchronized (waitingGames) {
+                if (waitingGames.isEmpty()) {
+                    return;
+                }
+                scenario = selectScenario();
+                architect = selectArchitect(scenario);
+                if (architect == null) {
+                    return;
+                }
+                waiting = waitingGames.removeFirst();
+            }
+            waiting.timeout.cancel(false);
+            try {
+                startGame(waiting.request, scenario, architect, waiting.responseObserver);
+            } catch (RuntimeException e) {
+                Logger.error("Could not start game of waiting player: {}", e.toString());
+                try {
+                    waiting.responseObserver.onError(Status.fromThrowable(e).asRuntimeException());
+                } catch (RuntimeException expected) {
+                    // the player has been answered already
+                }
+            }
+        }
+    }
+
+    /**
+     * A player waiting for an architect server with room for the game.
+     */
+    private static class WaitingGame {
+        final GameData request;
+        final StreamObserver<WorldSelectMessage> responseObserver;
+        ScheduledFuture<?> timeout;
+
+        WaitingGame(GameData request, StreamObserver<WorldSelectMessage> responseObserver) {
+            this.request = request;
+            this.responseObserver = responseObserver;
+        }
+    }
+
+    /**
+     * Ends a game that was not ended by the client, e.g. because its stream was cancelled
+     * or because it was idle for too long, and releases all state held for it.
+     * Does nothing if the game has already ended.
+     */
+    private void abandonGame(int gameId, String reason) {
+        RunningGame game = games.release(gameId);
+        if (game == null) {
+            return;
+        }
+        Logger.info("Ending game {}: {}", gameId, reason);
+        log(gameId, "Game ended by the broker: " + reason, MESSAGE_TYPE_LOG, GameLogsDirection.None);
+        var request = GameId.newBuilder().setId(gameId).build();
+        log(gameId, request, GameLogsDirection.PassToArchitect);
+        endGameOnArchitect(game.getArchitect(), gameId);
+        if (shadowArchitect != null) {
+            shadowArchitect.endGame(gameId);
+        }
+        setGameStatus(gameId, GameStatus.Finished);
+        gameFinished(game);
+    }
+
+    /**
+     * Ends a game on its architect server without waiting for the answer.
+     */
+    private void endGameOnArchitect(ArchitectConnection architect, int gameId) {
+        var request = GameId.newBuilder().setId(gameId).build();
+        architect.stub(gameId).endGame(request, new StreamObserver<>() {
+            @Override
+            public void onNext(None value) {
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                Logger.debug("architect could not end game {}: {}", gameId, t.getMessage());
+            }
+
+            @Override
+            public void onCompleted() {
+            }
+        });
+    }
+
+    /**
+     * Stores the final summary of a game that has ended and adds it to the statistics
+     * of its scenario and architect.
+     */
+    private void gameFinished(RunningGame game) {
+        if (game.getTrace() != null) {
+            game.getTrace().end();
+        }
+        storeSummary(game);
+        statistics.gameFinished(game.getScenario(),
+                game.getArchitect().architectInfo.getInfo(), game.getSummary());
+        // the game has made room on its architect server
+        requestAdmission();
+    }
+
+    /**
+     * Lets {@link #admitWaitingGames} run on the admission thread, e.g. when a game
+     * has ended on the scheduler or in a cancellation handler.
+     */
+    private void requestAdmission() {
+        try {
+            admission.execute(this::admitWaitingGames);
+        } catch (RejectedExecutionException e) {
+            Logger.debug("Not admitting waiting games, the broker is stopping");
+        }
+    }
+
+    /**
+     * Writes the summary of a game to the database, e.g. when the game ends.
+     */
+    private void storeSummary(RunningGame game) {
+        game.getSummary().record(now());
+        if (!databaseGameLogs) {
+            return;
+        }
+        try {
+            game.getSummary().store(jooq);
+        } catch (Exception e) {
+            Logger.warn("Could not store summary of game {}: {}", game.getGameId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the summaries of the running games that changed since they were last
+     * written to the database.
+     */
+    private void storeChangedSummaries() {
+        if (!databaseGameLogs) {
+            return;
+        }
+        for (RunningGame game : games.getGames()) {
+            try {
+                game.getSummary().storeIfChanged(jooq);
+            } catch (Exception e) {
+                Logger.warn("Could not store summary of game {}: {}", game.getGameId(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Forwards a status message to the architect of the game.  If the architect has not
+     * answered maxStatusInFlight status messages of the game yet, the message is held
+     * back instead, replacing the one held back before, and forwarded when the next
+     * answer arrives.  Block events are never held back, so they overtake status
+     * messages when the architect is slow.
+     */
+    private void forwardStatus(RunningGame game, StatusMessage request,
+                               StreamObserver<None> responseObserver) {
+        if (!game.tryForwardStatus(config.getMaxStatusInFlight())) {
+            if (game.holdBackStatus(request) != null) {
+                shedStatusMessages.incrementAndGet();
+            }
+            responseObserver.onNext(None.getDefaultInstance());
+            responseObserver.onCompleted();
+            return;
+        }
+        latencies.eventForwarded(game, request.getClass().getSimpleName());
+        StreamObserver<None> answer = new StreamObserver<>() {
+            @Override
+            public void onNext(None value) {
+                responseObserver.onNext(value);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                statusAnswered(game);
+                responseObserver.onError(t);
+            }
+
+            @Override
+            public void onCompleted() {
+                statusAnswered(game);
+                responseObserver.onCompleted();
+            }
+        };
+        game.getArchitect().stub(game.getGameId()).handleStatusInformation(request,
+                ArchitectCallEvent.record(game.getGameId(), "handleStatusInformation", answer));
+    }
+
+    private void statusAnswered(RunningGame game) {
+        game.statusAnswered();
+        StatusMessage next = game.takeHeldBackStatus();
+        if (next != null && games.get(game.getGameId()) == game) {
+            forwardStatus(game, next, IGNORE_ANSWER);
+        }
+    }
+
+    /**
+     * Called when the architect of a game sends a message to the player, records it
+     * as the reaction to the events forwarded to the architect since its last message.
+     */
+    void reactionSent(int gameId, MessageOrBuilder message) {
+        RunningGame game = games.get(gameId);
+        if (game != null) {
+            latencies.reactionSent(game, message.getClass().getSimpleName());
         }
     }
 
@@ -419,6 +1346,30 @@ public class Broker {
      * Called whenever the status of a game changes, e.g. to started or completed.
      * Logs the change into the database.
      */
+    /**
+     * Returns the text of the LOG entry that records that a game got a new status.
+     * Tools that read the game logs, such as the replay tool, recognize these
+     * entries with {@link #isStatusChangedText}.
+     * @param gameId the game
+     * @param status the new status
+     * @return the text of the log entry
+     */
+    public static String statusChangedText(int gameId, GameStatus status) {
+        return STATUS_CHANGED_PREFIX + gameId + STATUS_CHANGED_INFIX + status.name();
+    }
+
+    /**
+     * Checks whether the text of a LOG entry records that its game got the given
+     * status, see {@link #statusChangedText}.
+     * @param text the text of the log entry
+     * @param status the status
+     * @return true if the entry records the change to the status
+     */
+    public static boolean isStatusChangedText(String text, GameStatus status) {
+        return text.startsWith(STATUS_CHANGED_PREFIX)
+                && text.endsWith(STATUS_CHANGED_INFIX + status.name());
+    }
+
     private void setGameStatus(int gameid, GameStatus status) {
         // update status in games table
         jooq.update(Tables.GAMES)
@@ -428,13 +1379,9 @@ public class Broker {
                 .execute();
 
         // record updating of status in game_logs table
-        GameLogsRecord glr = jooq.newRecord(Tables.GAME_LOGS);
-        glr.setGameid(gameid);
-        glr.setDirection(GameLogsDirection.None);
-        glr.setMessageType(MESSAGE_TYPE_LOG);
-        glr.setMessage(String.format("Status of game %d changed to %s", gameid, status.toString()));
-        glr.setTimestamp(now());
-        glr.store();
+        gameLogSink.write(newLogEntry(gameid, GameLogsDirection.None, MESSAGE_TYPE_LOG,
+                statusChangedText(gameid, status),
+                now()));
     }
 
     /**
@@ -444,16 +1391,8 @@ public class Broker {
         questionTemplates = new HashMap<>();
         List<String> questionnairesInResources = null;
         // Check availability of questionnaires
-        String path = "de/saar/minecraft/questionnaires";
-        try (ScanResult scanResult = new ClassGraph()
-                .whitelistPaths(path.toString())
-                .scan()) {
-            questionnairesInResources = scanResult.getAllResources()
-                    .filter(x -> x.getURL().getFile().endsWith(".txt"))
-                    .getPaths()
-                    .stream()
-                    .map(x -> x.substring(x.lastIndexOf("/") + 1, x.length() - 4))
-                    .collect(Collectors.toList());
+        try {
+            questionnairesInResources = ResourceIndex.list("de/saar/minecraft/questionnaires", ".txt");
         } catch (Exception exception) {
             Logger.warn("Could not read questionnaires from resources, "
                     + "not performing sanity checks.");
@@ -513,17 +1452,9 @@ public class Broker {
      */
     private void initScenarios(List<String> confScenarios) {
         List<String> scenariosInResources = null;
-        String path = "de/saar/minecraft/worlds";
         //get all scenarios
-        try (ScanResult scanResult = new ClassGraph()
-                .whitelistPaths(path)
-                .scan()) {
-            scenariosInResources = scanResult.getAllResources()
-                    .filter(x -> x.getURL().getFile().endsWith(".csv"))
-                    .getPaths()
-                    .stream()
-                    .map(x -> x.substring(x.lastIndexOf("/") + 1, x.length() - 4))
-                    .collect(Collectors.toList());
+        try {
+            scenariosInResources = ResourceIndex.list("de/saar/minecraft/worlds", ".csv");
         } catch (Exception exception) {
             Logger.warn("Could not read scenarios from resources, not performing sanity checks.");
         }
@@ -584,8 +1515,20 @@ public class Broker {
         return scenarioToUse;
     }
 
+    /**
+     * Selects the architect server for a new game and counts the game on it.
+     *
+     * @return the architect server, or null if there is none with room for the game
+     */
     private ArchitectConnection selectArchitect(String scenario) {
-        Set<String> currentArchitects = architectConnections
+        // architect servers may register and deregister while we choose
+        List<ArchitectConnection> pool = architectConnections.stream()
+                .filter(ArchitectConnection::isAvailable)
+                .collect(Collectors.toList());
+        if (pool.isEmpty()) {
+            return null;
+        }
+        Set<String> currentArchitects = pool
                 .stream()
                 .map((x) -> x.architectInfo.getInfo())
                 .collect(Collectors.toSet());
@@ -611,22 +1554,27 @@ public class Broker {
 
         Logger.debug("never played: {}", neverPlayed);
 
-        String architectToUse;
-        if (!neverPlayed.isEmpty()) {
-            architectToUse = neverPlayed.get(0);
-        } else {
-            architectToUse = architectsByNumExperiments.get(0);
+        // prefer the architects with the fewest games in this scenario; if all servers
+        // of an architect are full, fall back to the next one
+        List<String> candidates = new ArrayList<>(neverPlayed);
+        candidates.addAll(architectsByNumExperiments);
+        for (String architectToUse : candidates) {
+            // among the replicas of this architect, use the one with the fewest games
+            List<ArchitectConnection> replicas = pool.stream()
+                    .filter((x) ->
+                            x.architectInfo
+                                    .getInfo()
+                                    .equals(architectToUse))
+                    .sorted(Comparator.comparingInt(ArchitectConnection::getRunningGames))
+                    .collect(Collectors.toList());
+            for (ArchitectConnection replica : replicas) {
+                if (replica.tryReserveGame()) {
+                    Logger.debug("architectToUse: {}", architectToUse);
+                    return replica;
+                }
+            }
         }
-
-        Logger.debug("architectToUse: {}", architectToUse);
-
-        return architectConnections.stream()
-                .filter((x) ->
-                        x.architectInfo
-                                .getInfo()
-                                .equals(architectToUse))
-                .findFirst()
-                .get();
+        return null;
     }
 
     /**
@@ -638,6 +1586,32 @@ public class Broker {
         return LocalDateTime.now();
     }
 
+    /**
+     * Returns the time in nanoseconds since the epoch, measured with {@link System#nanoTime}
+     * from the start of the broker.  Unlike {@link #now()}, it never goes backwards when
+     * the wall clock is adjusted, and it can be used to compute reaction times below a
+     * millisecond.
+     *
+     * @return the time
+     */
+    public static long monotonicNanos() {
+        return START_EPOCH_NANOS + (System.nanoTime() - START_NANO_TIME);
+    }
+
+    /**
+     * Creates a log entry with the next sequence number of the game and the current
+     * monotonic time.  Both are taken together, so that they order the entries of a game
+     * in the same way even if they are logged concurrently.
+     */
+    private GameLogEntry newLogEntry(int gameid, GameLogsDirection direction, String messageType,
+                                     String message, LocalDateTime timestamp) {
+        synchronized (logSequences) {
+            int sequence = logSequences.merge(gameid, 1, Integer::sum);
+            return new GameLogEntry(gameid, direction, messageType, message, timestamp,
+                    monotonicNanos(), sequence);
+        }
+    }
+
     /**
      * Logs game information to the database.
      */
@@ -653,35 +1627,134 @@ public class Broker {
         }
 
         log(gameid, messageStr, message.getClass().getSimpleName(), direction);
+
+        // the summary is stored by storeChangedSummaries and when the game ends
+        RunningGame game = games.get(gameid);
+        if (game != null) {
+            game.getSummary().record(message, direction);
+        }
     }
 
     void log(int gameid,
              String messageStr,
              String messageType,
              GameLogsDirection direction) {
+        var timestamp = now();
+        if (direction != GameLogsDirection.FromShadowArchitect) {
+            recordActivity(gameid, timestamp);
+        }
 
-        GameLogsRecord rec = jooq.newRecord(Tables.GAME_LOGS);
-        rec.setGameid(gameid);
-        rec.setDirection(direction);
-        rec.setMessageType(messageType);
-        rec.setMessage(messageStr);
-        rec.setTimestamp(now());
-        rec.store();
+        Span span = tracer.startSpan("log");
+        var event = new GameLogEvent();
+        event.begin();
+        gameLogSink.write(newLogEntry(gameid, direction, messageType, messageStr, timestamp));
+        if (event.shouldCommit()) {
+            event.gameId = gameid;
+            event.direction = direction == null ? null : direction.name();
+            event.messageType = messageType;
+            event.size = messageStr == null ? 0 : messageStr.length();
+            event.commit();
+        }
+        span.end();
     }
 
     /**
      * Logs game information to the database.
      */
     void log(int gameid, Throwable message, GameLogsDirection direction) {
+        var timestamp = now();
+        if (direction != GameLogsDirection.FromShadowArchitect) {
+            recordActivity(gameid, timestamp);
+        }
         String messageStr = message.toString();
 
-        GameLogsRecord rec = jooq.newRecord(Tables.GAME_LOGS);
-        rec.setGameid(gameid);
-        rec.setDirection(direction);
-        rec.setMessage(messageStr);
-        rec.setMessageType(MESSAGE_TYPE_ERROR);
-        rec.setTimestamp(now());
-        rec.store();
+        gameLogSink.write(newLogEntry(gameid, direction, MESSAGE_TYPE_ERROR, messageStr,
+                timestamp));
+    }
+
+    /**
+     * Records that something was logged for the game if it is running.
+     */
+    private void recordActivity(int gameid, LocalDateTime timestamp) {
+        RunningGame game = games.get(gameid);
+        if (game != null) {
+            game.touch();
+            game.getSummary().record(timestamp);
+        }
+    }
+
+    /**
+     * Returns the trace context of the game a request from a client belongs to,
+     * for clients that send none themselves.
+     */
+    private TraceContext gameTrace(Object request) {
+        int gameId;
+        if (request instanceof GameId) {
+            gameId = ((GameId) request).getId();
+        } else if (request instanceof Message) {
+            Message message = (Message) request;
+            Descriptors.FieldDescriptor field =
+                    message.getDescriptorForType().findFieldByName("gameId");
+            if (field == null) {
+                return null;
+            }
+            gameId = (Integer) message.getField(field);
+        } else {
+            return null;
+        }
+        RunningGame game = games.get(gameId);
+        Span trace = game == null ? null : game.getTrace();
+        return trace == null ? null : trace.context();
+    }
+
+    /**
+     * Creates the tracer, which records the spans of a sampled fraction of the games
+     * in traceFile if one is configured.
+     */
+    private Tracer createTracer() {
+        if (config.getTraceFile() == null) {
+            return new Tracer("broker", null);
+        }
+        try {
+            Logger.info("Tracing {} of the games to {}", config.getTraceSampleRate(),
+                    config.getTraceFile());
+            return new Tracer("broker", ZipkinFileExporter.open(Path.of(config.getTraceFile())));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open trace file", e);
+        }
+    }
+
+    /**
+     * Creates the sinks for game logs given in the configuration.
+     */
+    private GameLogSink createGameLogSink() {
+        List<GameLogSink> sinks = new ArrayList<>();
+        for (var sinkConfig : config.getGameLogSinks()) {
+            switch (sinkConfig.getType()) {
+                case "database":
+                    sinks.add(new JdbcGameLogSink(jooq));
+                    break;
+                case "file":
+                    try {
+                        sinks.add(new FileGameLogSink(Path.of(sinkConfig.getPath())));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Could not open game log file", e);
+                    }
+                    break;
+                case "memory":
+                    sinks.add(new MemoryGameLogSink(sinkConfig.getCapacity()));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown game log sink type "
+                            + sinkConfig.getType());
+            }
+            Logger.info("Writing game logs to {} {}", sinkConfig.getType(),
+                    sinkConfig.getPath() == null ? "" : sinkConfig.getPath());
+        }
+        if (sinks.isEmpty()) {
+            return new JdbcGameLogSink(jooq);
+        }
+        return sinks.size() == 1 ? sinks.get(0) : new FanOutGameLogSink(sinks);
     }
 
     /**
@@ -753,6 +1826,29 @@ public class Broker {
         return null;
     }
 
+    /**
+     * Connects to the read-only replica of the database, if one is configured.
+     * Falls back to the main database if there is none or it cannot be reached.
+     */
+    private DSLContext setupReadDatabase() {
+        var db = config.getReadDatabase();
+        if (db == null) {
+            return jooq;
+        }
+        try {
+            Connection conn = DriverManager.getConnection(db.getUrl(), db.getUsername(),
+                    db.getPassword());
+            conn.setReadOnly(true);
+            Logger.info("Connected to read-only {} database at {}.", db.getSqlDialect(),
+                    db.getUrl());
+            return DSL.using(conn, SQLDialect.valueOf(db.getSqlDialect()));
+        } catch (SQLException e) {
+            Logger.warn("Could not connect to read-only database at {}, using the main "
+                    + "database instead: {}", db.getUrl(), e.getMessage());
+            return jooq;
+        }
+    }
+
     /**
      * initializes a new Questionnaire object that takes
      * over asking and storing answers to questions.
@@ -762,33 +1858,32 @@ public class Broker {
      */
     public void startQuestionnaire(int gameId,
                                    DelegatingStreamObserver streamObserver) {
+        RunningGame game = games.get(gameId);
+        if (game == null) {
+            Logger.warn("Not starting questionnaire for game {}, it is not running", gameId);
+            return;
+        }
         if (config.getUseInternalQuestionnaire()) {
             Logger.info("Starting questionnaire for game {}", gameId);
             Questionnaire questionnaire = createQuestionnaire(gameId, streamObserver);
+            game.setQuestionnaire(questionnaire);
             questionnaire.start();
-            questionnaires.put(gameId, questionnaire);
         } else {
             // We put in a mock questionnaire as null values
             // are not allowed. Note that this one is not start()ed.
             Questionnaire questionnaire = new Questionnaire(
                     gameId,
                     new ArrayList<>(),
-                    streamObserver, jooq
+                    streamObserver, jooq, scheduler
             );
-            questionnaires.put(gameId, questionnaire);
-            new Thread(() -> {
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-                streamObserver.onNext(TextMessage.newBuilder()
-                        .setGameId(gameId)
-                        .setText("Thank you for your time! Please make sure you know "
-                                + "the secret word before you disconnect.")
-                        // .setNewGameState(NewGameState.QuestionnaireFinished)
-                        .build());
-            }).start();
+            game.setQuestionnaire(questionnaire);
+            scheduler.schedule(() -> streamObserver.onNext(TextMessage.newBuilder()
+                            .setGameId(gameId)
+                            .setText("Thank you for your time! Please make sure you know "
+                                    + "the secret word before you disconnect.")
+                            // .setNewGameState(NewGameState.QuestionnaireFinished)
+                            .build()),
+                    1, TimeUnit.SECONDS);
         }
     }
 
@@ -809,6 +1904,6 @@ public class Broker {
 
         // Get matching questionnaire
         List<Question> questions = questionTemplates.get(scenarios.get(0));
-        return new Questionnaire(gameId, questions, streamObserver, jooq);
+        return new Questionnaire(gameId, questions, streamObserver, jooq, scheduler);
     }
 }
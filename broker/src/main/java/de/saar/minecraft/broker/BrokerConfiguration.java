@@ -1,5 +1,6 @@
 package de.saar.minecraft.broker;
 
+import de.saar.minecraft.util.ServerOptions;
 import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
@@ -11,10 +12,25 @@ import org.yaml.snakeyaml.constructor.Constructor;
 public class BrokerConfiguration {
     private List<ArchitectServerAddress> architectServers = new ArrayList<>();
     private DatabaseAddress database;
+    private DatabaseAddress readDatabase;
     private int port;
     private int httpPort;
+    private int exportPort;
     private List<String> scenarios = new ArrayList<>();
     private boolean useInternalQuestionnaire = true;
+    private int gameIdleTimeout = 7200;
+    private List<GameLogSinkConfiguration> gameLogSinks = new ArrayList<>();
+    private int maxConcurrentExports = 2;
+    private int maxStatusInFlight = 4;
+    private int admissionTimeout = 60;
+    private int maxWaitingGames = 20;
+    private String traceFile;
+    private double traceSampleRate = 0.01;
+    private boolean flightRecorderEvents;
+    private int architectChannels = 1;
+    private ServerOptions grpcServer = new ServerOptions();
+    private ArchitectServerAddress shadowArchitect;
+    private String registrationToken;
 
     /**
      * Generates a BrokerConfiguration from the yaml data provided by the reader.
@@ -28,6 +44,7 @@ public class BrokerConfiguration {
 
         brokerDesc.addPropertyParameters("scenarios", String.class);
         brokerDesc.addPropertyParameters("architects", ArchitectServerAddress.class);
+        brokerDesc.addPropertyParameters("gameLogSinks", GameLogSinkConfiguration.class);
         constructor.addTypeDescription(brokerDesc);
 
         Yaml yaml = new Yaml(constructor);
@@ -58,6 +75,25 @@ public class BrokerConfiguration {
         this.database = database;
     }
 
+    /** getter for readDatabase.
+     * @return a read-only replica of the database for the web interface and exports,
+     *     or null **/
+    public DatabaseAddress getReadDatabase() {
+        return readDatabase;
+    }
+
+    /** setter for readDatabase.
+     * @param readDatabase a read-only replica of the database **/
+    public void setReadDatabase(DatabaseAddress readDatabase) {
+        this.readDatabase = readDatabase;
+    }
+
+    /** the database that queries which only read should go to.
+     * @return the read-only replica if one is configured, otherwise the database **/
+    public DatabaseAddress readDatabaseOrPrimary() {
+        return readDatabase != null ? readDatabase : database;
+    }
+
     /** getter for port.
      * @return the port **/
     public int getPort() {
@@ -82,6 +118,32 @@ public class BrokerConfiguration {
         this.httpPort = httpPort;
     }
 
+    /** getter for registrationToken.
+     * @return the secret architect servers must send to register with the broker or
+     *     deregister; null (the default) disables registration **/
+    public String getRegistrationToken() {
+        return registrationToken;
+    }
+
+    /** setter for registrationToken.
+     * @param registrationToken the secret for registration, null to disable it **/
+    public void setRegistrationToken(String registrationToken) {
+        this.registrationToken = registrationToken;
+    }
+
+    /** getter for export port.
+     * @return the port of the GameExport service, which requires the credentials of the
+     *     web interface; 0 (the default) disables the service **/
+    public int getExportPort() {
+        return exportPort;
+    }
+
+    /** setter for export port.
+     * @param exportPort the port of the GameExport service, 0 to disable it **/
+    public void setExportPort(int exportPort) {
+        this.exportPort = exportPort;
+    }
+
     /** getter for the secnarios.
      * @return the scenarios **/
     public List<String> getScenarios() {
@@ -106,6 +168,203 @@ public class BrokerConfiguration {
         this.useInternalQuestionnaire = useInternalQuestionnaire;
     }
 
+    /** getter for gameIdleTimeout.
+     * @return seconds without any activity after which a game is ended by the broker,
+     *     0 if games are never ended for inactivity **/
+    public int getGameIdleTimeout() {
+        return gameIdleTimeout;
+    }
+
+    /** setter for gameIdleTimeout.
+     * @param gameIdleTimeout seconds without activity after which a game is ended,
+     *     0 to disable **/
+    public void setGameIdleTimeout(int gameIdleTimeout) {
+        this.gameIdleTimeout = gameIdleTimeout;
+    }
+
+    /** getter for gameLogSinks.
+     * @return where game logs are written; the database if the list is empty.  Without a
+     *     database sink, GAME_SUMMARY and REACTION_TIMES are not written, but GAMES is **/
+    public List<GameLogSinkConfiguration> getGameLogSinks() {
+        return gameLogSinks;
+    }
+
+    /** setter for gameLogSinks.
+     * @param gameLogSinks where game logs are written **/
+    public void setGameLogSinks(List<GameLogSinkConfiguration> gameLogSinks) {
+        this.gameLogSinks = gameLogSinks;
+    }
+
+    /** getter for maxConcurrentExports.
+     * @return number of exports through the GameExport service that may run at once **/
+    public int getMaxConcurrentExports() {
+        return maxConcurrentExports;
+    }
+
+    /** setter for maxConcurrentExports.
+     * @param maxConcurrentExports number of exports that may run at once **/
+    public void setMaxConcurrentExports(int maxConcurrentExports) {
+        this.maxConcurrentExports = maxConcurrentExports;
+    }
+
+    /** getter for maxStatusInFlight.
+     * @return number of status messages of one game that may be forwarded to the
+     *     architect without an answer before further ones are dropped **/
+    public int getMaxStatusInFlight() {
+        return maxStatusInFlight;
+    }
+
+    /** setter for maxStatusInFlight.
+     * @param maxStatusInFlight number of unanswered status messages per game **/
+    public void setMaxStatusInFlight(int maxStatusInFlight) {
+        this.maxStatusInFlight = maxStatusInFlight;
+    }
+
+    /** getter for admissionTimeout.
+     * @return seconds a player waits for an architect server with room for the game
+     *     before the game is rejected, 0 to reject right away **/
+    public int getAdmissionTimeout() {
+        return admissionTimeout;
+    }
+
+    /** setter for admissionTimeout.
+     * @param admissionTimeout seconds a player waits for an architect server **/
+    public void setAdmissionTimeout(int admissionTimeout) {
+        this.admissionTimeout = admissionTimeout;
+    }
+
+    /** getter for maxWaitingGames.
+     * @return number of players that may wait for an architect server at the same time **/
+    public int getMaxWaitingGames() {
+        return maxWaitingGames;
+    }
+
+    /** setter for maxWaitingGames.
+     * @param maxWaitingGames number of players that may wait at the same time **/
+    public void setMaxWaitingGames(int maxWaitingGames) {
+        this.maxWaitingGames = maxWaitingGames;
+    }
+
+    /** getter for traceFile.
+     * @return file the spans of traced games are appended to (Zipkin json, one span
+     *     per line), or null to trace nothing **/
+    public String getTraceFile() {
+        return traceFile;
+    }
+
+    /** setter for traceFile.
+     * @param traceFile file the spans of traced games are appended to **/
+    public void setTraceFile(String traceFile) {
+        this.traceFile = traceFile;
+    }
+
+    /** getter for traceSampleRate.
+     * @return fraction of the games that are traced, between 0 and 1 **/
+    public double getTraceSampleRate() {
+        return traceSampleRate;
+    }
+
+    /** setter for traceSampleRate.
+     * @param traceSampleRate fraction of the games that are traced **/
+    public void setTraceSampleRate(double traceSampleRate) {
+        this.traceSampleRate = traceSampleRate;
+    }
+
+    /** getter for flightRecorderEvents.
+     * @return whether the JDK Flight Recorder events of the broker are enabled **/
+    public boolean getFlightRecorderEvents() {
+        return flightRecorderEvents;
+    }
+
+    /** setter for flightRecorderEvents.
+     * @param flightRecorderEvents whether the JDK Flight Recorder events of the broker
+     *     are enabled **/
+    public void setFlightRecorderEvents(boolean flightRecorderEvents) {
+        this.flightRecorderEvents = flightRecorderEvents;
+    }
+
+    /** getter for architectChannels.
+     * @return number of channels, each with its own connection, the broker opens to
+     *     every architect server; the games are spread over them **/
+    public int getArchitectChannels() {
+        return architectChannels;
+    }
+
+    /** setter for architectChannels.
+     * @param architectChannels number of channels to every architect server **/
+    public void setArchitectChannels(int architectChannels) {
+        this.architectChannels = architectChannels;
+    }
+
+    /** getter for grpcServer.
+     * @return executor, event loops, flow control, keepalive and compression of the
+     *     gRPC server of the broker **/
+    public ServerOptions getGrpcServer() {
+        return grpcServer;
+    }
+
+    /** setter for grpcServer.
+     * @param grpcServer options of the gRPC server of the broker **/
+    public void setGrpcServer(ServerOptions grpcServer) {
+        this.grpcServer = grpcServer;
+    }
+
+    /** getter for shadowArchitect.
+     * @return architect server that gets a copy of the events of every game, but whose
+     *     messages are only logged, or null to mirror no games **/
+    public ArchitectServerAddress getShadowArchitect() {
+        return shadowArchitect;
+    }
+
+    /** setter for shadowArchitect.
+     * @param shadowArchitect architect server the games are mirrored to **/
+    public void setShadowArchitect(ArchitectServerAddress shadowArchitect) {
+        this.shadowArchitect = shadowArchitect;
+    }
+
+    /** where game logs are written. **/
+    public static class GameLogSinkConfiguration {
+        private String type = "database";
+        private String path;
+        private int capacity = 100000;
+
+        /** getter for type.
+         * @return database, file (NDJSON) or memory **/
+        public String getType() {
+            return type;
+        }
+
+        /** setter for type.
+         * @param type database, file (NDJSON) or memory **/
+        public void setType(String type) {
+            this.type = type;
+        }
+
+        /** getter for path.
+         * @return the file to append to, for type file **/
+        public String getPath() {
+            return path;
+        }
+
+        /** setter for path.
+         * @param path the file to append to, for type file **/
+        public void setPath(String path) {
+            this.path = path;
+        }
+
+        /** getter for capacity.
+         * @return the number of latest entries kept, for type memory **/
+        public int getCapacity() {
+            return capacity;
+        }
+
+        /** setter for capacity.
+         * @param capacity the number of latest entries kept, for type memory **/
+        public void setCapacity(int capacity) {
+            this.capacity = capacity;
+        }
+    }
+
     /** database access Data. **/
     public static class DatabaseAddress {
         private String url;
@@ -166,6 +425,9 @@ public class BrokerConfiguration {
     public static class ArchitectServerAddress {
         private String hostname;
         private int port;
+        private String inProcessName;
+        private String socketPath;
+        private int maxGames;
 
         /** getter for hostname.
          * @return  the hostname**/
@@ -191,8 +453,53 @@ public class BrokerConfiguration {
             this.port = port;
         }
 
+        /** getter for inProcessName.
+         * @return name of an architect server in the same JVM, or null to connect via
+         *     socket path or hostname and port **/
+        public String getInProcessName() {
+            return inProcessName;
+        }
+
+        /** setter for inProcessName.
+         * @param inProcessName name under which the architect server runs in-process **/
+        public void setInProcessName(String inProcessName) {
+            this.inProcessName = inProcessName;
+        }
+
+        /** getter for socketPath.
+         * @return Unix domain socket of an architect server on the same host, or null
+         *     to connect via hostname and port **/
+        public String getSocketPath() {
+            return socketPath;
+        }
+
+        /** setter for socketPath.
+         * @param socketPath Unix domain socket the architect server listens on **/
+        public void setSocketPath(String socketPath) {
+            this.socketPath = socketPath;
+        }
+
+        /** getter for maxGames.
+         * @return maximal number of games running on the server at the same time,
+         *     0 for no limit **/
+        public int getMaxGames() {
+            return maxGames;
+        }
+
+        /** setter for maxGames.
+         * @param maxGames maximal number of games running at the same time **/
+        public void setMaxGames(int maxGames) {
+            this.maxGames = maxGames;
+        }
+
         @Override
         public String toString() {
+            if (inProcessName != null) {
+                return "in-process:" + inProcessName;
+            }
+            if (socketPath != null) {
+                return "unix:" + socketPath;
+            }
             return hostname + ":" + port;
         }
 
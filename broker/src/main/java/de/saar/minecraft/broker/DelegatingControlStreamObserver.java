@@ -22,6 +22,7 @@ class DelegatingControlStreamObserver implements StreamObserver<ProtectBlockMess
     @Override
     public void onNext(ProtectBlockMessage value) {
         broker.log(gameId, value, GameLogsDirection.PassToClient);
+        broker.reactionSent(gameId, value);
         toClient.onNext(value);
     }
 
@@ -3,15 +3,19 @@ package de.saar.minecraft.broker;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonToken;
 import de.saar.minecraft.broker.db.GameLogsDirection;
+import de.saar.minecraft.broker.jfr.MessageToClientEvent;
 import de.saar.minecraft.shared.NewGameState;
 import de.saar.minecraft.shared.TextMessage;
 import de.saar.minecraft.shared.TextMessageOrBuilder;
+import de.saar.minecraft.tracing.Span;
+import de.saar.minecraft.tracing.TraceContext;
 import io.grpc.stub.StreamObserver;
 import java.io.IOException;
 
 /**
  * A DelegatingStreamObserver acts as a proxy in connections from the Architect to the Client.
- * All messages are logged into the database and forwarded.
+ * All messages are logged into the database and forwarded.  Messages that carry the
+ * trace context of the architect's work are forwarded in a span of that trace.
  */
 class DelegatingStreamObserver implements StreamObserver<TextMessage> {
     
@@ -54,6 +58,26 @@ class DelegatingStreamObserver implements StreamObserver<TextMessage> {
 
     @Override
     public synchronized void onNext(TextMessage value) {
+        var event = new MessageToClientEvent();
+        event.begin();
+        if (value.getTraceParent().isEmpty()) {
+            forward(value);
+        } else {
+            Span span = broker.getTracer().startSpan("forward TextMessage",
+                    TraceContext.fromTraceParent(value.getTraceParent()));
+            span.tag("game.id", gameId).run(() -> forward(value));
+            span.end();
+        }
+        if (event.shouldCommit()) {
+            event.gameId = gameId;
+            event.forLogging = value.getForLogging();
+            event.newGameState = value.getNewGameState().name();
+            event.size = value.getText().length();
+            event.commit();
+        }
+    }
+
+    private void forward(TextMessage value) {
         if (value.getNewGameState() == NewGameState.SuccessfullyFinished) {
             broker.startQuestionnaire(gameId, this);
         }
@@ -64,6 +88,7 @@ class DelegatingStreamObserver implements StreamObserver<TextMessage> {
             return;
         }
         broker.log(gameId, value, GameLogsDirection.PassToClient);
+        broker.reactionSent(gameId, value);
         String text = value.getText();
         if (text.startsWith("{")) {
             // assume that a json object is passed along, get the "message" part
@@ -2,9 +2,11 @@ package de.saar.minecraft.broker;
 
 import static de.saar.minecraft.broker.db.Tables.GAMES;
 import static de.saar.minecraft.broker.db.Tables.GAME_LOGS;
+import static de.saar.minecraft.broker.db.Tables.GAME_SUMMARY;
 import static java.time.temporal.ChronoUnit.SECONDS;
 
 import de.saar.minecraft.broker.db.Tables;
+import de.saar.minecraft.broker.db.tables.records.GameSummaryRecord;
 import java.time.LocalDateTime;
 import java.util.List;
 import org.jooq.DSLContext;
@@ -16,6 +18,8 @@ import org.jooq.DSLContext;
 public class GameInformation {
     int gameId;
     DSLContext jooq;
+    private GameSummaryRecord summary;
+    private boolean summaryLoaded;
 
     /**
      * constructor.
@@ -27,6 +31,21 @@ public class GameInformation {
         this.jooq = jooq;
     }
 
+    /**
+     * Returns the row of the game in GAME_SUMMARY, or null if it has none yet.  The
+     * counters of running games are written when they change, the end time only
+     * when the game ends; games without a summary fall back to scanning the log.
+     */
+    private GameSummaryRecord getSummary() {
+        if (!summaryLoaded) {
+            summary = jooq.selectFrom(GAME_SUMMARY)
+                    .where(GAME_SUMMARY.GAMEID.eq(gameId))
+                    .fetchOne();
+            summaryLoaded = true;
+        }
+        return summary;
+    }
+
     /**
      * returns the secanrio name.
      * @return scanario
@@ -49,35 +68,41 @@ public class GameInformation {
                 .fetchOne(GAMES.ARCHITECT_INFO);
     }
 
-    /*  no longer needed here all game analysis is done in experiment-analysis project
+    /**
+     * returns the number of blocks the player placed.
+     * @return number of blocks placed
+     */
     public int getNumBlocksPlaced() {
-        return jooq.selectCount()
-                .from(GAME_LOGS)
-                .where(GAME_LOGS.GAMEID.eq(gameId))
-                .and(GAME_LOGS.MESSAGE_TYPE.eq("BlockPlacedMessage"))
-                .fetchOne(0, int.class);
+        var summary = getSummary();
+        return summary == null ? 0 : summary.getNumBlocksPlaced();
     }
 
+    /**
+     * returns the number of blocks the player destroyed.
+     * @return number of blocks destroyed
+     */
     public int getNumBlocksDestroyed() {
-        return jooq.selectCount()
-                .from(GAME_LOGS)
-                .where(GAME_LOGS.GAMEID.eq(gameId))
-                .and(GAME_LOGS.MESSAGE_TYPE.eq("BlockDestroyedMessage"))
-                .fetchOne(0, int.class);
+        var summary = getSummary();
+        return summary == null ? 0 : summary.getNumBlocksDestroyed();
     }
 
+    /**
+     * returns the number of times the architect told the player a block was misplaced.
+     * @return number of mistakes
+     */
     public int getNumMistakes() {
-        return jooq.selectCount()
-                .from(GAME_LOGS)
-                .where(GAME_LOGS.GAMEID.eq(gameId))
-                .and(GAME_LOGS.MESSAGE.contains("Not there! please remove that block again"))
-                .fetchOne(0, int.class);
+        var summary = getSummary();
+        return summary == null ? 0 : summary.getNumMistakes();
     }
-*/
+
     /** was the game successful?.
      * @return True if the game was successfully finished, false if stopped early
      */
     public boolean wasSuccessful() {
+        var summary = getSummary();
+        if (summary != null) {
+            return summary.getSuccessTime() != null;
+        }
         var selection = jooq.select()
                 .from(GAME_LOGS)
                 .where(GAME_LOGS.GAMEID.eq(gameId))
@@ -115,6 +140,10 @@ public class GameInformation {
      * @return the first Timestamp of the game
      */
     public LocalDateTime getStartTime() {
+        var summary = getSummary();
+        if (summary != null && summary.getFirstTimestamp() != null) {
+            return summary.getFirstTimestamp();
+        }
         return jooq.select(GAME_LOGS.TIMESTAMP)
                 .from(GAME_LOGS)
                 .where(GAME_LOGS.GAMEID.eq(gameId))
@@ -127,6 +156,10 @@ public class GameInformation {
      */
     public LocalDateTime getSuccessTime() {
         assert wasSuccessful();
+        var summary = getSummary();
+        if (summary != null) {
+            return summary.getSuccessTime();
+        }
         return jooq.select(GAME_LOGS.TIMESTAMP)
                 .from(GAME_LOGS)
                 .where(GAME_LOGS.GAMEID.eq(gameId))
@@ -138,6 +171,10 @@ public class GameInformation {
      * @return the last Timestamp of the game
      */
     public LocalDateTime getEndTime() {
+        var summary = getSummary();
+        if (summary != null && summary.getLastTimestamp() != null) {
+            return summary.getLastTimestamp();
+        }
         return jooq.select(GAME_LOGS.TIMESTAMP)
                 .from(GAME_LOGS)
                 .where(Tables.GAME_LOGS.GAMEID.equal(gameId))
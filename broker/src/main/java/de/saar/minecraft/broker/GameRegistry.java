@@ -0,0 +1,102 @@
+package de.saar.minecraft.broker;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.tinylog.Logger;
+
+/**
+ * Keeps track of the games currently running on the broker and owns their
+ * per-game state.  A game is registered when it starts and released when it
+ * ends, when its client stream is cancelled or when it has been idle for too long.
+ */
+class GameRegistry {
+    private final ConcurrentHashMap<Integer, RunningGame> games = new ConcurrentHashMap<>();
+
+    /**
+     * Registers a newly started game.  The game must have been counted on the
+     * architect server with {@link Broker.ArchitectConnection#tryReserveGame()}.
+     */
+    RunningGame register(int gameId, String scenario, Broker.ArchitectConnection architect) {
+        var game = new RunningGame(gameId, scenario, architect);
+        games.put(gameId, game);
+        return game;
+    }
+
+    /**
+     * Returns the game with the given ID or null if no such game is running.
+     */
+    RunningGame get(int gameId) {
+        return games.get(gameId);
+    }
+
+    /**
+     * Removes the game from the registry and releases its state.  Only the first
+     * of several concurrent calls for the same game gets the game back, all others
+     * get null.
+     */
+    RunningGame release(int gameId) {
+        RunningGame game = games.remove(gameId);
+        if (game != null) {
+            game.release();
+            game.getArchitect().gameEnded();
+        }
+        return game;
+    }
+
+    Collection<RunningGame> getGames() {
+        return games.values();
+    }
+
+    /**
+     * Returns the number of running games.
+     */
+    int getNumGames() {
+        return games.size();
+    }
+
+    /**
+     * Returns the number of running games that are in the questionnaire phase.
+     */
+    int getNumQuestionnaires() {
+        int ret = 0;
+        for (RunningGame game : games.values()) {
+            if (game.getQuestionnaire() != null) {
+                ret++;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Periodically checks for games without any activity for more than
+     * idleTimeoutSeconds and hands them to onIdle, which is expected to end them.
+     */
+    void startIdleSweeper(ScheduledExecutorService scheduler,
+                          long idleTimeoutSeconds,
+                          Consumer<RunningGame> onIdle) {
+        long period = Math.min(60, idleTimeoutSeconds);
+        long idleTimeoutNanos = TimeUnit.SECONDS.toNanos(idleTimeoutSeconds);
+        scheduler.scheduleWithFixedDelay(() -> {
+            long now = System.nanoTime();
+            List<RunningGame> idle = new ArrayList<>();
+            for (RunningGame game : games.values()) {
+                if (now - game.getLastActivity() > idleTimeoutNanos) {
+                    idle.add(game);
+                }
+            }
+            for (RunningGame game : idle) {
+                try {
+                    onIdle.accept(game);
+                } catch (Exception e) {
+                    Logger.warn("Could not end idle game {}: {}", game.getGameId(), e);
+                }
+            }
+            Logger.debug("{} games running, {} ended for inactivity", games.size(), idle.size());
+        }, period, period, TimeUnit.SECONDS);
+    }
+}
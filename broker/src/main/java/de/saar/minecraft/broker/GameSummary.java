@@ -0,0 +1,168 @@
+package de.saar.minecraft.broker;
+
+import static de.saar.minecraft.broker.db.Tables.GAME_SUMMARY;
+
+import com.google.protobuf.MessageOrBuilder;
+import de.saar.minecraft.broker.db.GameLogsDirection;
+import de.saar.minecraft.shared.BlockDestroyedMessage;
+import de.saar.minecraft.shared.BlockPlacedMessage;
+import de.saar.minecraft.shared.NewGameState;
+import de.saar.minecraft.shared.TextMessage;
+import java.time.LocalDateTime;
+import org.jooq.DSLContext;
+import org.jooq.Query;
+
+/**
+ * Counters summarizing one running game, updated in memory as its events are logged
+ * and written to the GAME_SUMMARY table, so that the web interface does not have to
+ * scan the game log.  The broker writes the counters periodically if they changed
+ * in a way that is shown on the web interface (see {@link #storeIfChanged}), and
+ * when the game ends; the timestamp of the last event is only written along with
+ * those changes.
+ */
+class GameSummary {
+    /** Architects tell the player about a misplaced block with this text. */
+    static final String MISTAKE_TEXT = "Not there! please remove that block again";
+
+    private final int gameId;
+    private int numBlocksPlaced;
+    private int numBlocksDestroyed;
+    private int numMistakes;
+    private NewGameState lastGameState;
+    private LocalDateTime successTime;
+    private LocalDateTime firstTimestamp;
+    private LocalDateTime lastTimestamp;
+    /** Whether a counter shown on the web interface changed since the last store. */
+    private boolean dirty;
+    /** Keeps stores in order, without holding up the logging of events while they run. */
+    private final Object storeLock = new Object();
+
+    GameSummary(int gameId) {
+        this.gameId = gameId;
+    }
+
+    /**
+     * Updates the counters with a logged message.  The time of the message must have
+     * been recorded with {@link #record(LocalDateTime)} before.
+     *
+     * @return true if a counter shown on the web interface changed
+     */
+    synchronized boolean record(MessageOrBuilder message, GameLogsDirection direction) {
+        if (direction == GameLogsDirection.FromClient) {
+            if (message instanceof BlockPlacedMessage) {
+                numBlocksPlaced++;
+                dirty = true;
+                return true;
+            }
+            if (message instanceof BlockDestroyedMessage) {
+                numBlocksDestroyed++;
+                dirty = true;
+                return true;
+            }
+        } else if (direction == GameLogsDirection.PassToClient
+                && message instanceof TextMessage) {
+            var text = (TextMessage) message;
+            boolean changed = false;
+            if (text.getText().contains(MISTAKE_TEXT)) {
+                numMistakes++;
+                changed = true;
+            }
+            if (text.getNewGameState() != NewGameState.NotChanged
+                    && text.getNewGameState() != lastGameState) {
+                lastGameState = text.getNewGameState();
+                if (lastGameState == NewGameState.SuccessfullyFinished && successTime == null) {
+                    successTime = lastTimestamp;
+                }
+                changed = true;
+            }
+            dirty |= changed;
+            return changed;
+        }
+        return false;
+    }
+
+    /**
+     * Records that something was logged for the game at the given time.
+     */
+    synchronized void record(LocalDateTime timestamp) {
+        if (firstTimestamp == null) {
+            firstTimestamp = timestamp;
+        }
+        lastTimestamp = timestamp;
+    }
+
+    synchronized int getNumMistakes() {
+        return numMistakes;
+    }
+
+    synchronized LocalDateTime getSuccessTime() {
+        return successTime;
+    }
+
+    synchronized LocalDateTime getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    /**
+     * Writes the current counters to the GAME_SUMMARY table if a counter shown on the
+     * web interface changed since they were last written.
+     */
+    void storeIfChanged(DSLContext jooq) {
+        synchronized (storeLock) {
+            Query query;
+            synchronized (this) {
+                if (!dirty) {
+                    return;
+                }
+                query = storeQuery(jooq);
+            }
+            execute(query);
+        }
+    }
+
+    /**
+     * Writes the current counters to the GAME_SUMMARY table.
+     */
+    void store(DSLContext jooq) {
+        synchronized (storeLock) {
+            Query query;
+            synchronized (this) {
+                query = storeQuery(jooq);
+            }
+            execute(query);
+        }
+    }
+
+    private void execute(Query query) {
+        try {
+            query.execute();
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                dirty = true;
+            }
+            throw e;
+        }
+    }
+
+    private Query storeQuery(DSLContext jooq) {
+        dirty = false;
+        String state = lastGameState == null ? null : lastGameState.name();
+        return jooq.insertInto(GAME_SUMMARY)
+                .set(GAME_SUMMARY.GAMEID, gameId)
+                .set(GAME_SUMMARY.NUM_BLOCKS_PLACED, numBlocksPlaced)
+                .set(GAME_SUMMARY.NUM_BLOCKS_DESTROYED, numBlocksDestroyed)
+                .set(GAME_SUMMARY.NUM_MISTAKES, numMistakes)
+                .set(GAME_SUMMARY.LAST_GAME_STATE, state)
+                .set(GAME_SUMMARY.SUCCESS_TIME, successTime)
+                .set(GAME_SUMMARY.FIRST_TIMESTAMP, firstTimestamp)
+                .set(GAME_SUMMARY.LAST_TIMESTAMP, lastTimestamp)
+                .onDuplicateKeyUpdate()
+                .set(GAME_SUMMARY.NUM_BLOCKS_PLACED, numBlocksPlaced)
+                .set(GAME_SUMMARY.NUM_BLOCKS_DESTROYED, numBlocksDestroyed)
+                .set(GAME_SUMMARY.NUM_MISTAKES, numMistakes)
+                .set(GAME_SUMMARY.LAST_GAME_STATE, state)
+                .set(GAME_SUMMARY.SUCCESS_TIME, successTime)
+                .set(GAME_SUMMARY.FIRST_TIMESTAMP, firstTimestamp)
+                .set(GAME_SUMMARY.LAST_TIMESTAMP, lastTimestamp);
+    }
+}
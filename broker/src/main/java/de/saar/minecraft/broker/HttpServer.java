@@ -11,8 +11,10 @@ import com.google.gson.JsonParser;
 import com.sun.net.httpserver.BasicAuthenticator;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
+import de.saar.minecraft.broker.db.GameStatus;
 import de.saar.minecraft.broker.db.Tables;
 import de.saar.minecraft.broker.db.tables.records.GameLogsRecord;
+import de.saar.minecraft.broker.db.tables.records.GameSummaryRecord;
 import de.saar.minecraft.broker.db.tables.records.GamesRecord;
 import de.saar.minecraft.broker.db.tables.records.QuestionnairesRecord;
 import de.saar.minecraft.shared.BlockDestroyedMessage;
@@ -30,6 +32,7 @@ import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 import org.apache.commons.text.StringEscapeUtils;
+import org.jooq.Record;
 import org.jooq.Result;
 import org.tinylog.Logger;
 
@@ -37,12 +40,28 @@ import org.tinylog.Logger;
  * implemets http read-only interface of the database.
  */
 public class HttpServer {
-    private CarrotEngine engine;
+    private volatile CarrotEngine engine;
     private Broker broker;
 
+    /**
+     * Returns the user name of the web interface, which the GameExport service
+     * requires as well.
+     */
+    static String getUser() {
+        return System.getProperty("HTTPUser", "mcsaar");
+    }
+
+    /**
+     * Returns the password of the web interface, which the GameExport service
+     * requires as well.
+     */
+    static String getPassword() {
+        return System.getProperty("HTTPPass", "mcsaar");
+    }
+
     private static class MyAuthenticator extends BasicAuthenticator {
-        String user = System.getProperty("HTTPUser", "mcsaar");
-        String pass = System.getProperty("HTTPPass", "mcsaar");
+        String user = getUser();
+        String pass = getPassword();
 
         MyAuthenticator() {
             super("enter password");
@@ -75,14 +94,28 @@ public class HttpServer {
         server.setExecutor(null); // creates a default executor
         server.start();
 
-        // set up templating engine
-        engine = new CarrotEngine(new Configuration.Builder()
-                .setResourceLocator(makeResourceLocator())
-                .build());
-
         Logger.info("HTTP server running on port {}.", port);
     }
 
+    /**
+     * Returns the templating engine, setting it up on first use so that
+     * loading the templates does not slow down the start of the broker.
+     */
+    private CarrotEngine getEngine() {
+        CarrotEngine ret = engine;
+        if (ret == null) {
+            synchronized (this) {
+                if (engine == null) {
+                    engine = new CarrotEngine(new Configuration.Builder()
+                            .setResourceLocator(makeResourceLocator())
+                            .build());
+                }
+                ret = engine;
+            }
+        }
+        return ret;
+    }
+
     private ResourceLocator.Builder makeResourceLocator() {
         MemoryResourceLocator.Builder ret = new MemoryResourceLocator.Builder();
 
@@ -92,6 +125,7 @@ public class HttpServer {
         ret.add("showquestionnaire.html", slurp("showquestionnaire.html"));
         ret.add("showgamestatistics.html", slurp("showgamestatistics.html"));
         ret.add("allgames.html", slurp("allgames.html"));
+        ret.add("statistics.html", slurp("statistics.html"));
         return ret;
     }
 
@@ -119,6 +153,8 @@ public class HttpServer {
                 response = createStatisticsResponse(t);
             } else if ("/allgames.html".equals(path)) {
                 response = createAllGamesResponse(t);
+            } else if ("/statistics.html".equals(path)) {
+                response = createScenarioStatisticsResponse();
             } else {
                 // undefined URL
                 response = "404 (not found)";
@@ -135,13 +171,14 @@ public class HttpServer {
         private String createOverviewResponse() {
             Map<String, Object> bindings = new TreeMap<>();
             bindings.put("config", broker.getConfig());
+            bindings.put("numRunningGames", broker.getGames().getNumGames());
+            bindings.put("numQuestionnaires", broker.getGames().getNumQuestionnaires());
+            bindings.put("reactionTimes", broker.getLatencies().getSummaries());
+            bindings.put("shedStatusMessages", broker.getShedStatusMessages());
+            bindings.put("numWaitingGames", broker.getNumWaitingGames());
+            bindings.put("rejectedGames", broker.getRejectedGames());
             try {
-                Result<GamesRecord> latestGames = broker.getJooq().selectFrom(Tables.GAMES)
-                        .orderBy(Tables.GAMES.ID.desc())
-                        .limit(20)
-                        .fetch();
-
-                bindings.put("latest", latestGames);
+                bindings.put("latest", fetchGameRows(20));
             } catch (Exception e) {
                 var error = "Could not fetch latest games.  Is the DB schema up to date?\n"
                         + e.toString();
@@ -150,7 +187,7 @@ public class HttpServer {
             }
 
             try {
-                return engine.process("index.html", new MapBindings(bindings));
+                return getEngine().process("index.html", new MapBindings(bindings));
             } catch (CarrotException e) {
                 return "An error occurred when expanding index.html: " + e.toString();
             }
@@ -161,12 +198,12 @@ public class HttpServer {
             if (response == null) {
                 Map<String, String> params = queryToMap(t.getRequestURI().getQuery());
                 int gameid = Integer.parseInt(params.get("id"));
-                GamesRecord game = broker.getJooq()
+                GamesRecord game = broker.getReadJooq()
                         .selectFrom(Tables.GAMES)
                         .where(Tables.GAMES.ID.equal(gameid))
                         .fetchOne();
 
-                Result<GameLogsRecord> gameLog = broker.getJooq()
+                Result<GameLogsRecord> gameLog = broker.getReadJooq()
                         .selectFrom(Tables.GAME_LOGS)
                         .where(Tables.GAME_LOGS.GAMEID.equal(gameid))
                         .orderBy(Tables.GAME_LOGS.ID.asc())
@@ -193,7 +230,7 @@ public class HttpServer {
                 bindings.put("log", gameLog);
 
                 try {
-                    response = engine.process("showgame.html", new MapBindings(bindings));
+                    response = getEngine().process("showgame.html", new MapBindings(bindings));
                 } catch (CarrotException e) {
                     response = "An error occurred when expanding showgame.html: "
                             + e.toString();
@@ -251,12 +288,12 @@ public class HttpServer {
             if (response == null) {
                 Map<String, String> params = queryToMap(t.getRequestURI().getQuery());
                 int gameid = Integer.parseInt(params.get("id"));
-                GamesRecord game = broker.getJooq()
+                GamesRecord game = broker.getReadJooq()
                         .selectFrom(Tables.GAMES)
                         .where(Tables.GAMES.ID.equal(gameid))
                         .fetchOne();
 
-                Result<GameLogsRecord> gameLog = broker.getJooq()
+                Result<GameLogsRecord> gameLog = broker.getReadJooq()
                         .selectFrom(Tables.GAME_LOGS)
                         .where(Tables.GAME_LOGS.GAMEID.equal(gameid))
                         .orderBy(Tables.GAME_LOGS.ID.asc())
@@ -358,7 +395,7 @@ public class HttpServer {
                 bindings.put("successful", successfulGame);
 
                 try {
-                    response = engine.process("showprettygame.html", new MapBindings(bindings));
+                    response = getEngine().process("showprettygame.html", new MapBindings(bindings));
                 } catch (CarrotException e) {
                     response = "An error occurred when expanding showprettygame.html: "
                             + e.toString();
@@ -373,12 +410,12 @@ public class HttpServer {
             if (response == null) {
                 Map<String, String> params = queryToMap(t.getRequestURI().getQuery());
                 int gameid = Integer.parseInt(params.get("id"));
-                GamesRecord game = broker.getJooq()
+                GamesRecord game = broker.getReadJooq()
                         .selectFrom(Tables.GAMES)
                         .where(Tables.GAMES.ID.equal(gameid))
                         .fetchOne();
 
-                Result<QuestionnairesRecord> questionnaire = broker.getJooq()
+                Result<QuestionnairesRecord> questionnaire = broker.getReadJooq()
                         .selectFrom(Tables.QUESTIONNAIRES)
                         .where(Tables.QUESTIONNAIRES.GAMEID.equal(gameid))
                         .orderBy(Tables.QUESTIONNAIRES.ID.asc())
@@ -394,7 +431,7 @@ public class HttpServer {
                 bindings.put("game", game);
                 bindings.put("questionnaire", questionnaire);
                 try {
-                    response = engine.process("showquestionnaire.html",
+                    response = getEngine().process("showquestionnaire.html",
                             new MapBindings(bindings));
                 } catch (CarrotException e) {
                     response = "An error occurred when expanding showquestionnaire.html: "
@@ -410,19 +447,24 @@ public class HttpServer {
                 Map<String, String> params = queryToMap(t.getRequestURI().getQuery());
                 int gameId = Integer.parseInt(params.get("id"));
 
-                GamesRecord game = broker.getJooq()
+                GamesRecord game = broker.getReadJooq()
                         .selectFrom(Tables.GAMES)
                         .where(Tables.GAMES.ID.equal(gameId))
                         .fetchOne();
 
-                GameInformation info = new GameInformation(gameId, broker.getJooq());
+                GameInformation info = new GameInformation(gameId, broker.getReadJooq());
 
                 Map<String, Object> bindings = new TreeMap<>();
                 bindings.put("config", broker.getConfig());
                 bindings.put("game", game);
                 bindings.put("info", info);
+                bindings.put("reactionTimes", broker.getLatencies().getGameSummary(broker.getReadJooq(), gameId));
+                if (game != null) {
+                    bindings.put("architectReactionTimes", broker.getLatencies()
+                            .getSummary(game.getArchitectInfo(), game.getScenario()));
+                }
                 try {
-                    response = engine.process("showgamestatistics.html",
+                    response = getEngine().process("showgamestatistics.html",
                             new MapBindings(bindings));
                 } catch (CarrotException e) {
                     response = "An error occurred when expanding showgamestatistics.html: "
@@ -436,10 +478,7 @@ public class HttpServer {
         private String createAllGamesResponse(HttpExchange t) {
             Map<String, Object> bindings = new TreeMap<>();
             try {
-                Result<GamesRecord> allGames = broker.getJooq().selectFrom(Tables.GAMES)
-                        .orderBy(Tables.GAMES.ID.desc())
-                        .fetch();
-                bindings.put("games", allGames);
+                bindings.put("games", fetchGameRows(0));
             } catch (Exception e) {
                 var error = "Could not fetch games.  Is the DB schema up to date?\n"
                         + e.toString();
@@ -448,12 +487,23 @@ public class HttpServer {
             }
 
             try {
-                return engine.process("allgames.html", new MapBindings(bindings));
+                return getEngine().process("allgames.html", new MapBindings(bindings));
             } catch (CarrotException e) {
                 return "An error occurred when expanding allgames.html: " + e.toString();
             }
         }
 
+        private String createScenarioStatisticsResponse() {
+            Map<String, Object> bindings = new TreeMap<>();
+            bindings.put("statistics", broker.getStatistics().getAggregates());
+            bindings.put("reactionTimes", broker.getLatencies().getSummaries());
+            try {
+                return getEngine().process("statistics.html", new MapBindings(bindings));
+            } catch (CarrotException e) {
+                return "An error occurred when expanding statistics.html: " + e.toString();
+            }
+        }
+
         private String checkHttpQuery(HttpExchange t, String key) {
             String response;
             if (t.getRequestURI().getQuery() == null) {
@@ -470,6 +520,89 @@ public class HttpServer {
         }
     }
 
+    /**
+     * Returns the latest games with their summaries, newest first.
+     * @param limit maximum number of games, 0 for all games
+     */
+    private List<GameRow> fetchGameRows(int limit) {
+        var query = broker.getReadJooq().select()
+                .from(Tables.GAMES)
+                .leftJoin(Tables.GAME_SUMMARY).on(Tables.GAME_SUMMARY.GAMEID.eq(Tables.GAMES.ID))
+                .orderBy(Tables.GAMES.ID.desc());
+        Result<Record> rows = limit > 0 ? query.limit(limit).fetch() : query.fetch();
+        List<GameRow> ret = new ArrayList<>(rows.size());
+        for (Record row : rows) {
+            GameSummaryRecord summary = row.into(Tables.GAME_SUMMARY);
+            ret.add(new GameRow(row.into(Tables.GAMES),
+                    summary.getGameid() == null ? null : summary));
+        }
+        return ret;
+    }
+
+    /**
+     * A game together with its summary, for the game lists on the web interface.
+     */
+    public static class GameRow {
+        private final GamesRecord game;
+        private final GameSummaryRecord summary;
+
+        GameRow(GamesRecord game, GameSummaryRecord summary) {
+            this.game = game;
+            this.summary = summary;
+        }
+
+        public Integer getId() {
+            return game.getId();
+        }
+
+        public String getClientIp() {
+            return game.getClientIp();
+        }
+
+        public LocalDateTime getStartTime() {
+            return game.getStartTime();
+        }
+
+        public String getScenario() {
+            return game.getScenario();
+        }
+
+        public String getArchitectInfo() {
+            return game.getArchitectInfo();
+        }
+
+        public GameStatus getStatus() {
+            return game.getStatus();
+        }
+
+        public int getNumBlocksPlaced() {
+            return summary == null ? 0 : summary.getNumBlocksPlaced();
+        }
+
+        public int getNumBlocksDestroyed() {
+            return summary == null ? 0 : summary.getNumBlocksDestroyed();
+        }
+
+        public int getNumMistakes() {
+            return summary == null ? 0 : summary.getNumMistakes();
+        }
+
+        public boolean getSuccessful() {
+            return summary != null && summary.getSuccessTime() != null;
+        }
+
+        /**
+         * Returns the seconds between the first and the last logged event of the game.
+         */
+        public long getDuration() {
+            if (summary == null || summary.getFirstTimestamp() == null
+                    || summary.getLastTimestamp() == null) {
+                return 0;
+            }
+            return summary.getFirstTimestamp().until(summary.getLastTimestamp(), ChronoUnit.SECONDS);
+        }
+    }
+
     private static Map<String, String> queryToMap(String query) {
         Map<String, String> result = new HashMap<>();
         for (String param : query.split("&")) {
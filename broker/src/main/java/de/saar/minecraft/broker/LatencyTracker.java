@@ -0,0 +1,287 @@
+package de.saar.minecraft.broker;
+
+import static de.saar.minecraft.broker.db.Tables.GAMES;
+import static de.saar.minecraft.broker.db.Tables.REACTION_TIMES;
+
+import de.saar.minecraft.broker.db.tables.records.ReactionTimesRecord;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.apache.commons.math3.stat.descriptive.SynchronizedDescriptiveStatistics;
+import org.jooq.DSLContext;
+import org.jooq.Record3;
+import org.tinylog.Logger;
+
+/**
+ * Measures how long the architects take to react to the players.  Every event the
+ * broker forwards to the architect of a game is timestamped, and the next message
+ * or block protection the architect sends for that game counts as the reaction to
+ * the latest event forwarded before it, as in the replay tool (see ReplayResult).
+ * Earlier events without a reaction, mostly status updates superseded by the next
+ * one, get no reaction time, so that one reaction is counted once and idle time
+ * since an old status update is not mistaken for latency.  Reaction times are aggregated
+ * per architect and scenario over the last {@link #WINDOW_SIZE} reactions, and
+ * stored in the REACTION_TIMES table when the broker calls {@link #flush()}, so that
+ * the database is never written on the path of a message to the player.  They are
+ * only stored if the game logs are written to the database as well.
+ */
+public class LatencyTracker {
+    /** Number of reaction times per architect and scenario the percentiles are computed over. */
+    static final int WINDOW_SIZE = 10000;
+    /** Events that got no reaction for this long are dropped instead of being matched. */
+    private static final long MAX_PENDING_NANOS = TimeUnit.MINUTES.toNanos(5);
+    /** Number of stored reaction times read at startup to fill the windows. */
+    private static final int INITIAL_ROWS = 100000;
+    /** Prefix of the architect information of shadow architects in the summaries. */
+    static final String SHADOW_PREFIX = "shadow: ";
+
+    private final DSLContext jooq;
+    private final boolean store;
+    private final Map<Key, DescriptiveStatistics> statistics = new ConcurrentHashMap<>();
+    /** Reaction times that are not stored yet. */
+    private final Queue<ReactionTimesRecord> unstored = new ConcurrentLinkedQueue<>();
+
+    /**
+     * An event that was forwarded to the architect and is waiting for a reaction.
+     */
+    static class PendingEvent {
+        final String type;
+        final long forwardedNanos;
+
+        PendingEvent(String type, long forwardedNanos) {
+            this.type = type;
+            this.forwardedNanos = forwardedNanos;
+        }
+    }
+
+    LatencyTracker(DSLContext jooq, boolean store) {
+        this.jooq = jooq;
+        this.store = store;
+        loadRecentReactionTimes();
+    }
+
+    /**
+     * Records that an event of the given type is being forwarded to the architect of the game.
+     */
+    void eventForwarded(RunningGame game, String eventType) {
+        game.setPendingEvent(new PendingEvent(eventType, System.nanoTime()));
+    }
+
+    /**
+     * Records that the architect of the game sent a message of the given type to the
+     * player and records the reaction time of the latest event that was waiting for it.
+     */
+    void reactionSent(RunningGame game, String reactionType) {
+        long now = System.nanoTime();
+        PendingEvent event = game.takePendingEvent();
+        if (event == null || now - event.forwardedNanos > MAX_PENDING_NANOS) {
+            return;
+        }
+        int latencyMillis = (int) TimeUnit.NANOSECONDS.toMillis(now - event.forwardedNanos);
+        getStatistics(new Key(game.getArchitect().architectInfo.getInfo(), game.getScenario()))
+                .addValue(latencyMillis);
+        if (!store) {
+            return;
+        }
+        ReactionTimesRecord rec = jooq.newRecord(REACTION_TIMES);
+        rec.setGameid(game.getGameId());
+        rec.setEventType(event.type);
+        rec.setReactionType(reactionType);
+        rec.setLatencyMs(latencyMillis);
+        rec.setTimestamp(Broker.now());
+        unstored.add(rec);
+    }
+
+    /**
+     * Stores the reaction times recorded since the last call in the database.  The
+     * broker calls this periodically from its database writer thread and when it
+     * stops; reaction times that cannot be stored are dropped.
+     */
+    void flush() {
+        List<ReactionTimesRecord> records = new ArrayList<>();
+        ReactionTimesRecord rec;
+        while ((rec = unstored.poll()) != null) {
+            records.add(rec);
+        }
+        if (records.isEmpty()) {
+            return;
+        }
+        try {
+            jooq.batchInsert(records).execute();
+        } catch (Exception e) {
+            Logger.warn("Could not store {} reaction times: {}", records.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * Records that the shadow architect of a game sent a message to the player, see
+     * {@link ShadowArchitect}.  Its reaction times are aggregated under its architect
+     * information with {@link #SHADOW_PREFIX}, but not stored in the database, where
+     * they would count as reaction times of the game.
+     */
+    void shadowReactionSent(RunningGame shadowGame) {
+        long now = System.nanoTime();
+        PendingEvent event = shadowGame.takePendingEvent();
+        if (event == null || now - event.forwardedNanos > MAX_PENDING_NANOS) {
+            return;
+        }
+        getStatistics(new Key(SHADOW_PREFIX + shadowGame.getArchitect().architectInfo.getInfo(),
+                shadowGame.getScenario()))
+                .addValue(TimeUnit.NANOSECONDS.toMillis(now - event.forwardedNanos));
+    }
+
+    /**
+     * Returns the reaction time percentiles of all architect and scenario combinations
+     * seen so far, ordered by architect and scenario.
+     */
+    public List<Summary> getSummaries() {
+        List<Summary> ret = new ArrayList<>();
+        statistics.forEach((key, stats) -> ret.add(new Summary(key.architect, key.scenario, stats)));
+        ret.sort((a, b) -> a.architect.equals(b.architect)
+                ? a.scenario.compareTo(b.scenario)
+                : a.architect.compareTo(b.architect));
+        return ret;
+    }
+
+    /**
+     * Returns the reaction time percentiles of one architect in one scenario.
+     */
+    public Summary getSummary(String architect, String scenario) {
+        var stats = statistics.get(new Key(architect, scenario));
+        return new Summary(architect, scenario, stats == null ? new DescriptiveStatistics() : stats);
+    }
+
+    /**
+     * Returns the reaction time percentiles of a single game from the database.
+     * @param readJooq the database to read from, e.g. the read-only replica
+     * @param gameId the game
+     * @return the percentiles
+     */
+    public Summary getGameSummary(DSLContext readJooq, int gameId) {
+        var stats = new DescriptiveStatistics();
+        for (Integer latency : readJooq.select(REACTION_TIMES.LATENCY_MS)
+                .from(REACTION_TIMES)
+                .where(REACTION_TIMES.GAMEID.eq(gameId))
+                .fetch(REACTION_TIMES.LATENCY_MS)) {
+            stats.addValue(latency);
+        }
+        return new Summary(null, null, stats);
+    }
+
+    private DescriptiveStatistics getStatistics(Key key) {
+        return statistics.computeIfAbsent(key,
+                k -> new SynchronizedDescriptiveStatistics(WINDOW_SIZE));
+    }
+
+    /**
+     * Fills the windows with the most recent reaction times from the database so that
+     * the percentiles survive a restart of the broker.
+     */
+    private void loadRecentReactionTimes() {
+        try {
+            var rows = jooq.select(GAMES.ARCHITECT_INFO, GAMES.SCENARIO, REACTION_TIMES.LATENCY_MS)
+                    .from(REACTION_TIMES)
+                    .join(GAMES).on(GAMES.ID.eq(REACTION_TIMES.GAMEID))
+                    .orderBy(REACTION_TIMES.ID.desc())
+                    .limit(INITIAL_ROWS)
+                    .fetch();
+            // oldest first, so that the windows end with the newest values
+            for (int i = rows.size() - 1; i >= 0; i--) {
+                Record3<String, String, Integer> row = rows.get(i);
+                if (row.value1() != null && row.value2() != null) {
+                    getStatistics(new Key(row.value1(), row.value2())).addValue(row.value3());
+                }
+            }
+        } catch (Exception e) {
+            Logger.warn("Could not load reaction times: {}", e.getMessage());
+        }
+    }
+
+    private static class Key {
+        final String architect;
+        final String scenario;
+
+        Key(String architect, String scenario) {
+            this.architect = architect;
+            this.scenario = scenario;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return Objects.equals(architect, other.architect)
+                    && Objects.equals(scenario, other.scenario);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(architect, scenario);
+        }
+    }
+
+    /**
+     * Reaction time percentiles in milliseconds, for display on the web interface.
+     */
+    public static class Summary {
+        private final String architect;
+        private final String scenario;
+        private final long count;
+        private final long median;
+        private final long p90;
+        private final long p99;
+        private final long max;
+
+        Summary(String architect, String scenario, DescriptiveStatistics stats) {
+            this.architect = architect;
+            this.scenario = scenario;
+            synchronized (stats) {
+                this.count = stats.getN();
+                this.median = round(stats.getPercentile(50));
+                this.p90 = round(stats.getPercentile(90));
+                this.p99 = round(stats.getPercentile(99));
+                this.max = round(stats.getMax());
+            }
+        }
+
+        private static long round(double value) {
+            return Double.isNaN(value) ? 0 : Math.round(value);
+        }
+
+        public String getArchitect() {
+            return architect;
+        }
+
+        public String getScenario() {
+            return scenario;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMedian() {
+            return median;
+        }
+
+        public long getP90() {
+            return p90;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+
+        public long getMax() {
+            return max;
+        }
+    }
+}
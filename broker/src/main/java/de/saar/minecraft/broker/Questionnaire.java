@@ -1,10 +1,14 @@
 package de.saar.minecraft.broker;
 
 import de.saar.minecraft.broker.db.tables.Questionnaires;
+import de.saar.minecraft.broker.jfr.QuestionnaireEvent;
 import de.saar.minecraft.shared.NewGameState;
 import de.saar.minecraft.shared.TextMessage;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import org.jooq.DSLContext;
 
 /**
@@ -14,47 +18,75 @@ import org.jooq.DSLContext;
  * from that point onwards.
  */
 class Questionnaire {
+    private static final long INTRODUCTION_DELAY_SECONDS = 4;
+    private static final long REMINDER_INTERVAL_SECONDS = 30;
 
     public final int gameId;
     public List<Question> questions;
     public final DelegatingStreamObserver stream;
     private int currQuestion = 0;
-    private AnswerThread currThread;
+    private final ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> pendingStep;
+    private ScheduledFuture<?> reminder;
+    private boolean stopped = false;
     private DSLContext jooq;
 
 
     public Questionnaire(int gameId,
                          List<Question> questions,
                          DelegatingStreamObserver stream,
-                         DSLContext jooq) {
+                         DSLContext jooq,
+                         ScheduledExecutorService scheduler) {
         this.jooq = jooq;
         this.questions = questions;
         this.stream = stream;
         this.gameId = gameId;
+        this.scheduler = scheduler;
     }
 
-    public void start() {
-        new Thread(() -> {
-            try {
-                Thread.sleep(4000);
+    /**
+     * Schedules the introduction and the first question on the broker's scheduler.
+     * No thread is blocked while waiting.
+     */
+    public synchronized void start() {
+        pendingStep = scheduler.schedule(() -> {
+            synchronized (this) {
+                if (stopped) {
+                    return;
+                }
+                var event = new QuestionnaireEvent();
+                event.begin();
                 sendText("We would like you to answer a few questions.");
                 sendText("You can answer them by pressing \"t\","
                     + " typing the answer and then pressing return.");
                 sendText("Most questions should be answered with a number between "
                     + " 1 (completely disagree) and 5 (completely agree)");
-                Thread.sleep(4000);
-                sendNextQuestion();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+                pendingStep = scheduler.schedule(this::sendNextQuestion,
+                    INTRODUCTION_DELAY_SECONDS, TimeUnit.SECONDS);
+                commit(event, "introduction");
             }
-        }).start();
+        }, INTRODUCTION_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Cancels all pending introduction and reminder tasks of this questionnaire.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        if (pendingStep != null) {
+            pendingStep.cancel(false);
+            pendingStep = null;
+        }
+        cancelReminder();
     }
 
     /**
      * processes a text message sent by the player.
      * @param request The message object forwarded by the BrokerImpl.
      */
-    public void onNext(TextMessage request) {
+    public synchronized void onNext(TextMessage request) {
+        var event = new QuestionnaireEvent();
+        event.begin();
         var answer = request.getText();
         boolean answerIsValid = false;
         switch (questions.get(currQuestion).type) {
@@ -71,11 +103,12 @@ class Questionnaire {
         if (!answerIsValid) {
             sendText("please answer with a number between "
                 + "1 (completely disagree) and 5 (completely agree)");
+            commit(event, "invalid answer");
             return;
         }
 
         // Reset the timer which reminds the player to continue the questionnaire
-        currThread.interrupt();
+        cancelReminder();
 
         var record = jooq.newRecord(Questionnaires.QUESTIONNAIRES);
         if (answer.length() > 4999) {
@@ -86,6 +119,7 @@ class Questionnaire {
         record.setQuestion(questions.get(currQuestion).toString());
         record.setTimestamp(Broker.now());
         record.store();
+        commit(event, "answer");
 
         currQuestion += 1;
         if (currQuestion == questions.size()) {
@@ -94,33 +128,59 @@ class Questionnaire {
                 .setText("Thank you for your time! you can hang around or disconnect now.")
                 .setNewGameState(NewGameState.QuestionnaireFinished)
                 .build());
+            var finished = new QuestionnaireEvent();
+            finished.begin();
+            commit(finished, "finished");
         } else {
             sendNextQuestion();
         }
     }
 
     /**
-     * A Thread that sends a reminder to the player to continue with the questionnaire.
-     * The timer is reset by interrupting the thread.
+     * Sends the current question and schedules a reminder to the player to continue
+     * with the questionnaire.  The reminder is reset by cancelling it.
      */
-    class AnswerThread extends Thread {
-        public void run() {
-            while (true) {  // TODO: is there a maximum of attempts?
-                sendText(questions.get(currQuestion).question);
-                try {
-                    Thread.sleep(30000);
-                } catch (InterruptedException e) {
-                    break;
-                }
-                sendText("You can answer them by pressing \"t\", "
-                    + "typing the answer and then pressing return.");
-            }
+    private synchronized void sendNextQuestion() {
+        pendingStep = null;
+        if (stopped) {
+            return;
         }
+        var event = new QuestionnaireEvent();
+        event.begin();
+        cancelReminder();
+        sendText(questions.get(currQuestion).question);
+        reminder = scheduler.scheduleAtFixedRate(this::remind,
+            REMINDER_INTERVAL_SECONDS, REMINDER_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        commit(event, "question");
+    }
+
+    private synchronized void remind() {
+        var event = new QuestionnaireEvent();
+        event.begin();
+        // TODO: is there a maximum of attempts?
+        sendText("You can answer them by pressing \"t\", "
+            + "typing the answer and then pressing return.");
+        sendText(questions.get(currQuestion).question);
+        commit(event, "reminder");
     }
 
-    private void sendNextQuestion() {
-        currThread = new AnswerThread();
-        currThread.start();
+    /**
+     * Commits the flight recorder event of a questionnaire step if it is enabled.
+     */
+    private void commit(QuestionnaireEvent event, String step) {
+        if (event.shouldCommit()) {
+            event.gameId = gameId;
+            event.step = step;
+            event.question = currQuestion;
+            event.commit();
+        }
+    }
+
+    private synchronized void cancelReminder() {
+        if (reminder != null) {
+            reminder.cancel(false);
+            reminder = null;
+        }
     }
 
     private synchronized void sendText(String text) {
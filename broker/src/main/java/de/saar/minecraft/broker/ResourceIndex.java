@@ -0,0 +1,80 @@
+package de.saar.minecraft.broker;
+
+import io.github.classgraph.ClassGraph;
+import io.github.classgraph.ScanResult;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.tinylog.Logger;
+
+/**
+ * Finds resources such as scenarios and questionnaires on the classpath.
+ * The resources are looked up in an index generated at build time by the
+ * generateResourceIndex task of the broker build.  Only if that index is missing,
+ * e.g. when running from an IDE, the classpath is scanned instead.
+ */
+class ResourceIndex {
+    static final String INDEX_RESOURCE = "/de/saar/minecraft/broker/resource-index.txt";
+
+    private static List<String> index;
+    private static boolean indexRead = false;
+
+    /**
+     * Returns the names (without directory and extension) of all resources
+     * in the given directory that have the given extension.
+     *
+     * @param directory the directory, e.g. "de/saar/minecraft/worlds"
+     * @param extension the extension including the dot, e.g. ".csv"
+     * @return the resource names
+     */
+    static List<String> list(String directory, String extension) {
+        List<String> paths = getIndex();
+        if (paths == null) {
+            Logger.info("No resource index found, scanning classpath for {}", directory);
+            return scan(directory, extension);
+        }
+        return toNames(paths.stream()
+                .filter(x -> x.startsWith(directory + "/")), extension);
+    }
+
+    private static synchronized List<String> getIndex() {
+        if (!indexRead) {
+            indexRead = true;
+            InputStream in = ResourceIndex.class.getResourceAsStream(INDEX_RESOURCE);
+            if (in != null) {
+                try (var reader = new BufferedReader(
+                        new InputStreamReader(in, StandardCharsets.UTF_8))) {
+                    index = reader.lines()
+                            .map(String::strip)
+                            .filter(x -> !x.isEmpty())
+                            .collect(Collectors.toList());
+                } catch (IOException e) {
+                    Logger.warn("Could not read resource index: {}", e.getMessage());
+                }
+            }
+        }
+        return index;
+    }
+
+    private static List<String> scan(String directory, String extension) {
+        try (ScanResult scanResult = new ClassGraph()
+                .whitelistPaths(directory)
+                .scan()) {
+            return toNames(scanResult.getAllResources()
+                    .getPaths()
+                    .stream(), extension);
+        }
+    }
+
+    private static List<String> toNames(Stream<String> paths, String extension) {
+        return paths
+                .filter(x -> x.endsWith(extension))
+                .map(x -> x.substring(x.lastIndexOf("/") + 1, x.length() - extension.length()))
+                .collect(Collectors.toList());
+    }
+}
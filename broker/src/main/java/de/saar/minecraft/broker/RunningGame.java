@@ -0,0 +1,178 @@
+package de.saar.minecraft.broker;
+
+import de.saar.minecraft.shared.StatusMessage;
+import de.saar.minecraft.tracing.Span;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * All state the broker holds for one running game: the architect serving it, the
+ * streams to the client and the questionnaire, if one is running.  Instances are
+ * owned by the {@link GameRegistry}, which releases them when the game ends.
+ */
+class RunningGame {
+    private final int gameId;
+    private final String scenario;
+    private final Broker.ArchitectConnection architect;
+    private volatile Questionnaire questionnaire;
+    private volatile DelegatingStreamObserver messageStream;
+    private volatile DelegatingControlStreamObserver controlStream;
+    private volatile long lastActivity;
+    private final GameSummary summary;
+    /** The latest event forwarded to the architect since its last reaction. */
+    private final AtomicReference<LatencyTracker.PendingEvent> pendingEvent = new AtomicReference<>();
+    private final AtomicInteger statusInFlight = new AtomicInteger();
+    private final AtomicReference<StatusMessage> heldBackStatus = new AtomicReference<>();
+    private volatile Span trace;
+
+    RunningGame(int gameId, String scenario, Broker.ArchitectConnection architect) {
+        this.gameId = gameId;
+        this.scenario = scenario;
+        this.architect = architect;
+        this.summary = new GameSummary(gameId);
+        touch();
+    }
+
+    int getGameId() {
+        return gameId;
+    }
+
+    String getScenario() {
+        return scenario;
+    }
+
+    Broker.ArchitectConnection getArchitect() {
+        return architect;
+    }
+
+    GameSummary getSummary() {
+        return summary;
+    }
+
+    /**
+     * Returns the root span of the trace of this game, or null while the game is
+     * starting.  It is not part of any trace if the game is not sampled for tracing.
+     */
+    Span getTrace() {
+        return trace;
+    }
+
+    void setTrace(Span trace) {
+        this.trace = trace;
+    }
+
+    Questionnaire getQuestionnaire() {
+        return questionnaire;
+    }
+
+    /**
+     * Sets the questionnaire of this game, stopping the previous one if there was one.
+     */
+    synchronized void setQuestionnaire(Questionnaire questionnaire) {
+        if (this.questionnaire != null) {
+            this.questionnaire.stop();
+        }
+        this.questionnaire = questionnaire;
+    }
+
+    DelegatingStreamObserver getMessageStream() {
+        return messageStream;
+    }
+
+    void setMessageStream(DelegatingStreamObserver messageStream) {
+        this.messageStream = messageStream;
+    }
+
+    DelegatingControlStreamObserver getControlStream() {
+        return controlStream;
+    }
+
+    void setControlStream(DelegatingControlStreamObserver controlStream) {
+        this.controlStream = controlStream;
+    }
+
+    /**
+     * Records that something happened in this game.
+     */
+    void touch() {
+        lastActivity = System.nanoTime();
+    }
+
+    /**
+     * Returns the {@link System#nanoTime()} of the last activity in this game.
+     */
+    long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * Reserves a slot for forwarding a status message to the architect.
+     *
+     * @return false if max status messages are already waiting for an answer
+     */
+    boolean tryForwardStatus(int max) {
+        while (true) {
+            int current = statusInFlight.get();
+            if (current >= max) {
+                return false;
+            }
+            if (statusInFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases the slot of a status message the architect has answered.
+     */
+    void statusAnswered() {
+        statusInFlight.decrementAndGet();
+    }
+
+    /**
+     * Holds back a status message until the architect has answered an earlier one.
+     *
+     * @return the status message that was held back before and is now replaced, or null
+     */
+    StatusMessage holdBackStatus(StatusMessage status) {
+        return heldBackStatus.getAndSet(status);
+    }
+
+    /**
+     * Removes and returns the status message that is held back, if there is one.
+     */
+    StatusMessage takeHeldBackStatus() {
+        return heldBackStatus.getAndSet(null);
+    }
+
+    /**
+     * Records an event that waits for a reaction of the architect, replacing the one
+     * that waited before: the next reaction is credited to the latest event only.
+     */
+    void setPendingEvent(LatencyTracker.PendingEvent event) {
+        pendingEvent.set(event);
+    }
+
+    /**
+     * Removes and returns the event that waits for a reaction of the architect, or
+     * null if there is none.
+     */
+    LatencyTracker.PendingEvent takePendingEvent() {
+        return pendingEvent.getAndSet(null);
+    }
+
+    /**
+     * Stops pending questionnaire tasks and drops the references to the streams
+     * so that they can be garbage collected even if this object is still referenced.
+     */
+    synchronized void release() {
+        if (questionnaire != null) {
+            questionnaire.stop();
+            questionnaire = null;
+        }
+        messageStream = null;
+        controlStream = null;
+        takePendingEvent();
+        takeHeldBackStatus();
+    }
+}
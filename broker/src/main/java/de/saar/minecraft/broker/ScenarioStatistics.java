@@ -0,0 +1,248 @@
+package de.saar.minecraft.broker;
+
+import static de.saar.minecraft.broker.db.Tables.GAMES;
+import static de.saar.minecraft.broker.db.Tables.GAME_SUMMARY;
+import static de.saar.minecraft.broker.db.Tables.SCENARIO_STATISTICS;
+
+import de.saar.minecraft.broker.db.GameStatus;
+import de.saar.minecraft.broker.db.tables.records.ScenarioStatisticsRecord;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import org.jooq.DSLContext;
+import org.tinylog.Logger;
+
+/**
+ * Aggregate statistics of the finished games per scenario and architect: number of
+ * games, fraction of successful games, completion times and mistakes.  The aggregates
+ * are updated when a game ends and written to the SCENARIO_STATISTICS table, so that
+ * displaying them does not require looking at the individual games.  Like the game
+ * summaries they derive from, they are only written if the game logs are written to
+ * the database, and are otherwise kept in memory only.  Completion times
+ * are kept in a histogram with {@link #BUCKET_SECONDS} second buckets, from which the
+ * quantiles are estimated.
+ */
+public class ScenarioStatistics {
+    static final int BUCKET_SECONDS = 10;
+    /** Completion times from NUM_BUCKETS * BUCKET_SECONDS on go into the last bucket. */
+    static final int NUM_BUCKETS = 361;
+
+    private final DSLContext jooq;
+    private final boolean store;
+    private final Map<List<String>, Aggregate> aggregates = new ConcurrentHashMap<>();
+
+    ScenarioStatistics(DSLContext jooq, boolean store) {
+        this.jooq = jooq;
+        this.store = store;
+        try {
+            load();
+        } catch (Exception e) {
+            Logger.warn("Could not load scenario statistics: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Adds a finished game to the statistics of its scenario and architect.
+     */
+    void gameFinished(String scenario, String architect, GameSummary summary) {
+        if (scenario == null || architect == null) {
+            return;
+        }
+        Aggregate aggregate = aggregates.computeIfAbsent(List.of(scenario, architect),
+                k -> new Aggregate(scenario, architect));
+        synchronized (aggregate) {
+            aggregate.add(summary.getFirstTimestamp(), summary.getSuccessTime(),
+                    summary.getNumMistakes());
+            if (!store) {
+                return;
+            }
+            try {
+                aggregate.store(jooq);
+            } catch (Exception e) {
+                Logger.warn("Could not store statistics of {} in {}: {}",
+                        architect, scenario, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns the statistics of all scenarios and architects, ordered by scenario
+     * and architect.
+     */
+    public List<Aggregate> getAggregates() {
+        List<Aggregate> ret = new ArrayList<>(aggregates.values());
+        ret.sort((a, b) -> a.scenario.equals(b.scenario)
+                ? a.architect.compareTo(b.architect)
+                : a.scenario.compareTo(b.scenario));
+        return ret;
+    }
+
+    /**
+     * Reads the aggregates from the database.  If there are none yet, they are
+     * computed once from the summaries of all finished games.
+     */
+    private void load() {
+        var rows = jooq.selectFrom(SCENARIO_STATISTICS).fetch();
+        if (rows.isNotEmpty()) {
+            for (ScenarioStatisticsRecord row : rows) {
+                var aggregate = new Aggregate(row);
+                aggregates.put(List.of(aggregate.scenario, aggregate.architect), aggregate);
+            }
+            return;
+        }
+
+        var games = jooq.select(GAMES.SCENARIO, GAMES.ARCHITECT_INFO, GAME_SUMMARY.FIRST_TIMESTAMP,
+                        GAME_SUMMARY.SUCCESS_TIME, GAME_SUMMARY.NUM_MISTAKES)
+                .from(GAMES)
+                .join(GAME_SUMMARY).on(GAME_SUMMARY.GAMEID.eq(GAMES.ID))
+                .where(GAMES.STATUS.eq(GameStatus.Finished))
+                .and(GAMES.SCENARIO.isNotNull())
+                .and(GAMES.ARCHITECT_INFO.isNotNull())
+                .fetch();
+        for (var game : games) {
+            aggregates.computeIfAbsent(List.of(game.value1(), game.value2()),
+                    k -> new Aggregate(game.value1(), game.value2()))
+                    .add(game.value3(), game.value4(), game.value5());
+        }
+        if (store) {
+            for (Aggregate aggregate : aggregates.values()) {
+                aggregate.store(jooq);
+            }
+        }
+        Logger.info("Computed scenario statistics from {} finished games.", games.size());
+    }
+
+    /**
+     * The statistics of one architect in one scenario.  Getters are for display on
+     * the web interface.
+     */
+    public static class Aggregate {
+        private final String scenario;
+        private final String architect;
+        private int numGames;
+        private int numSuccessful;
+        private long sumCompletionSeconds;
+        private int numMistakes;
+        private int numGamesWithMistakes;
+        private final int[] completionHistogram;
+
+        Aggregate(String scenario, String architect) {
+            this.scenario = scenario;
+            this.architect = architect;
+            this.completionHistogram = new int[NUM_BUCKETS];
+        }
+
+        Aggregate(ScenarioStatisticsRecord row) {
+            this(row.getScenario(), row.getArchitectInfo());
+            numGames = row.getNumGames();
+            numSuccessful = row.getNumSuccessful();
+            sumCompletionSeconds = row.getSumCompletionSeconds();
+            numMistakes = row.getNumMistakes();
+            numGamesWithMistakes = row.getNumGamesWithMistakes();
+            if (row.getCompletionHistogram() != null && !row.getCompletionHistogram().isEmpty()) {
+                String[] counts = row.getCompletionHistogram().split(",");
+                for (int i = 0; i < counts.length && i < NUM_BUCKETS; i++) {
+                    completionHistogram[i] = Integer.parseInt(counts[i]);
+                }
+            }
+        }
+
+        synchronized void add(LocalDateTime startTime, LocalDateTime successTime, int mistakes) {
+            numGames++;
+            numMistakes += mistakes;
+            if (mistakes > 0) {
+                numGamesWithMistakes++;
+            }
+            if (startTime != null && successTime != null) {
+                long seconds = Math.max(0, startTime.until(successTime, ChronoUnit.SECONDS));
+                numSuccessful++;
+                sumCompletionSeconds += seconds;
+                completionHistogram[(int) Math.min(NUM_BUCKETS - 1, seconds / BUCKET_SECONDS)]++;
+            }
+        }
+
+        synchronized void store(DSLContext jooq) {
+            String histogram = Arrays.stream(completionHistogram)
+                    .mapToObj(Integer::toString)
+                    .collect(Collectors.joining(","));
+            jooq.insertInto(SCENARIO_STATISTICS)
+                    .set(SCENARIO_STATISTICS.SCENARIO, scenario)
+                    .set(SCENARIO_STATISTICS.ARCHITECT_INFO, architect)
+                    .set(SCENARIO_STATISTICS.NUM_GAMES, numGames)
+                    .set(SCENARIO_STATISTICS.NUM_SUCCESSFUL, numSuccessful)
+                    .set(SCENARIO_STATISTICS.SUM_COMPLETION_SECONDS, sumCompletionSeconds)
+                    .set(SCENARIO_STATISTICS.NUM_MISTAKES, numMistakes)
+                    .set(SCENARIO_STATISTICS.NUM_GAMES_WITH_MISTAKES, numGamesWithMistakes)
+                    .set(SCENARIO_STATISTICS.COMPLETION_HISTOGRAM, histogram)
+                    .onDuplicateKeyUpdate()
+                    .set(SCENARIO_STATISTICS.NUM_GAMES, numGames)
+                    .set(SCENARIO_STATISTICS.NUM_SUCCESSFUL, numSuccessful)
+                    .set(SCENARIO_STATISTICS.SUM_COMPLETION_SECONDS, sumCompletionSeconds)
+                    .set(SCENARIO_STATISTICS.NUM_MISTAKES, numMistakes)
+                    .set(SCENARIO_STATISTICS.NUM_GAMES_WITH_MISTAKES, numGamesWithMistakes)
+                    .set(SCENARIO_STATISTICS.COMPLETION_HISTOGRAM, histogram)
+                    .execute();
+        }
+
+        /**
+         * Estimates a quantile of the completion times of the successful games from the
+         * histogram, as the upper end of the bucket it falls into.
+         */
+        private synchronized long completionQuantile(double quantile) {
+            if (numSuccessful == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * numSuccessful);
+            long seen = 0;
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                seen += completionHistogram[i];
+                if (seen >= rank) {
+                    return (long) (i + 1) * BUCKET_SECONDS;
+                }
+            }
+            return (long) NUM_BUCKETS * BUCKET_SECONDS;
+        }
+
+        public String getScenario() {
+            return scenario;
+        }
+
+        public String getArchitect() {
+            return architect;
+        }
+
+        public synchronized int getNumGames() {
+            return numGames;
+        }
+
+        public synchronized String getFractionSuccessful() {
+            return numGames == 0 ? "-" : String.format("%.2f", (double) numSuccessful / numGames);
+        }
+
+        public synchronized long getAverageCompletionTime() {
+            return numSuccessful == 0 ? 0 : sumCompletionSeconds / numSuccessful;
+        }
+
+        public long getMedianCompletionTime() {
+            return completionQuantile(0.5);
+        }
+
+        public long getCompletionTime90() {
+            return completionQuantile(0.9);
+        }
+
+        public synchronized String getAverageMistakes() {
+            return numGames == 0 ? "-" : String.format("%.2f", (double) numMistakes / numGames);
+        }
+
+        public synchronized String getFractionWithMistakes() {
+            return numGames == 0 ? "-"
+                    : String.format("%.2f", (double) numGamesWithMistakes / numGames);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package de.saar.minecraft.broker;
+
+import de.saar.minecraft.broker.db.GameLogsDirection;
+import de.saar.minecraft.shared.BlockDestroyedMessage;
+import de.saar.minecraft.shared.BlockPlacedMessage;
+import de.saar.minecraft.shared.GameId;
+import de.saar.minecraft.shared.None;
+import de.saar.minecraft.shared.ProtectBlockMessage;
+import de.saar.minecraft.shared.StatusMessage;
+import de.saar.minecraft.shared.TextMessage;
+import de.saar.minecraft.shared.WorldSelectMessage;
+import io.grpc.stub.StreamObserver;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.tinylog.Logger;
+
+/**
+ * Mirrors the games of the broker to a shadow architect server, e.g. a new build of
+ * an architect that should be tried with the traffic of real players before it
+ * replaces the current one (see {@link BrokerConfiguration#getShadowArchitect()}).
+ * The shadow architect gets the same events as the architect of the game, but its
+ * messages and block protections never reach the player: they are logged with the
+ * direction FromShadowArchitect, and its reaction times are shown next to those of
+ * the real architects (see {@link LatencyTracker#shadowReactionSent}).
+ *
+ * <p>Mirroring is asynchronous and best-effort: the broker never waits for the shadow
+ * architect, status messages are dropped while maxStatusInFlight of them are not
+ * answered, and a game is no longer mirrored once a call for it failed.  Games that
+ * do not fit on the shadow architect server (see maxGames) are not mirrored.</p>
+ */
+class ShadowArchitect {
+    private final Broker broker;
+    private final Broker.ArchitectConnection architect;
+    private final LatencyTracker latencies;
+    private final int maxStatusInFlight;
+    /** The mirrored games; their state is kept in a RunningGame of their own. */
+    private final Map<Integer, RunningGame> games = new ConcurrentHashMap<>();
+    /** Games the shadow architect has not confirmed yet; their events are not mirrored. */
+    private final Map<Integer, RunningGame> starting = new ConcurrentHashMap<>();
+
+    ShadowArchitect(Broker broker, Broker.ArchitectConnection architect,
+                    LatencyTracker latencies, int maxStatusInFlight) {
+        this.broker = broker;
+        this.architect = architect;
+        this.latencies = latencies;
+        this.maxStatusInFlight = maxStatusInFlight;
+    }
+
+    /**
+     * Starts a game that was started on its real architect on the shadow architect
+     * as well.  Its events are mirrored once the shadow architect has started it.
+     */
+    void startGame(WorldSelectMessage request) {
+        int id = request.getGameId();
+        if (!architect.tryReserveGame()) {
+            return;
+        }
+        var game = new RunningGame(id, request.getName(), architect);
+        starting.put(id, game);
+        architect.stub(id).startGame(request, new StreamObserver<>() {
+            @Override
+            public void onNext(None value) {
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                if (starting.remove(id, game)) {
+                    Logger.info("Shadow architect could not start game {}: {}", id, t.getMessage());
+                    broker.log(id, t, GameLogsDirection.FromShadowArchitect);
+                }
+                architect.gameEnded();
+            }
+
+            @Override
+            public void onCompleted() {
+                boolean running;
+                synchronized (ShadowArchitect.this) {
+                    running = starting.remove(id, game);
+                    if (running) {
+                        games.put(id, game);
+                    }
+                }
+                if (running) {
+                    openStreams(game);
+                } else {
+                    // the game ended while the shadow architect was starting it
+                    end(game);
+                }
+            }
+        });
+    }
+
+    private void openStreams(RunningGame game) {
+        int id = game.getGameId();
+        var request = GameId.newBuilder().setId(id).build();
+        architect.stub(id).getMessageChannel(request, new StreamObserver<>() {
+            @Override
+            public void onNext(TextMessage value) {
+                if (value.getForLogging()) {
+                    broker.log(id, value.getText(), value.getLogType(),
+                            GameLogsDirection.FromShadowArchitect);
+                } else {
+                    broker.log(id, value, GameLogsDirection.FromShadowArchitect);
+                    latencies.shadowReactionSent(game);
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                fail(game, t);
+            }
+
+            @Override
+            public void onCompleted() {
+            }
+        });
+        architect.stub(id).getControlChannel(request, new StreamObserver<>() {
+            @Override
+            public void onNext(ProtectBlockMessage value) {
+                broker.log(id, value, GameLogsDirection.FromShadowArchitect);
+                latencies.shadowReactionSent(game);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                fail(game, t);
+            }
+
+            @Override
+            public void onCompleted() {
+            }
+        });
+    }
+
+    void playerReady(GameId request) {
+        RunningGame game = games.get(request.getId());
+        if (game != null) {
+            architect.stub(game.getGameId()).playerReady(request, answer(game, false));
+        }
+    }
+
+    /**
+     * Mirrors a status message, unless maxStatusInFlight status messages of the game
+     * are waiting for an answer of the shadow architect.
+     */
+    void statusInformation(StatusMessage request) {
+        RunningGame game = games.get(request.getGameId());
+        if (game == null || !game.tryForwardStatus(maxStatusInFlight)) {
+            return;
+        }
+        latencies.eventForwarded(game, request.getClass().getSimpleName());
+        architect.stub(game.getGameId()).handleStatusInformation(request, answer(game, true));
+    }
+
+    void blockPlaced(BlockPlacedMessage request) {
+        RunningGame game = games.get(request.getGameId());
+        if (game != null) {
+            latencies.eventForwarded(game, request.getClass().getSimpleName());
+            architect.stub(game.getGameId()).handleBlockPlaced(request, answer(game, false));
+        }
+    }
+
+    void blockDestroyed(BlockDestroyedMessage request) {
+        RunningGame game = games.get(request.getGameId());
+        if (game != null) {
+            latencies.eventForwarded(game, request.getClass().getSimpleName());
+            architect.stub(game.getGameId()).handleBlockDestroyed(request, answer(game, false));
+        }
+    }
+
+    /**
+     * Ends the game on the shadow architect, if it was mirrored.
+     */
+    void endGame(int gameId) {
+        RunningGame game;
+        synchronized (this) {
+            game = games.remove(gameId);
+            if (game == null) {
+                // if it is still starting, it is ended when the start is confirmed
+                starting.remove(gameId);
+                return;
+            }
+        }
+        end(game);
+    }
+
+    /**
+     * Ends all mirrored games, e.g. when the broker stops.
+     */
+    void stop() {
+        for (Integer gameId : starting.keySet()) {
+            endGame(gameId);
+        }
+        for (Integer gameId : games.keySet()) {
+            endGame(gameId);
+        }
+    }
+
+    /**
+     * Logs the failure of a call to the shadow architect and stops mirroring the game.
+     */
+    private void fail(RunningGame game, Throwable t) {
+        if (games.remove(game.getGameId(), game)) {
+            Logger.info("Stopped mirroring game {} to the shadow architect: {}",
+                    game.getGameId(), t.getMessage());
+            broker.log(game.getGameId(), t, GameLogsDirection.FromShadowArchitect);
+            end(game);
+        }
+    }
+
+    private void end(RunningGame game) {
+        var request = GameId.newBuilder().setId(game.getGameId()).build();
+        architect.stub(game.getGameId()).endGame(request, new StreamObserver<>() {
+            @Override
+            public void onNext(None value) {
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                architect.gameEnded();
+            }
+
+            @Override
+            public void onCompleted() {
+                architect.gameEnded();
+            }
+        });
+        game.release();
+    }
+
+    /**
+     * Returns an observer for the answer of the shadow architect to an event, which
+     * stops mirroring the game if the call failed.
+     */
+    private StreamObserver<None> answer(RunningGame game, boolean status) {
+        return new StreamObserver<>() {
+            @Override
+            public void onNext(None value) {
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                if (status) {
+                    game.statusAnswered();
+                }
+                fail(game, t);
+            }
+
+            @Override
+            public void onCompleted() {
+                if (status) {
+                    game.statusAnswered();
+                }
+            }
+        };
+    }
+}
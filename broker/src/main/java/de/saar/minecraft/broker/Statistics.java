@@ -28,7 +28,7 @@ public class Statistics {
 
     public Statistics(Broker broker) {
         this.broker = broker;
-        jooq = broker.getJooq();
+        jooq = broker.getReadJooq();
     }
 
 
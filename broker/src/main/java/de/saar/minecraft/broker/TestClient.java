@@ -7,6 +7,11 @@ import de.saar.minecraft.shared.None;
 import de.saar.minecraft.shared.StatusMessage;
 import de.saar.minecraft.shared.TextMessage;
 import de.saar.minecraft.shared.WorldSelectMessage;
+import de.saar.minecraft.tracing.Span;
+import de.saar.minecraft.tracing.Tracer;
+import de.saar.minecraft.tracing.TracingInterceptor;
+import io.grpc.Channel;
+import io.grpc.ClientInterceptors;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
 import io.grpc.StatusRuntimeException;
@@ -17,6 +22,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.tinylog.Logger;
 
 /**
@@ -25,12 +32,19 @@ import org.tinylog.Logger;
  * console. Type "status id" to send a status message for game id "id", and receive a text message
  * back asynchronously. Type any other string to create a new game with the given game data. Type
  * Ctrl-D to quit the client.
+ *
+ * <p>With {@link #enableTracing}, a sampled fraction of the games is traced: the calls
+ * of a traced game carry its trace context, so that the spans of the broker and the
+ * architect belong to one trace per game.</p>
  */
 public class TestClient {
     private final ManagedChannel channel;
     private final BrokerGrpc.BrokerBlockingStub blockingStub;
     private final BrokerGrpc.BrokerStub nonblockingStub;
     private final List<Integer> runningGames;
+    private final Map<Integer, Span> traces = new ConcurrentHashMap<>();
+    private Tracer tracer = new Tracer("client", null);
+    private double traceSampleRate;
 
     /**
      * Construct client connecting to HelloWorld server at {@code host:port}.
@@ -50,11 +64,38 @@ public class TestClient {
      */
     TestClient(ManagedChannel channel) {
         this.channel = channel;
-        blockingStub = BrokerGrpc.newBlockingStub(channel);
-        nonblockingStub = BrokerGrpc.newStub(channel);
+        // only passes the trace context on; the client records just the root span of a game
+        Channel traced = ClientInterceptors.intercept(channel,
+                new TracingInterceptor(new Tracer("client", null)));
+        blockingStub = BrokerGrpc.newBlockingStub(traced);
+        nonblockingStub = BrokerGrpc.newStub(traced);
         this.runningGames = new ArrayList<>();
     }
 
+    /**
+     * Traces the given fraction of the games started from now on.  Each traced game
+     * gets a root span that ends when the game is finished.
+     * @param tracer the tracer for the spans of the client
+     * @param sampleRate fraction of games to trace, between 0 and 1
+     */
+    public void enableTracing(Tracer tracer, double sampleRate) {
+        this.tracer = tracer;
+        this.traceSampleRate = sampleRate;
+    }
+
+    /**
+     * Sends the calls of the given work with the trace context of the game, if it
+     * is traced.
+     */
+    private void traced(int gameId, Runnable work) {
+        Span trace = traces.get(gameId);
+        if (trace == null) {
+            work.run();
+        } else {
+            trace.run(work);
+        }
+    }
+
     /**
      * Terminates all running games (ignoring errors) and shuts down the grpc channel to the broker.
      */
@@ -105,13 +146,18 @@ public class TestClient {
         }
         int gameId = worldSelectMessage.getGameId();
         runningGames.add(gameId);
+        Span trace = tracer.startTrace("client game", traceSampleRate);
+        if (trace.isRecording()) {
+            traces.put(gameId, trace.tag("game.id", gameId));
+        }
         var scenario = worldSelectMessage.getName();
         System.out.println("Game started for client " + gameId + " with scenario " + scenario);
         if (streamObserver == null) {
             streamObserver = new TextStreamObserver(gameId);
         }
         var gameIdMessage = GameId.newBuilder().setId(gameId).build();
-        nonblockingStub.getMessageChannel(gameIdMessage, streamObserver);
+        var observer = streamObserver;
+        traced(gameId, () -> nonblockingStub.getMessageChannel(gameIdMessage, observer));
         return gameId;
     }
 
@@ -122,8 +168,12 @@ public class TestClient {
      */
     public void finishGame(int gameId) {
         GameId gameIdMessage = GameId.newBuilder().setId(gameId).build();
-        blockingStub.endGame(gameIdMessage);
+        traced(gameId, () -> blockingStub.endGame(gameIdMessage));
         runningGames.remove(runningGames.indexOf(gameId));
+        Span trace = traces.remove(gameId);
+        if (trace != null) {
+            trace.end();
+        }
     }
 
     /**
@@ -151,7 +201,7 @@ public class TestClient {
                 .setYDirection(ydir)
                 .setZDirection(zdir)
                 .build();
-        nonblockingStub.handleStatusInformation(message, obs);
+        traced(gameId, () -> nonblockingStub.handleStatusInformation(message, obs));
     }
 
     /**
@@ -198,7 +248,7 @@ public class TestClient {
                 .build();
 
         Logger.info("message {}", message);
-        nonblockingStub.handleBlockPlaced(message, new NoneObserver());
+        traced(gameId, () -> nonblockingStub.handleBlockPlaced(message, new NoneObserver()));
     }
 
     /**
@@ -207,10 +257,11 @@ public class TestClient {
      * @param message message to be send
      */
     public void sendTextMessage(int gameId, String message) {
-        nonblockingStub.handleTextMessage(TextMessage.newBuilder()
+        var textMessage = TextMessage.newBuilder()
                 .setGameId(gameId)
                 .setText(message)
-                .build(), new NoneObserver());
+                .build();
+        traced(gameId, () -> nonblockingStub.handleTextMessage(textMessage, new NoneObserver()));
     }
 
     /**
@@ -221,12 +272,13 @@ public class TestClient {
      * @param z block pos
      */
     public void sendBlockDestroyedMessage(int gameId, int x, int y, int z) {
-        nonblockingStub.handleBlockDestroyed(BlockDestroyedMessage.newBuilder()
+        var message = BlockDestroyedMessage.newBuilder()
                 .setGameId(gameId)
                 .setX(x)
                 .setY(y)
                 .setZ(z)
-                .build(), new NoneObserver());
+                .build();
+        traced(gameId, () -> nonblockingStub.handleBlockDestroyed(message, new NoneObserver()));
     }
 
     /**
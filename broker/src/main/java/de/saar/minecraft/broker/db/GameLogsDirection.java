@@ -12,5 +12,7 @@ public enum GameLogsDirection {
     LogFromArchitect,
     PassToClient,
     PassToArchitect,
-    None
+    None,
+    /** messages of the shadow architect, which are not passed to the client. */
+    FromShadowArchitect
 }
@@ -0,0 +1,49 @@
+package de.saar.minecraft.broker.export;
+
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+/**
+ * Rejects calls that do not carry the given credentials in an HTTP Basic
+ * authorization header, i.e. "authorization: Basic base64(user:password)".  Clients
+ * can attach the header with
+ * {@code MetadataUtils.newAttachHeadersInterceptor}.
+ */
+public class BasicAuthInterceptor implements ServerInterceptor {
+    private static final Metadata.Key<String> AUTHORIZATION =
+            Metadata.Key.of("authorization", Metadata.ASCII_STRING_MARSHALLER);
+
+    private final byte[] expected;
+
+    /**
+     * Creates an interceptor that accepts the given credentials.
+     * @param user the user name
+     * @param password the password
+     */
+    public BasicAuthInterceptor(String user, String password) {
+        String credentials = user + ":" + password;
+        expected = ("Basic " + Base64.getEncoder().encodeToString(
+                credentials.getBytes(StandardCharsets.UTF_8))).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+            ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        String authorization = headers.get(AUTHORIZATION);
+        // compare in constant time so that the password cannot be guessed byte by byte
+        if (authorization == null || !MessageDigest.isEqual(expected,
+                authorization.getBytes(StandardCharsets.UTF_8))) {
+            call.close(Status.UNAUTHENTICATED.withDescription("wrong or missing credentials"),
+                    new Metadata());
+            return new ServerCall.Listener<>() {
+            };
+        }
+        return next.startCall(call, headers);
+    }
+}
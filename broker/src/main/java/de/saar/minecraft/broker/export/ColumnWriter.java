@@ -0,0 +1,186 @@
+package de.saar.minecraft.broker.export;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the values of one column of a table to a gzip-compressed file of big-endian
+ * values as written by {@link DataOutputStream}.  Strings are written as their length
+ * in UTF-8 bytes followed by the bytes, with length -1 for null.  Dictionary columns
+ * contain int codes (-1 for null); the strings for the codes are written to a second
+ * file, name.dict.gz, as a count followed by the strings in the order of their codes.
+ *
+ * <p>Null values of INT, LONG, DOUBLE and BOOL columns are written as 0 (false), and
+ * marked in a null bitmap in name.nulls.gz: the number of values as a long, followed
+ * by one bit per value, set for null, with the first value in the lowest bit of the
+ * first byte.  The bitmap is only written if the column contains a null.</p>
+ */
+class ColumnWriter implements Closeable {
+    enum Type { INT, LONG, DOUBLE, BOOL, STRING, DICT }
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path dir;
+    private final String name;
+    private final Type type;
+    private final DataOutputStream out;
+    private final Map<String, Integer> dictionary;
+    private long numValues;
+    private BitSet nulls;
+
+    ColumnWriter(Path dir, String name, Type type) throws IOException {
+        this.dir = dir;
+        this.name = name;
+        this.type = type;
+        this.out = open(dir.resolve(name + ".gz"));
+        this.dictionary = type == Type.DICT ? new LinkedHashMap<>() : null;
+    }
+
+    private static DataOutputStream open(Path file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(Files.newOutputStream(file), BUFFER_SIZE), BUFFER_SIZE));
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns true if a null was written to this INT, LONG, DOUBLE or BOOL column.
+     */
+    boolean hasNulls() {
+        return nulls != null;
+    }
+
+    void writeInt(int value) throws IOException {
+        out.writeInt(value);
+        numValues++;
+    }
+
+    void writeLong(long value) throws IOException {
+        out.writeLong(value);
+        numValues++;
+    }
+
+    void writeDouble(double value) throws IOException {
+        out.writeDouble(value);
+        numValues++;
+    }
+
+    void writeBool(boolean value) throws IOException {
+        out.writeByte(value ? 1 : 0);
+        numValues++;
+    }
+
+    /**
+     * Writes a null to an INT, LONG, DOUBLE or BOOL column, as 0 (false) that is
+     * marked in the null bitmap.
+     */
+    void writeNull() throws IOException {
+        if (nulls == null) {
+            nulls = new BitSet();
+        }
+        nulls.set(Math.toIntExact(numValues));
+        switch (type) {
+            case INT:
+                writeInt(0);
+                break;
+            case LONG:
+                writeLong(0);
+                break;
+            case DOUBLE:
+                writeDouble(0);
+                break;
+            case BOOL:
+                writeBool(false);
+                break;
+            default:
+                throw new IllegalStateException("column " + name + " of type " + type
+                        + " has no null bitmap");
+        }
+    }
+
+    /**
+     * Writes a string to a STRING or DICT column.
+     */
+    void writeString(String value) throws IOException {
+        if (type == Type.DICT) {
+            out.writeInt(value == null ? -1
+                    : dictionary.computeIfAbsent(value, v -> dictionary.size()));
+        } else {
+            writeUtf8(out, value);
+        }
+        numValues++;
+    }
+
+    /**
+     * Writes a value of any type, converting it to the type of the column.
+     */
+    void write(Object value) throws IOException {
+        if (value == null && type != Type.STRING && type != Type.DICT) {
+            writeNull();
+            return;
+        }
+        switch (type) {
+            case INT:
+                writeInt(((Number) value).intValue());
+                break;
+            case LONG:
+                writeLong(((Number) value).longValue());
+                break;
+            case DOUBLE:
+                writeDouble(((Number) value).doubleValue());
+                break;
+            case BOOL:
+                writeBool(Boolean.TRUE.equals(value));
+                break;
+            default:
+                writeString(value == null ? null : value.toString());
+                break;
+        }
+    }
+
+    private static void writeUtf8(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+        if (dictionary != null) {
+            try (DataOutputStream dict = open(dir.resolve(name + ".dict.gz"))) {
+                dict.writeInt(dictionary.size());
+                for (String value : dictionary.keySet()) {
+                    writeUtf8(dict, value);
+                }
+            }
+        }
+        if (nulls != null) {
+            try (DataOutputStream bitmap = open(dir.resolve(name + ".nulls.gz"))) {
+                bitmap.writeLong(numValues);
+                // toByteArray stops at the last null, so pad to one bit per value
+                bitmap.write(Arrays.copyOf(nulls.toByteArray(), (int) ((numValues + 7) / 8)));
+            }
+        }
+    }
+}
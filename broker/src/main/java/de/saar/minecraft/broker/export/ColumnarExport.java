@@ -0,0 +1,438 @@
+package de.saar.minecraft.broker.export;
+
+import static de.saar.minecraft.broker.db.Tables.GAMES;
+import static de.saar.minecraft.broker.db.Tables.GAME_LOGS;
+import static de.saar.minecraft.broker.db.Tables.QUESTIONNAIRES;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.MessageOrBuilder;
+import com.google.protobuf.util.JsonFormat;
+import de.saar.minecraft.broker.BrokerConfiguration;
+import de.saar.minecraft.broker.db.tables.records.GameLogsRecord;
+import de.saar.minecraft.broker.db.tables.records.GamesRecord;
+import de.saar.minecraft.broker.db.tables.records.QuestionnairesRecord;
+import de.saar.minecraft.shared.BlockDestroyedMessage;
+import de.saar.minecraft.shared.BlockPlacedMessage;
+import de.saar.minecraft.shared.GameId;
+import de.saar.minecraft.shared.MinecraftServerError;
+import de.saar.minecraft.shared.ProtectBlockMessage;
+import de.saar.minecraft.shared.StatusMessage;
+import de.saar.minecraft.shared.TextMessage;
+import de.saar.minecraft.shared.WorldFileError;
+import de.saar.minecraft.shared.WorldSelectMessage;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.jooq.Cursor;
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+
+/**
+ * Exports the GAMES, GAME_LOGS and QUESTIONNAIRES tables into compressed columnar
+ * files for analysis, e.g. with numpy or pandas, without parsing the json messages
+ * of the game log again for every analysis.
+ *
+ * <p>The games are split into ranges of game ids, which are exported in parallel,
+ * each with its own database connection, into a directory part-FROM-TO of the output
+ * directory.  A part contains one directory per table: games, questionnaires,
+ * game_logs and one per message type (StatusMessage, BlockPlacedMessage, ...).
+ * The game_logs table has a row for every log entry, but its message column is only
+ * filled for entries that are not protobuf messages, such as LOG and ERROR entries.
+ * The messages themselves go into the table of their type, which has a column for every
+ * field of the message besides log_id, gameid, timestamp and direction.  Repeated and
+ * message fields are written as json, enum fields as well as directions, message types,
+ * scenarios and architects are dictionary-encoded.  Timestamps are milliseconds since
+ * 1970-01-01T00:00 in the time zone of the database; the game_logs table also has the
+ * monotonic time of each entry in nanoseconds (mono_nanos) and its position within the
+ * game (game_seq), which are null for entries of older brokers.  Null numbers are marked
+ * in a null bitmap next to their column.  See {@link ColumnWriter} and
+ * {@link TableWriter} for the file format.</p>
+ *
+ * <p>Usage: {@code ColumnarExport [options] [from-to]}. Options:
+ * --output directory (default export),
+ * --config broker configuration with the database (default broker-config.yaml);
+ * the read-only database is used if one is configured,
+ * --parallel number of ranges exported at once (default 4),
+ * --chunk number of game ids per range (default 1000).</p>
+ */
+public class ColumnarExport {
+    /** Rows the database driver fetches at once. */
+    private static final int FETCH_SIZE = 1000;
+
+    private static final List<Message> MESSAGE_TYPES = List.of(
+            StatusMessage.getDefaultInstance(),
+            BlockPlacedMessage.getDefaultInstance(),
+            BlockDestroyedMessage.getDefaultInstance(),
+            TextMessage.getDefaultInstance(),
+            ProtectBlockMessage.getDefaultInstance(),
+            WorldSelectMessage.getDefaultInstance(),
+            GameId.getDefaultInstance(),
+            MinecraftServerError.getDefaultInstance(),
+            WorldFileError.getDefaultInstance());
+
+    private static final JsonFormat.Parser parser = JsonFormat.parser().ignoringUnknownFields();
+    private static final JsonFormat.Printer printer = JsonFormat.printer()
+            .omittingInsignificantWhitespace();
+
+    private final BrokerConfiguration.DatabaseAddress database;
+    private final Path outputDir;
+
+    ColumnarExport(BrokerConfiguration.DatabaseAddress database, Path outputDir) {
+        this.database = database;
+        this.outputDir = outputDir;
+    }
+
+    /**
+     * Runs the export.
+     *
+     * @param args see the class documentation
+     * @throws Exception if the database cannot be read or the files cannot be written
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        Integer from = null;
+        Integer to = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("--")) {
+                if (i + 1 == args.length) {
+                    usage("Missing value for " + args[i]);
+                }
+                options.put(args[i].substring(2), args[++i]);
+            } else if (args[i].contains("-")) {
+                String[] range = args[i].split("-", 2);
+                from = Integer.parseInt(range[0]);
+                to = Integer.parseInt(range[1]);
+            } else {
+                usage("Expected a range of game ids: " + args[i]);
+            }
+        }
+
+        var config = BrokerConfiguration.loadYaml(
+                new FileReader(options.getOrDefault("config", "broker-config.yaml")));
+        if (config.readDatabaseOrPrimary() == null) {
+            usage("No database configured");
+        }
+        int parallel = Integer.parseInt(options.getOrDefault("parallel", "4"));
+        int chunk = Integer.parseInt(options.getOrDefault("chunk", "1000"));
+        var export = new ColumnarExport(config.readDatabaseOrPrimary(),
+                Path.of(options.getOrDefault("output", "export")));
+
+        if (from == null) {
+            try (Connection conn = export.connect()) {
+                var bounds = export.jooq(conn).select(DSL.min(GAMES.ID), DSL.max(GAMES.ID))
+                        .from(GAMES)
+                        .fetchOne();
+                if (bounds == null || bounds.value1() == null) {
+                    System.err.println("No games to export.");
+                    return;
+                }
+                from = bounds.value1();
+                to = bounds.value2();
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallel);
+        long start = System.nanoTime();
+        long numRows = 0;
+        try {
+            List<Future<Long>> futures = new ArrayList<>();
+            for (long rangeStart = from; rangeStart <= to; rangeStart += chunk) {
+                int first = (int) rangeStart;
+                int last = (int) Math.min(to, rangeStart + chunk - 1);
+                futures.add(executor.submit(() -> export.exportRange(first, last)));
+            }
+            for (var future : futures) {
+                numRows += future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        System.out.printf(Locale.ROOT, "Exported games %d to %d (%d rows) in %.1f s.%n",
+                from, to, numRows, (System.nanoTime() - start) / 1e9);
+    }
+
+    private Connection connect() throws SQLException {
+        return DriverManager.getConnection(database.getUrl(), database.getUsername(),
+                database.getPassword());
+    }
+
+    private DSLContext jooq(Connection conn) {
+        return DSL.using(conn, SQLDialect.valueOf(database.getSqlDialect()));
+    }
+
+    /**
+     * Exports the games with ids from first to last into their own part directory.
+     *
+     * @return the number of rows exported
+     */
+    long exportRange(int first, int last) throws Exception {
+        Path dir = outputDir.resolve(String.format("part-%d-%d", first, last));
+        Files.createDirectories(dir);
+        try (Connection conn = connect()) {
+            DSLContext jooq = jooq(conn);
+            return exportGames(jooq, dir, first, last)
+                    + exportQuestionnaires(jooq, dir, first, last)
+                    + exportGameLogs(jooq, dir, first, last);
+        }
+    }
+
+    private static long exportGames(DSLContext jooq, Path dir, int first, int last)
+            throws IOException {
+        long rows = 0;
+        try (var table = new TableWriter(dir.resolve("games"));
+             Cursor<GamesRecord> cursor = jooq.selectFrom(GAMES)
+                     .where(GAMES.ID.between(first, last))
+                     .orderBy(GAMES.ID.asc())
+                     .fetchSize(FETCH_SIZE)
+                     .fetchLazy()) {
+            var id = table.addColumn("id", ColumnWriter.Type.INT);
+            var clientIp = table.addColumn("client_ip", ColumnWriter.Type.STRING);
+            var playerName = table.addColumn("player_name", ColumnWriter.Type.STRING);
+            var startTime = table.addColumn("start_time", ColumnWriter.Type.LONG);
+            var status = table.addColumn("status", ColumnWriter.Type.DICT);
+            var scenario = table.addColumn("scenario", ColumnWriter.Type.DICT);
+            var architectHostname = table.addColumn("architect_hostname", ColumnWriter.Type.DICT);
+            var architectPort = table.addColumn("architect_port", ColumnWriter.Type.INT);
+            var architectInfo = table.addColumn("architect_info", ColumnWriter.Type.DICT);
+            for (GamesRecord rec : cursor) {
+                id.writeInt(rec.getId());
+                clientIp.writeString(rec.getClientIp());
+                playerName.writeString(rec.getPlayerName());
+                startTime.write(toMillis(rec.getStartTime()));
+                status.writeString(rec.getStatus() == null ? null : rec.getStatus().name());
+                scenario.writeString(rec.getScenario());
+                architectHostname.writeString(rec.getArchitectHostname());
+                architectPort.write(rec.getArchitectPort());
+                architectInfo.writeString(rec.getArchitectInfo());
+                table.endRow();
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    private static long exportQuestionnaires(DSLContext jooq, Path dir, int first, int last)
+            throws IOException {
+        long rows = 0;
+        try (var table = new TableWriter(dir.resolve("questionnaires"));
+             Cursor<QuestionnairesRecord> cursor = jooq.selectFrom(QUESTIONNAIRES)
+                     .where(QUESTIONNAIRES.GAMEID.between(first, last))
+                     .orderBy(QUESTIONNAIRES.ID.asc())
+                     .fetchSize(FETCH_SIZE)
+                     .fetchLazy()) {
+            var id = table.addColumn("id", ColumnWriter.Type.LONG);
+            var gameId = table.addColumn("gameid", ColumnWriter.Type.INT);
+            var question = table.addColumn("question", ColumnWriter.Type.DICT);
+            var answer = table.addColumn("answer", ColumnWriter.Type.STRING);
+            var timestamp = table.addColumn("timestamp", ColumnWriter.Type.LONG);
+            for (QuestionnairesRecord rec : cursor) {
+                id.writeLong(rec.getId().longValue());
+                gameId.write(rec.getGameid());
+                question.writeString(rec.getQuestion());
+                answer.writeString(rec.getAnswer());
+                timestamp.write(toMillis(rec.getTimestamp()));
+                table.endRow();
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    private static long exportGameLogs(DSLContext jooq, Path dir, int first, int last)
+            throws IOException {
+        Map<String, MessageTable> messageTables = new LinkedHashMap<>();
+        long rows = 0;
+        try (var table = new TableWriter(dir.resolve("game_logs"));
+             Cursor<GameLogsRecord> cursor = jooq.selectFrom(GAME_LOGS)
+                     .where(GAME_LOGS.GAMEID.between(first, last))
+                     .orderBy(GAME_LOGS.ID.asc())
+                     .fetchSize(FETCH_SIZE)
+                     .fetchLazy()) {
+            for (Message type : MESSAGE_TYPES) {
+                String name = type.getDescriptorForType().getName();
+                messageTables.put(name, new MessageTable(dir.resolve(name), type));
+            }
+            var id = table.addColumn("id", ColumnWriter.Type.LONG);
+            var gameId = table.addColumn("gameid", ColumnWriter.Type.INT);
+            var timestamp = table.addColumn("timestamp", ColumnWriter.Type.LONG);
+            var monoNanos = table.addColumn("mono_nanos", ColumnWriter.Type.LONG);
+            var gameSeq = table.addColumn("game_seq", ColumnWriter.Type.INT);
+            var direction = table.addColumn("direction", ColumnWriter.Type.DICT);
+            var messageType = table.addColumn("message_type", ColumnWriter.Type.DICT);
+            var message = table.addColumn("message", ColumnWriter.Type.STRING);
+            for (GameLogsRecord rec : cursor) {
+                long logId = rec.getId().longValue();
+                Long millis = toMillis(rec.getTimestamp());
+                String directionName = rec.getDirection() == null
+                        ? null : rec.getDirection().name();
+                MessageTable messageTable = rec.getMessageType() == null
+                        ? null : messageTables.get(rec.getMessageType());
+                boolean parsed = messageTable != null
+                        && messageTable.write(logId, rec.getGameid(), millis, directionName,
+                        rec.getMessage());
+
+                id.writeLong(logId);
+                gameId.write(rec.getGameid());
+                timestamp.write(millis);
+                monoNanos.write(rec.getMonoNanos());
+                gameSeq.write(rec.getGameSeq());
+                direction.writeString(directionName);
+                messageType.writeString(rec.getMessageType());
+                message.writeString(parsed ? null : rec.getMessage());
+                table.endRow();
+                rows++;
+            }
+        } finally {
+            for (MessageTable messageTable : messageTables.values()) {
+                messageTable.close();
+            }
+        }
+        return rows;
+    }
+
+    private static Long toMillis(LocalDateTime timestamp) {
+        return timestamp == null ? null : timestamp.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    /**
+     * The table of one message type, with a column for every field of the message.
+     */
+    private static class MessageTable {
+        private final Message defaultInstance;
+        private final TableWriter table;
+        private final ColumnWriter logId;
+        private final ColumnWriter gameId;
+        private final ColumnWriter timestamp;
+        private final ColumnWriter direction;
+        private final List<FieldDescriptor> fields;
+        private final List<ColumnWriter> columns = new ArrayList<>();
+
+        MessageTable(Path dir, Message defaultInstance) throws IOException {
+            this.defaultInstance = defaultInstance;
+            table = new TableWriter(dir);
+            logId = table.addColumn("log_id", ColumnWriter.Type.LONG);
+            gameId = table.addColumn("gameid", ColumnWriter.Type.INT);
+            timestamp = table.addColumn("timestamp", ColumnWriter.Type.LONG);
+            direction = table.addColumn("direction", ColumnWriter.Type.DICT);
+            fields = defaultInstance.getDescriptorForType().getFields();
+            for (FieldDescriptor field : fields) {
+                columns.add(table.addColumn(field.getName(), columnType(field)));
+            }
+        }
+
+        private static ColumnWriter.Type columnType(FieldDescriptor field) {
+            if (field.isRepeated()) {
+                return ColumnWriter.Type.STRING;
+            }
+            switch (field.getJavaType()) {
+                case INT:
+                    return ColumnWriter.Type.INT;
+                case LONG:
+                    return ColumnWriter.Type.LONG;
+                case FLOAT:
+                case DOUBLE:
+                    return ColumnWriter.Type.DOUBLE;
+                case BOOLEAN:
+                    return ColumnWriter.Type.BOOL;
+                case ENUM:
+                    return ColumnWriter.Type.DICT;
+                default:
+                    return ColumnWriter.Type.STRING;
+            }
+        }
+
+        /**
+         * Parses a logged message and writes it as a row of the table.
+         *
+         * @return false if the message could not be parsed, in which case nothing is written
+         */
+        boolean write(long logId, Integer gameId, Long timestamp, String direction,
+                      String json) throws IOException {
+            if (json == null) {
+                return false;
+            }
+            Message.Builder builder = defaultInstance.newBuilderForType();
+            try {
+                parser.merge(json, builder);
+            } catch (InvalidProtocolBufferException e) {
+                return false;
+            }
+            Message message = builder.build();
+            this.logId.writeLong(logId);
+            this.gameId.write(gameId);
+            this.timestamp.write(timestamp);
+            this.direction.writeString(direction);
+            for (int i = 0; i < fields.size(); i++) {
+                columns.get(i).write(value(message, fields.get(i)));
+            }
+            table.endRow();
+            return true;
+        }
+
+        private static Object value(Message message, FieldDescriptor field)
+                throws InvalidProtocolBufferException {
+            Object value = message.getField(field);
+            if (field.isRepeated()) {
+                var ret = new StringBuilder("[");
+                for (Object element : (List<?>) value) {
+                    if (ret.length() > 1) {
+                        ret.append(',');
+                    }
+                    ret.append(toJson(element));
+                }
+                return ret.append(']').toString();
+            }
+            if (value instanceof MessageOrBuilder) {
+                return toJson(value);
+            }
+            if (value instanceof EnumValueDescriptor) {
+                return ((EnumValueDescriptor) value).getName();
+            }
+            return value;
+        }
+
+        private static String toJson(Object value) throws InvalidProtocolBufferException {
+            if (value instanceof MessageOrBuilder) {
+                return printer.print((MessageOrBuilder) value);
+            }
+            if (value instanceof Number || value instanceof Boolean) {
+                return value.toString();
+            }
+            String string = value instanceof EnumValueDescriptor
+                    ? ((EnumValueDescriptor) value).getName()
+                    : value.toString();
+            return '"' + new String(JsonStringEncoder.getInstance().quoteAsString(string)) + '"';
+        }
+
+        void close() throws IOException {
+            table.close();
+        }
+    }
+
+    private static void usage(String error) {
+        System.err.println(error);
+        System.err.println("Usage: ColumnarExport [--output dir] [--config broker-config.yaml] "
+                + "[--parallel n] [--chunk n] [from-to]");
+        System.exit(1);
+    }
+}
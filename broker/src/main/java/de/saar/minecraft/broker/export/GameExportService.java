@@ -0,0 +1,294 @@
+package de.saar.minecraft.broker.export;
+
+import static de.saar.minecraft.broker.db.Tables.GAMES;
+import static de.saar.minecraft.broker.db.Tables.GAME_LOGS;
+
+import de.saar.minecraft.broker.BrokerConfiguration;
+import de.saar.minecraft.broker.db.tables.records.GameLogsRecord;
+import de.saar.minecraft.broker.db.tables.records.GamesRecord;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import org.jooq.Condition;
+import org.jooq.Cursor;
+import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.jooq.ResultQuery;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.tinylog.Logger;
+
+/**
+ * Streams games and game logs to analysis clients.  Each export reads from its own
+ * database connection through a lazy cursor and only fetches more rows when the
+ * client is ready to receive them, so that exports neither hold whole result sets
+ * in memory nor block the connection the broker uses for running games.  At most
+ * maxConcurrentExports exports run at the same time.  The broker serves exports
+ * only on the export port, behind a {@link BasicAuthInterceptor}.
+ */
+public class GameExportService extends GameExportGrpc.GameExportImplBase {
+    /** Rows the database driver fetches at once. */
+    private static final int FETCH_SIZE = 500;
+
+    private final BrokerConfiguration.DatabaseAddress database;
+    private final Semaphore runningExports;
+
+    /**
+     * Creates the export service.
+     * @param config the broker configuration, with the database already set; exports
+     *               read from the read-only database if one is configured
+     */
+    public GameExportService(BrokerConfiguration config) {
+        this.database = config.readDatabaseOrPrimary();
+        this.runningExports = new Semaphore(config.getMaxConcurrentExports());
+    }
+
+    @Override
+    public void exportGames(ExportFilter request, StreamObserver<GameRecord> responseObserver) {
+        if (invalidTimestamps(request, responseObserver)) {
+            return;
+        }
+        List<Condition> conditions = new ArrayList<>();
+        if (request.getFromGameId() != 0) {
+            conditions.add(GAMES.ID.ge(request.getFromGameId()));
+        }
+        if (request.getToGameId() != 0) {
+            conditions.add(GAMES.ID.le(request.getToGameId()));
+        }
+        if (!request.getScenario().isEmpty()) {
+            conditions.add(GAMES.SCENARIO.eq(request.getScenario()));
+        }
+        if (!request.getArchitectInfo().isEmpty()) {
+            conditions.add(GAMES.ARCHITECT_INFO.eq(request.getArchitectInfo()));
+        }
+        if (!request.getFromTimestamp().isEmpty()) {
+            conditions.add(GAMES.START_TIME.ge(LocalDateTime.parse(request.getFromTimestamp())));
+        }
+        if (!request.getToTimestamp().isEmpty()) {
+            conditions.add(GAMES.START_TIME.le(LocalDateTime.parse(request.getToTimestamp())));
+        }
+        stream(jooq -> jooq.selectFrom(GAMES).where(conditions).orderBy(GAMES.ID.asc()),
+                GameExportService::toGameRecord, responseObserver);
+    }
+
+    @Override
+    public void exportGameLogs(ExportFilter request,
+                               StreamObserver<GameLogRecord> responseObserver) {
+        if (invalidTimestamps(request, responseObserver)) {
+            return;
+        }
+        List<Condition> conditions = new ArrayList<>();
+        if (request.getFromGameId() != 0) {
+            conditions.add(GAME_LOGS.GAMEID.ge(request.getFromGameId()));
+        }
+        if (request.getToGameId() != 0) {
+            conditions.add(GAME_LOGS.GAMEID.le(request.getToGameId()));
+        }
+        if (!request.getScenario().isEmpty() || !request.getArchitectInfo().isEmpty()) {
+            var games = DSL.select(GAMES.ID).from(GAMES);
+            List<Condition> gameConditions = new ArrayList<>();
+            if (!request.getScenario().isEmpty()) {
+                gameConditions.add(GAMES.SCENARIO.eq(request.getScenario()));
+            }
+            if (!request.getArchitectInfo().isEmpty()) {
+                gameConditions.add(GAMES.ARCHITECT_INFO.eq(request.getArchitectInfo()));
+            }
+            conditions.add(GAME_LOGS.GAMEID.in(games.where(gameConditions)));
+        }
+        if (request.getMessageTypesCount() > 0) {
+            conditions.add(GAME_LOGS.MESSAGE_TYPE.in(request.getMessageTypesList()));
+        }
+        if (!request.getFromTimestamp().isEmpty()) {
+            conditions.add(GAME_LOGS.TIMESTAMP.ge(LocalDateTime.parse(request.getFromTimestamp())));
+        }
+        if (!request.getToTimestamp().isEmpty()) {
+            conditions.add(GAME_LOGS.TIMESTAMP.le(LocalDateTime.parse(request.getToTimestamp())));
+        }
+        stream(jooq -> jooq.selectFrom(GAME_LOGS).where(conditions).orderBy(GAME_LOGS.ID.asc()),
+                GameExportService::toGameLogRecord, responseObserver);
+    }
+
+    /**
+     * Checks the timestamps of the filter and reports an error to the client if they
+     * cannot be parsed.
+     */
+    private static boolean invalidTimestamps(ExportFilter request,
+                                             StreamObserver<?> responseObserver) {
+        try {
+            for (String timestamp : List.of(request.getFromTimestamp(), request.getToTimestamp())) {
+                if (!timestamp.isEmpty()) {
+                    LocalDateTime.parse(timestamp);
+                }
+            }
+            return false;
+        } catch (DateTimeParseException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT
+                    .withDescription("Invalid timestamp: " + e.getParsedString())
+                    .asRuntimeException());
+            return true;
+        }
+    }
+
+    /**
+     * Sends the result of the query to the client, reading rows from the database only
+     * as fast as the client takes them.
+     */
+    private <R extends Record, M> void stream(Function<DSLContext, ResultQuery<R>> query,
+                                              Function<R, M> convert,
+                                              StreamObserver<M> responseObserver) {
+        if (!runningExports.tryAcquire()) {
+            responseObserver.onError(Status.RESOURCE_EXHAUSTED
+                    .withDescription("Too many exports running, try again later")
+                    .asRuntimeException());
+            return;
+        }
+        Connection conn = null;
+        Cursor<R> cursor;
+        try {
+            conn = DriverManager.getConnection(database.getUrl(), database.getUsername(),
+                    database.getPassword());
+            DSLContext jooq = DSL.using(conn, SQLDialect.valueOf(database.getSqlDialect()));
+            cursor = query.apply(jooq).fetchSize(FETCH_SIZE).fetchLazy();
+        } catch (SQLException | RuntimeException e) {
+            runningExports.release();
+            Logger.error("Could not start export: {}", e.toString());
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException ignored) {
+                    // nothing we can do
+                }
+            }
+            responseObserver.onError(Status.INTERNAL.withDescription(e.getMessage())
+                    .asRuntimeException());
+            return;
+        }
+
+        var call = (ServerCallStreamObserver<M>) responseObserver;
+        var export = new Export<>(conn, cursor, convert, call);
+        call.setOnCancelHandler(export::close);
+        call.setOnReadyHandler(export::sendWhileReady);
+        export.sendWhileReady();
+    }
+
+    /**
+     * One running export.
+     */
+    private class Export<R extends Record, M> {
+        private final Connection conn;
+        private final Cursor<R> cursor;
+        private final Function<R, M> convert;
+        private final ServerCallStreamObserver<M> call;
+        private boolean closed;
+
+        Export(Connection conn, Cursor<R> cursor, Function<R, M> convert,
+               ServerCallStreamObserver<M> call) {
+            this.conn = conn;
+            this.cursor = cursor;
+            this.convert = convert;
+            this.call = call;
+        }
+
+        /**
+         * Sends rows until the client's buffer is full or all rows have been sent.
+         * Called again by gRPC whenever the client is ready for more.
+         */
+        synchronized void sendWhileReady() {
+            if (closed) {
+                return;
+            }
+            try {
+                while (call.isReady() && cursor.hasNext()) {
+                    call.onNext(convert.apply(cursor.fetchNext()));
+                }
+                if (!cursor.hasNext()) {
+                    close();
+                    call.onCompleted();
+                }
+            } catch (RuntimeException e) {
+                Logger.error("Export failed: {}", e.toString());
+                close();
+                call.onError(Status.INTERNAL.withDescription(e.getMessage()).asRuntimeException());
+            }
+        }
+
+        synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                cursor.close();
+                conn.close();
+            } catch (SQLException | RuntimeException e) {
+                Logger.warn("Could not close export connection: {}", e.toString());
+            } finally {
+                runningExports.release();
+            }
+        }
+    }
+
+    private static GameRecord toGameRecord(GamesRecord rec) {
+        var ret = GameRecord.newBuilder().setId(rec.getId());
+        if (rec.getClientIp() != null) {
+            ret.setClientIp(rec.getClientIp());
+        }
+        if (rec.getPlayerName() != null) {
+            ret.setPlayerName(rec.getPlayerName());
+        }
+        if (rec.getStartTime() != null) {
+            ret.setStartTime(rec.getStartTime().toString());
+        }
+        if (rec.getStatus() != null) {
+            ret.setStatus(rec.getStatus().name());
+        }
+        if (rec.getScenario() != null) {
+            ret.setScenario(rec.getScenario());
+        }
+        if (rec.getArchitectHostname() != null) {
+            ret.setArchitectHostname(rec.getArchitectHostname());
+        }
+        if (rec.getArchitectPort() != null) {
+            ret.setArchitectPort(rec.getArchitectPort());
+        }
+        if (rec.getArchitectInfo() != null) {
+            ret.setArchitectInfo(rec.getArchitectInfo());
+        }
+        return ret.build();
+    }
+
+    private static GameLogRecord toGameLogRecord(GameLogsRecord rec) {
+        var ret = GameLogRecord.newBuilder().setId(rec.getId().longValue());
+        if (rec.getGameid() != null) {
+            ret.setGameId(rec.getGameid());
+        }
+        if (rec.getDirection() != null) {
+            ret.setDirection(rec.getDirection().name());
+        }
+        if (rec.getMessageType() != null) {
+            ret.setMessageType(rec.getMessageType());
+        }
+        if (rec.getMessage() != null) {
+            ret.setMessage(rec.getMessage());
+        }
+        if (rec.getTimestamp() != null) {
+            ret.setTimestamp(rec.getTimestamp().toString());
+        }
+        if (rec.getMonoNanos() != null) {
+            ret.setMonotonicNanos(rec.getMonoNanos());
+        }
+        if (rec.getGameSeq() != null) {
+            ret.setSequence(rec.getGameSeq());
+        }
+        return ret.build();
+    }
+}
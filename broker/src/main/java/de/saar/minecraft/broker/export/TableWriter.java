@@ -0,0 +1,59 @@
+package de.saar.minecraft.broker.export;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a table as one {@link ColumnWriter} file per column in its own directory.
+ * When the table is closed, schema.tsv is written next to the columns, with the
+ * number of rows in the first line and the name and type of each column in the
+ * following lines.  The line of a column that has a null bitmap ends with a third
+ * field, "nulls".
+ */
+class TableWriter implements Closeable {
+    private final Path dir;
+    private final List<ColumnWriter> columns = new ArrayList<>();
+    private long numRows;
+
+    TableWriter(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+    }
+
+    /**
+     * Adds a column; all columns must be added before the first row is written.
+     */
+    ColumnWriter addColumn(String name, ColumnWriter.Type type) throws IOException {
+        var column = new ColumnWriter(dir, name, type);
+        columns.add(column);
+        return column;
+    }
+
+    /**
+     * Records that a value has been written to every column.
+     */
+    void endRow() {
+        numRows++;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (ColumnWriter column : columns) {
+            column.close();
+        }
+        try (var schema = new PrintWriter(Files.newBufferedWriter(dir.resolve("schema.tsv"),
+                StandardCharsets.UTF_8))) {
+            schema.println("rows\t" + numRows);
+            for (ColumnWriter column : columns) {
+                schema.println(column.getName() + "\t" + column.getType()
+                        + (column.hasNulls() ? "\tnulls" : ""));
+            }
+        }
+    }
+}
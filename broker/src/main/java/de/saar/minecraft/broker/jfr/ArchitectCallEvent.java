@@ -0,0 +1,73 @@
+package de.saar.minecraft.broker.jfr;
+
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The broker forwarded an event of a game to its architect server; the duration
+ * lasts until the architect server answered.  The event is committed on the thread
+ * that received the answer.
+ */
+@Name("de.saar.minecraft.broker.ArchitectCall")
+@Label("Architect Call")
+@Category({"Minecraft", "Broker"})
+@Description("An event was forwarded to the architect server of a game")
+@Enabled(false)
+@StackTrace(false)
+public class ArchitectCallEvent extends Event {
+    @Label("Game ID")
+    public int gameId;
+
+    @Label("Method")
+    public String method;
+
+    @Label("Status")
+    public String status;
+
+    /**
+     * Records a call to the architect server that is answered through the given
+     * observer.
+     * @param gameId the game
+     * @param method the RPC method
+     * @param observer receives the answer of the architect server
+     * @param <T> type of the answer
+     * @return the observer to pass to the call; the given one if the event is disabled
+     */
+    public static <T> StreamObserver<T> record(int gameId, String method,
+                                               StreamObserver<T> observer) {
+        var event = new ArchitectCallEvent();
+        if (!event.isEnabled()) {
+            return observer;
+        }
+        event.gameId = gameId;
+        event.method = method;
+        event.begin();
+        return new StreamObserver<>() {
+            @Override
+            public void onNext(T value) {
+                observer.onNext(value);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                event.status = Status.fromThrowable(t).getCode().name();
+                event.commit();
+                observer.onError(t);
+            }
+
+            @Override
+            public void onCompleted() {
+                event.status = Status.Code.OK.name();
+                event.commit();
+                observer.onCompleted();
+            }
+        };
+    }
+}
@@ -0,0 +1,18 @@
+package de.saar.minecraft.broker.jfr;
+
+import de.saar.minecraft.util.FlightRecorderEvents;
+import java.util.List;
+
+/**
+ * The JDK Flight Recorder events of the broker.  They are disabled by default and
+ * enabled with flightRecorderEvents in the broker configuration.
+ */
+public class BrokerEvents {
+    /**
+     * Enables all events of the broker, see {@link FlightRecorderEvents}.
+     */
+    public static void enable() {
+        FlightRecorderEvents.enable(List.of(GameStartEvent.class, GameLogEvent.class,
+                ArchitectCallEvent.class, MessageToClientEvent.class, QuestionnaireEvent.class));
+    }
+}
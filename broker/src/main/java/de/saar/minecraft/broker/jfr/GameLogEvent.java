@@ -0,0 +1,34 @@
+package de.saar.minecraft.broker.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The broker wrote a message to the game log sink; the duration is that of the
+ * write, e.g. a database insert.
+ */
+@Name("de.saar.minecraft.broker.GameLog")
+@Label("Game Log")
+@Category({"Minecraft", "Broker"})
+@Description("A message was written to the game logs")
+@Enabled(false)
+@StackTrace(false)
+public class GameLogEvent extends Event {
+    @Label("Game ID")
+    public int gameId;
+
+    @Label("Direction")
+    public String direction;
+
+    @Label("Message Type")
+    public String messageType;
+
+    @Label("Size")
+    @Description("Length of the logged message in characters")
+    public int size;
+}
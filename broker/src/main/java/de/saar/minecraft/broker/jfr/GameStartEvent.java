@@ -0,0 +1,30 @@
+package de.saar.minecraft.broker.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The broker started a game on an architect server; the duration includes the
+ * database inserts and the startGame call of the architect server.
+ */
+@Name("de.saar.minecraft.broker.GameStart")
+@Label("Game Start")
+@Category({"Minecraft", "Broker"})
+@Description("A game was started on an architect server")
+@Enabled(false)
+@StackTrace(false)
+public class GameStartEvent extends Event {
+    @Label("Game ID")
+    public int gameId;
+
+    @Label("Scenario")
+    public String scenario;
+
+    @Label("Architect Server")
+    public String architectServer;
+}
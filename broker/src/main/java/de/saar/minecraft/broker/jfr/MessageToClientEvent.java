@@ -0,0 +1,35 @@
+package de.saar.minecraft.broker.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The broker handled a text message of an architect or a questionnaire; the
+ * duration includes logging it and passing it on to the client.
+ */
+@Name("de.saar.minecraft.broker.MessageToClient")
+@Label("Message To Client")
+@Category({"Minecraft", "Broker"})
+@Description("A text message was logged and passed on to the client")
+@Enabled(false)
+@StackTrace(false)
+public class MessageToClientEvent extends Event {
+    @Label("Game ID")
+    public int gameId;
+
+    @Label("For Logging")
+    @Description("The message was only logged, not passed on")
+    public boolean forLogging;
+
+    @Label("New Game State")
+    public String newGameState;
+
+    @Label("Size")
+    @Description("Length of the text in characters")
+    public int size;
+}
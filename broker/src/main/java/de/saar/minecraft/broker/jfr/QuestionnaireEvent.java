@@ -0,0 +1,32 @@
+package de.saar.minecraft.broker.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A step of the questionnaire of a game, e.g. asking a question or storing an
+ * answer.
+ */
+@Name("de.saar.minecraft.broker.Questionnaire")
+@Label("Questionnaire Step")
+@Category({"Minecraft", "Broker"})
+@Description("A step of a questionnaire")
+@Enabled(false)
+@StackTrace(false)
+public class QuestionnaireEvent extends Event {
+    @Label("Game ID")
+    public int gameId;
+
+    @Label("Step")
+    @Description("introduction, question, reminder, answer, invalid answer or finished")
+    public String step;
+
+    @Label("Question")
+    @Description("Index of the current question")
+    public int question;
+}
@@ -0,0 +1,50 @@
+package de.saar.minecraft.broker.logging;
+
+import java.util.List;
+import org.tinylog.Logger;
+
+/**
+ * Writes game logs to several sinks, e.g. to the database and to a file.
+ * A sink that fails does not keep the entry from being written to the others.
+ */
+public class FanOutGameLogSink implements GameLogSink {
+    private final List<GameLogSink> sinks;
+
+    public FanOutGameLogSink(List<GameLogSink> sinks) {
+        this.sinks = List.copyOf(sinks);
+    }
+
+    @Override
+    public void write(GameLogEntry entry) {
+        for (GameLogSink sink : sinks) {
+            try {
+                sink.write(entry);
+            } catch (RuntimeException e) {
+                Logger.error("Could not write game log entry to {}: {}",
+                        sink.getClass().getSimpleName(), e.toString());
+            }
+        }
+    }
+
+    @Override
+    public void flush() {
+        for (GameLogSink sink : sinks) {
+            try {
+                sink.flush();
+            } catch (RuntimeException e) {
+                Logger.error("Could not flush {}: {}", sink.getClass().getSimpleName(), e.toString());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        for (GameLogSink sink : sinks) {
+            try {
+                sink.close();
+            } catch (RuntimeException e) {
+                Logger.error("Could not close {}: {}", sink.getClass().getSimpleName(), e.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package de.saar.minecraft.broker.logging;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import de.saar.minecraft.broker.db.GameLogsDirection;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.function.Consumer;
+
+/**
+ * Appends game logs to a file with one json object per line (NDJSON), with the
+ * same fields as the GAME_LOGS table.  This is much cheaper than a database insert
+ * per message.  Entries are buffered and written when the sink is flushed.
+ */
+public class FileGameLogSink implements GameLogSink {
+    private static final JsonFactory factory = new JsonFactory();
+
+    private final Path file;
+    private final Writer writer;
+    private final JsonGenerator generator;
+
+    /**
+     * Opens the file for appending, creating it if it does not exist.
+     * @param file the file
+     * @throws IOException if the file cannot be opened
+     */
+    public FileGameLogSink(Path file) throws IOException {
+        this.file = file;
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        generator = factory.createGenerator(writer);
+        // objects are separated by the newlines written in write()
+        generator.setRootValueSeparator(null);
+    }
+
+    @Override
+    public synchronized void write(GameLogEntry entry) {
+        try {
+            generator.writeStartObject();
+            generator.writeNumberField("gameid", entry.getGameId());
+            generator.writeStringField("direction",
+                    entry.getDirection() == null ? null : entry.getDirection().name());
+            generator.writeStringField("message_type", entry.getMessageType());
+            generator.writeStringField("message", entry.getMessage());
+            generator.writeStringField("timestamp",
+                    entry.getTimestamp() == null ? null : entry.getTimestamp().toString());
+            if (entry.getSequence() > 0) {
+                generator.writeNumberField("mono_nanos", entry.getMonotonicNanos());
+                generator.writeNumberField("game_seq", entry.getSequence());
+            }
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write to " + file, e);
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        try {
+            generator.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write to " + file, e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            generator.close();
+            writer.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not close " + file, e);
+        }
+    }
+
+    /**
+     * Reads all entries of a file written by a FileGameLogSink.
+     * @param file the file
+     * @param consumer called for every entry, in the order of the file
+     * @throws IOException if the file cannot be read or parsed
+     */
+    public static void read(Path file, Consumer<GameLogEntry> consumer) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+             JsonParser parser = factory.createParser(reader)) {
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                int gameId = 0;
+                GameLogsDirection direction = null;
+                String messageType = null;
+                String message = null;
+                LocalDateTime timestamp = null;
+                long monotonicNanos = 0;
+                int sequence = 0;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    parser.nextToken();
+                    String value = parser.getValueAsString();
+                    switch (field) {
+                        case "gameid":
+                            gameId = parser.getIntValue();
+                            break;
+                        case "direction":
+                            direction = value == null ? null : GameLogsDirection.valueOf(value);
+                            break;
+                        case "message_type":
+                            messageType = value;
+                            break;
+                        case "message":
+                            message = value;
+                            break;
+                        case "timestamp":
+                            timestamp = value == null ? null : LocalDateTime.parse(value);
+                            break;
+                        case "mono_nanos":
+                            monotonicNanos = parser.getLongValue();
+                            break;
+                        case "game_seq":
+                            sequence = parser.getIntValue();
+                            break;
+                        default:
+                            parser.skipChildren();
+                            break;
+                    }
+                }
+                consumer.accept(new GameLogEntry(gameId, direction, messageType, message,
+                        timestamp, monotonicNanos, sequence));
+            }
+        }
+    }
+}
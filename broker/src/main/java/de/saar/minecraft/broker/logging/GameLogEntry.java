@@ -0,0 +1,84 @@
+package de.saar.minecraft.broker.logging;
+
+import de.saar.minecraft.broker.db.GameLogsDirection;
+import java.time.LocalDateTime;
+
+/**
+ * One entry of a game log: a message exchanged in a game or an event the broker
+ * recorded for it.  Corresponds to a row of the GAME_LOGS table.
+ */
+public class GameLogEntry {
+    private final int gameId;
+    private final GameLogsDirection direction;
+    private final String messageType;
+    private final String message;
+    private final LocalDateTime timestamp;
+    private final long monotonicNanos;
+    private final int sequence;
+
+    /**
+     * Creates a log entry without monotonic time and sequence number, e.g. for entries
+     * that were logged before the broker recorded them.
+     * @param gameId id of the game
+     * @param direction where the message came from and went to
+     * @param messageType e.g. the simple class name of a protobuf message, LOG or ERROR
+     * @param message the message, protobuf messages as json
+     * @param timestamp when the message was logged
+     */
+    public GameLogEntry(int gameId, GameLogsDirection direction, String messageType,
+                        String message, LocalDateTime timestamp) {
+        this(gameId, direction, messageType, message, timestamp, 0, 0);
+    }
+
+    /**
+     * Creates a log entry.
+     * @param gameId id of the game
+     * @param direction where the message came from and went to
+     * @param messageType e.g. the simple class name of a protobuf message, LOG or ERROR
+     * @param message the message, protobuf messages as json
+     * @param timestamp when the message was logged
+     * @param monotonicNanos when the message was logged, see {@link
+     *     de.saar.minecraft.broker.Broker#monotonicNanos()}; 0 if unknown
+     * @param sequence position of the entry among the entries of the game, starting
+     *     at 1; 0 if unknown
+     */
+    public GameLogEntry(int gameId, GameLogsDirection direction, String messageType,
+                        String message, LocalDateTime timestamp, long monotonicNanos,
+                        int sequence) {
+        this.gameId = gameId;
+        this.direction = direction;
+        this.messageType = messageType;
+        this.message = message;
+        this.timestamp = timestamp;
+        this.monotonicNanos = monotonicNanos;
+        this.sequence = sequence;
+    }
+
+    public int getGameId() {
+        return gameId;
+    }
+
+    public GameLogsDirection getDirection() {
+        return direction;
+    }
+
+    public String getMessageType() {
+        return messageType;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public LocalDateTime getTimestamp() {
+        return timestamp;
+    }
+
+    public long getMonotonicNanos() {
+        return monotonicNanos;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+}
@@ -0,0 +1,29 @@
+package de.saar.minecraft.broker.logging;
+
+/**
+ * Stores the game logs written by the broker.  Which sinks are used is set with
+ * gameLogSinks in the broker configuration.  Implementations must be thread-safe,
+ * as the broker logs from the threads of all games.
+ */
+public interface GameLogSink extends AutoCloseable {
+    /**
+     * Stores a log entry.  Sinks may buffer entries until {@link #flush()} is called.
+     * @param entry the entry
+     */
+    void write(GameLogEntry entry);
+
+    /**
+     * Makes sure all entries written so far are stored.  The broker calls this
+     * regularly and when it shuts down.
+     */
+    default void flush() {
+    }
+
+    /**
+     * Flushes the sink and releases its resources.
+     */
+    @Override
+    default void close() {
+        flush();
+    }
+}
@@ -0,0 +1,31 @@
+package de.saar.minecraft.broker.logging;
+
+import de.saar.minecraft.broker.db.Tables;
+import de.saar.minecraft.broker.db.tables.records.GameLogsRecord;
+import org.jooq.DSLContext;
+
+/**
+ * Stores game logs in the GAME_LOGS table, where the web interface reads them.
+ */
+public class JdbcGameLogSink implements GameLogSink {
+    private final DSLContext jooq;
+
+    public JdbcGameLogSink(DSLContext jooq) {
+        this.jooq = jooq;
+    }
+
+    @Override
+    public void write(GameLogEntry entry) {
+        GameLogsRecord rec = jooq.newRecord(Tables.GAME_LOGS);
+        rec.setGameid(entry.getGameId());
+        rec.setDirection(entry.getDirection());
+        rec.setMessageType(entry.getMessageType());
+        rec.setMessage(entry.getMessage());
+        rec.setTimestamp(entry.getTimestamp());
+        if (entry.getSequence() > 0) {
+            rec.setMonoNanos(entry.getMonotonicNanos());
+            rec.setGameSeq(entry.getSequence());
+        }
+        rec.store();
+    }
+}
@@ -0,0 +1,92 @@
+package de.saar.minecraft.broker.logging;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps game logs in memory, for tests and for load tests that should not be
+ * slowed down by storage.  The logs are lost when the broker stops.  A sink with
+ * a capacity keeps only the latest entries, so that a long-running broker does not
+ * run out of memory; the number of entries written is counted in any case.
+ */
+public class MemoryGameLogSink implements GameLogSink {
+    private final ArrayDeque<GameLogEntry> entries = new ArrayDeque<>();
+    private final int capacity;
+    private long numWritten = 0;
+    private long numDropped = 0;
+
+    /**
+     * Creates a sink that keeps all entries, for tests.
+     */
+    public MemoryGameLogSink() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a sink that keeps the given number of latest entries.
+     * @param capacity the maximum number of entries kept; older entries are dropped
+     */
+    public MemoryGameLogSink(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive, was " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    @Override
+    public synchronized void write(GameLogEntry entry) {
+        if (entries.size() == capacity) {
+            entries.removeFirst();
+            numDropped++;
+        }
+        entries.addLast(entry);
+        numWritten++;
+    }
+
+    /**
+     * Returns all entries that are still kept.
+     * @return the entries in the order they were written
+     */
+    public synchronized List<GameLogEntry> getEntries() {
+        return new ArrayList<>(entries);
+    }
+
+    /**
+     * Returns the entries that are still kept for one game.
+     * @param gameId id of the game
+     * @return the entries of the game in the order they were written
+     */
+    public synchronized List<GameLogEntry> getEntries(int gameId) {
+        List<GameLogEntry> ret = new ArrayList<>();
+        for (GameLogEntry entry : entries) {
+            if (entry.getGameId() == gameId) {
+                ret.add(entry);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the number of entries written so far, including dropped ones.
+     * @return the number of entries
+     */
+    public synchronized long getNumWritten() {
+        return numWritten;
+    }
+
+    /**
+     * Returns the number of entries that were dropped because the sink was full.
+     * @return the number of dropped entries
+     */
+    public synchronized long getNumDropped() {
+        return numDropped;
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+}
@@ -0,0 +1,270 @@
+package de.saar.minecraft.broker.replay;
+
+import de.saar.minecraft.architect.ArchitectGrpc;
+import de.saar.minecraft.shared.BlockDestroyedMessage;
+import de.saar.minecraft.shared.BlockPlacedMessage;
+import de.saar.minecraft.shared.GameId;
+import de.saar.minecraft.shared.None;
+import de.saar.minecraft.shared.ProtectBlockMessage;
+import de.saar.minecraft.shared.StatusMessage;
+import de.saar.minecraft.shared.TextMessage;
+import de.saar.minecraft.shared.WorldSelectMessage;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.tinylog.Logger;
+
+/**
+ * Replays the client events of a recorded game against an architect server and records
+ * every message the architect sends back, together with the time it arrived.
+ */
+public class GameReplay {
+    /** How long to wait for the architect server to attach the streams of a game. */
+    private static final long ATTACH_TIMEOUT_SECONDS = 10;
+
+    private final ArchitectGrpc.ArchitectStub stub;
+    private final ArchitectGrpc.ArchitectBlockingStub blockingStub;
+    private final double speed;
+    private final long lingerMillis;
+
+    /**
+     * Creates a replay that talks to the architect server on the given channel.
+     *
+     * @param channel channel to the architect server
+     * @param speed factor by which the replay is faster than the recorded game;
+     *              0 replays all events as fast as possible
+     * @param lingerMillis how long to wait for architect messages after the last event
+     */
+    public GameReplay(Channel channel, double speed, long lingerMillis) {
+        this.stub = ArchitectGrpc.newStub(channel);
+        this.blockingStub = ArchitectGrpc.newBlockingStub(channel);
+        this.speed = speed;
+        this.lingerMillis = lingerMillis;
+    }
+
+    /**
+     * Plays one game: starts it on the architect server, sends all events with the
+     * recorded delays (scaled by the speed) and ends the game afterwards.
+     *
+     * @param gameId the ID of the game on the architect server
+     * @param scenario the scenario of the game
+     * @param events the events to replay, in order
+     * @return what was sent and received, with timing
+     * @throws InterruptedException if interrupted while waiting for the next event
+     */
+    public ReplayResult replay(int gameId, String scenario, List<ReplayEvent> events)
+            throws InterruptedException {
+        var gameIdMessage = GameId.newBuilder().setId(gameId).build();
+        var recorder = new Recorder();
+
+        blockingStub.startGame(WorldSelectMessage.newBuilder()
+                .setGameId(gameId)
+                .setName(scenario)
+                .build());
+        // the streams are opened asynchronously; the architect server sends their
+        // headers once the architect has them, and only then may it be asked to send
+        // anything.
+        var attached = new CountDownLatch(2);
+        var streamStub = stub.withInterceptors(new AttachedInterceptor(attached));
+        streamStub.getMessageChannel(gameIdMessage, recorder.new Observer<TextMessage>());
+        streamStub.getControlChannel(gameIdMessage, recorder.new Observer<ProtectBlockMessage>());
+        if (!attached.await(ATTACH_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            Logger.warn("Architect server did not confirm the streams of game {}", gameId);
+        }
+        if (events.stream().noneMatch(ReplayEvent::isPlayerReady)) {
+            blockingStub.playerReady(gameIdMessage);
+        }
+
+        long start = System.nanoTime();
+        long[] sendTimes = new long[events.size()];
+        for (int i = 0; i < events.size(); i++) {
+            ReplayEvent event = events.get(i);
+            if (speed > 0) {
+                long recordedOffset = Duration.between(events.get(0).getTimestamp(),
+                        event.getTimestamp()).toNanos();
+                long wait = start + (long) (recordedOffset / speed) - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+            }
+            sendTimes[i] = System.nanoTime() - start;
+            send(gameIdMessage, event);
+        }
+        Thread.sleep(lingerMillis);
+        long end = System.nanoTime() - start;
+
+        try {
+            blockingStub.endGame(gameIdMessage);
+        } catch (RuntimeException e) {
+            Logger.warn("Could not end replayed game {}: {}", gameId, e.getMessage());
+        }
+        return new ReplayResult(gameId, scenario, events, sendTimes,
+                recorder.getOutputs(start), end);
+    }
+
+    private void send(GameId gameIdMessage, ReplayEvent event) {
+        var message = event.getMessage();
+        if (event.isPlayerReady()) {
+            blockingStub.playerReady(gameIdMessage);
+        } else if (message instanceof StatusMessage) {
+            stub.handleStatusInformation((StatusMessage) message, new IgnoringObserver());
+        } else if (message instanceof BlockPlacedMessage) {
+            stub.handleBlockPlaced((BlockPlacedMessage) message, new IgnoringObserver());
+        } else if (message instanceof BlockDestroyedMessage) {
+            stub.handleBlockDestroyed((BlockDestroyedMessage) message, new IgnoringObserver());
+        }
+    }
+
+    /**
+     * A message received from the architect during a replay.
+     */
+    public static class Output {
+        private final long offsetNanos;
+        private final String type;
+        private final String text;
+
+        Output(long offsetNanos, String type, String text) {
+            this.offsetNanos = offsetNanos;
+            this.type = type;
+            this.text = text;
+        }
+
+        /**
+         * Returns when the message arrived, relative to the start of the replay.
+         */
+        public long getOffsetNanos() {
+            return offsetNanos;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getText() {
+            return text;
+        }
+    }
+
+    /**
+     * Records the messages arriving on the message and control channel.
+     */
+    private static class Recorder {
+        private final List<Output> outputs = new ArrayList<>();
+
+        private synchronized void record(Object value) {
+            String text;
+            if (value instanceof TextMessage) {
+                text = ((TextMessage) value).getText();
+            } else {
+                var block = (ProtectBlockMessage) value;
+                text = String.format("%d,%d,%d %s", block.getX(), block.getY(), block.getZ(),
+                        block.getType());
+                if (block.getAdditionalBlocksCount() > 0) {
+                    text += String.format(" and %d more blocks", block.getAdditionalBlocksCount());
+                }
+            }
+            outputs.add(new Output(System.nanoTime(), value.getClass().getSimpleName(), text));
+        }
+
+        /**
+         * Returns all recorded messages in order of arrival, with offsets relative to start.
+         */
+        private synchronized List<Output> getOutputs(long start) {
+            List<Output> ret = new ArrayList<>();
+            for (Output output : outputs) {
+                ret.add(new Output(output.offsetNanos - start, output.type, output.text));
+            }
+            return Collections.unmodifiableList(ret);
+        }
+
+        private class Observer<T> implements StreamObserver<T> {
+            @Override
+            public void onNext(T value) {
+                record(value);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                Logger.warn("Architect stream failed: {}", t.getMessage());
+            }
+
+            @Override
+            public void onCompleted() {
+            }
+        }
+    }
+
+    /**
+     * Counts down a latch when the headers of a stream arrive, or when the stream
+     * ends without headers.
+     */
+    private static class AttachedInterceptor implements ClientInterceptor {
+        private final CountDownLatch attached;
+
+        AttachedInterceptor(CountDownLatch attached) {
+            this.attached = attached;
+        }
+
+        @Override
+        public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(
+                MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
+            return new ForwardingClientCall.SimpleForwardingClientCall<>(
+                    next.newCall(method, callOptions)) {
+                @Override
+                public void start(Listener<RespT> responseListener, Metadata headers) {
+                    super.start(new ForwardingClientCallListener
+                            .SimpleForwardingClientCallListener<>(responseListener) {
+                        private boolean counted;
+
+                        @Override
+                        public void onHeaders(Metadata headers) {
+                            countOnce();
+                            super.onHeaders(headers);
+                        }
+
+                        @Override
+                        public void onClose(Status status, Metadata trailers) {
+                            countOnce();
+                            super.onClose(status, trailers);
+                        }
+
+                        private void countOnce() {
+                            if (!counted) {
+                                counted = true;
+                                attached.countDown();
+                            }
+                        }
+                    }, headers);
+                }
+            };
+        }
+    }
+
+    private static class IgnoringObserver implements StreamObserver<None> {
+        @Override
+        public void onNext(None value) {
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            Logger.warn("Architect rejected replayed event: {}", t.getMessage());
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+    }
+}
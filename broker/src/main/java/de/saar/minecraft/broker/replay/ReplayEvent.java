@@ -0,0 +1,92 @@
+package de.saar.minecraft.broker.replay;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.util.JsonFormat;
+import de.saar.minecraft.broker.Broker;
+import de.saar.minecraft.broker.db.GameLogsDirection;
+import de.saar.minecraft.broker.db.GameStatus;
+import de.saar.minecraft.shared.BlockDestroyedMessage;
+import de.saar.minecraft.shared.BlockPlacedMessage;
+import de.saar.minecraft.shared.StatusMessage;
+import java.time.LocalDateTime;
+
+/**
+ * An event of a recorded game that is replayed against an architect: a status update,
+ * a placed or destroyed block, or the player becoming ready.
+ */
+public class ReplayEvent {
+    private static final JsonFormat.Parser parser = JsonFormat.parser().ignoringUnknownFields();
+
+    private final LocalDateTime timestamp;
+    private final Message message;
+
+    private ReplayEvent(LocalDateTime timestamp, Message message) {
+        this.timestamp = timestamp;
+        this.message = message;
+    }
+
+    /**
+     * Creates the replay event for a row of the GAME_LOGS table.
+     *
+     * @param direction the direction column
+     * @param messageType the message_type column
+     * @param message the message column
+     * @param timestamp the timestamp column
+     * @return the event or null if the row does not describe an event sent to the architect
+     * @throws InvalidProtocolBufferException if the message cannot be parsed
+     */
+    public static ReplayEvent fromLogRow(String direction,
+                                         String messageType,
+                                         String message,
+                                         LocalDateTime timestamp)
+            throws InvalidProtocolBufferException {
+        if (GameLogsDirection.None.name().equals(direction)
+                && "LOG".equals(messageType)
+                && Broker.isStatusChangedText(message, GameStatus.Running)) {
+            // logged by the broker when the client calls playerReady
+            return new ReplayEvent(timestamp, null);
+        }
+        if (!GameLogsDirection.FromClient.name().equals(direction)) {
+            return null;
+        }
+        Message.Builder builder;
+        switch (messageType) {
+            case "StatusMessage":
+                builder = StatusMessage.newBuilder();
+                break;
+            case "BlockPlacedMessage":
+                builder = BlockPlacedMessage.newBuilder();
+                break;
+            case "BlockDestroyedMessage":
+                builder = BlockDestroyedMessage.newBuilder();
+                break;
+            default:
+                return null;
+        }
+        parser.merge(message, builder);
+        return new ReplayEvent(timestamp, builder.build());
+    }
+
+    public LocalDateTime getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the message to send to the architect, null for playerReady events.
+     */
+    public Message getMessage() {
+        return message;
+    }
+
+    public boolean isPlayerReady() {
+        return message == null;
+    }
+
+    /**
+     * Returns a short name for the type of this event.
+     */
+    public String getType() {
+        return isPlayerReady() ? "PlayerReady" : message.getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,118 @@
+package de.saar.minecraft.broker.replay;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The outcome of replaying one game: when each event was sent, what the architect
+ * sent back and when, and how long the architect took to react to each event.
+ * Every architect message is credited to the latest event sent before it, and the
+ * reaction latency of an event is the time until the first message credited to it.
+ * A message is never credited to several events, so that one slow reaction does
+ * not count many times; events that got no message, e.g. all but the last of a
+ * burst of status events, are counted separately (see {@link #getNumUnanswered()}).
+ */
+public class ReplayResult {
+    private final int gameId;
+    private final String scenario;
+    private final List<ReplayEvent> events;
+    private final long[] sendTimes;
+    private final List<GameReplay.Output> outputs;
+    private final long durationNanos;
+    private final long[] latencies;
+
+    ReplayResult(int gameId,
+                 String scenario,
+                 List<ReplayEvent> events,
+                 long[] sendTimes,
+                 List<GameReplay.Output> outputs,
+                 long durationNanos) {
+        this.gameId = gameId;
+        this.scenario = scenario;
+        this.events = events;
+        this.sendTimes = sendTimes;
+        this.outputs = outputs;
+        this.durationNanos = durationNanos;
+        this.latencies = computeLatencies();
+    }
+
+    /**
+     * Credits every output to the latest event sent before it and returns, for every
+     * event, the time until the first output credited to it; -1 if there is none.
+     * The send times are ascending.
+     */
+    private long[] computeLatencies() {
+        long[] ret = new long[sendTimes.length];
+        Arrays.fill(ret, -1);
+        for (GameReplay.Output output : outputs) {
+            long time = output.getOffsetNanos();
+            int pos = Arrays.binarySearch(sendTimes, time);
+            // the latest event sent at or before the output
+            int event = pos >= 0 ? pos : -pos - 2;
+            while (pos >= 0 && event + 1 < sendTimes.length && sendTimes[event + 1] == time) {
+                event++;
+            }
+            if (event >= 0 && (ret[event] < 0 || time - sendTimes[event] < ret[event])) {
+                ret[event] = time - sendTimes[event];
+            }
+        }
+        return ret;
+    }
+
+    public int getGameId() {
+        return gameId;
+    }
+
+    public String getScenario() {
+        return scenario;
+    }
+
+    public int getNumEvents() {
+        return events.size();
+    }
+
+    public List<GameReplay.Output> getOutputs() {
+        return outputs;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * Returns the number of events no architect message was credited to.
+     */
+    public int getNumUnanswered() {
+        return (int) Arrays.stream(latencies).filter(x -> x < 0).count();
+    }
+
+    /**
+     * Returns the reaction latencies in milliseconds of all events the architect reacted to.
+     */
+    public double[] getLatenciesMillis() {
+        return Arrays.stream(latencies)
+                .filter(x -> x >= 0)
+                .mapToDouble(x -> x / 1e6)
+                .toArray();
+    }
+
+    /**
+     * Writes one tab-separated line per sent event and per received message.
+     * Columns: game id, direction (sent/received), type, offset since the start
+     * of the replay in ms, reaction latency in ms (sent events only), text.
+     */
+    public void writeTsv(PrintWriter out) {
+        for (int i = 0; i < events.size(); i++) {
+            out.printf(Locale.ROOT, "%d\tsent\t%s\t%.3f\t%s\t%n", gameId, events.get(i).getType(),
+                    sendTimes[i] / 1e6,
+                    latencies[i] < 0 ? "" : String.format(Locale.ROOT, "%.3f", latencies[i] / 1e6));
+        }
+        for (GameReplay.Output output : outputs) {
+            out.printf(Locale.ROOT, "%d\treceived\t%s\t%.3f\t\t%s%n", gameId, output.getType(),
+                    output.getOffsetNanos() / 1e6,
+                    output.getText().replace('\t', ' ').replace('\n', ' '));
+        }
+    }
+}
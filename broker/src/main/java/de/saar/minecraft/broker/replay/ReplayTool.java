@@ -0,0 +1,321 @@
+package de.saar.minecraft.broker.replay;
+
+import static de.saar.minecraft.broker.db.Tables.GAMES;
+import static de.saar.minecraft.broker.db.Tables.GAME_LOGS;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import de.saar.minecraft.broker.BrokerConfiguration;
+import de.saar.minecraft.broker.db.GameLogsDirection;
+import de.saar.minecraft.broker.db.tables.records.GameLogsRecord;
+import de.saar.minecraft.broker.logging.FileGameLogSink;
+import de.saar.minecraft.broker.logging.GameLogEntry;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.jooq.Cursor;
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+
+/**
+ * Replays recorded games against an architect server to measure how fast the
+ * architect reacts, without recruiting players.  Events are read from the
+ * GAME_LOGS table of the database configured in broker-config.yaml or from a
+ * tab-separated export of GAME_LOGS (as written by {@code mysql -B}, with the
+ * columns gameid, direction, message_type, message and timestamp) or from a
+ * file written by the file game log sink (ending in .ndjson or .jsonl).
+ *
+ * <p>Usage: {@code ReplayTool [options] [gameId | from-to ...]}. Options:
+ * --architect host:port (default localhost:10000),
+ * --speed factor or "max" (default 1),
+ * --linger ms to wait for messages after the last event (default 2000),
+ * --parallel number of games replayed at once (default 1),
+ * --output file for a tab-separated record of all events and messages,
+ * --config broker configuration with the database (default broker-config.yaml),
+ * --file GAME_LOGS export or game log file to read instead of the database,
+ * --scenario scenario of the games in the export.</p>
+ */
+public class ReplayTool {
+
+    /**
+     * Runs the replay tool.
+     *
+     * @param args see the class documentation
+     * @throws Exception if the events cannot be read or the replay fails
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        List<Integer> gameIds = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("--")) {
+                if (i + 1 == args.length) {
+                    usage("Missing value for " + args[i]);
+                }
+                options.put(args[i].substring(2), args[++i]);
+            } else if (args[i].contains("-")) {
+                String[] range = args[i].split("-", 2);
+                for (int id = Integer.parseInt(range[0]); id <= Integer.parseInt(range[1]); id++) {
+                    gameIds.add(id);
+                }
+            } else {
+                gameIds.add(Integer.parseInt(args[i]));
+            }
+        }
+
+        Map<Integer, List<ReplayEvent>> events;
+        Map<Integer, String> scenarios = new HashMap<>();
+        if (options.containsKey("file")) {
+            if (!options.containsKey("scenario")) {
+                usage("--file requires --scenario");
+            }
+            String file = options.get("file");
+            events = file.endsWith(".ndjson") || file.endsWith(".jsonl")
+                    ? readGameLogFile(Path.of(file))
+                    : readExport(Path.of(file));
+            if (!gameIds.isEmpty()) {
+                events.keySet().retainAll(gameIds);
+            }
+            for (int id : events.keySet()) {
+                scenarios.put(id, options.get("scenario"));
+            }
+        } else {
+            if (gameIds.isEmpty()) {
+                usage("No games given");
+            }
+            var config = BrokerConfiguration.loadYaml(
+                    new FileReader(options.getOrDefault("config", "broker-config.yaml")));
+            events = new TreeMap<>();
+            try (Connection conn = connect(config.readDatabaseOrPrimary())) {
+                DSLContext jooq = DSL.using(conn,
+                        SQLDialect.valueOf(config.readDatabaseOrPrimary().getSqlDialect()));
+                for (int id : gameIds) {
+                    String scenario = jooq.select(GAMES.SCENARIO)
+                            .from(GAMES)
+                            .where(GAMES.ID.eq(id))
+                            .fetchOne(GAMES.SCENARIO);
+                    if (scenario == null) {
+                        System.err.printf("No game with ID %d, skipping.%n", id);
+                        continue;
+                    }
+                    scenarios.put(id, scenario);
+                    events.put(id, readDatabase(jooq, id));
+                }
+            }
+        }
+
+        String speedOption = options.getOrDefault("speed", "1");
+        double speed = "max".equals(speedOption) ? 0 : Double.parseDouble(speedOption);
+        long linger = Long.parseLong(options.getOrDefault("linger", "2000"));
+        int parallel = Integer.parseInt(options.getOrDefault("parallel", "1"));
+        String[] architect = options.getOrDefault("architect", "localhost:10000").split(":");
+
+        ManagedChannel channel = ManagedChannelBuilder
+                .forAddress(architect[0], Integer.parseInt(architect[1]))
+                .usePlaintext()
+                .build();
+        ExecutorService executor = Executors.newFixedThreadPool(parallel);
+        List<ReplayResult> results = new ArrayList<>();
+        long start = System.nanoTime();
+        try {
+            var replay = new GameReplay(channel, speed, linger);
+            List<Future<ReplayResult>> futures = new ArrayList<>();
+            for (var entry : events.entrySet()) {
+                int id = entry.getKey();
+                futures.add(executor.submit(
+                        () -> replay.replay(id, scenarios.get(id), entry.getValue())));
+            }
+            for (var future : futures) {
+                results.add(future.get());
+            }
+        } finally {
+            executor.shutdown();
+            channel.shutdown();
+        }
+        long wallNanos = System.nanoTime() - start;
+
+        if (options.containsKey("output")) {
+            try (var out = new PrintWriter(Files.newBufferedWriter(Path.of(options.get("output")),
+                    StandardCharsets.UTF_8))) {
+                out.println("game_id\tdirection\ttype\toffset_ms\tlatency_ms\ttext");
+                for (ReplayResult result : results) {
+                    result.writeTsv(out);
+                }
+            }
+        }
+        printSummary(results, wallNanos);
+    }
+
+    private static void printSummary(List<ReplayResult> results, long wallNanos) {
+        var all = new DescriptiveStatistics();
+        int numEvents = 0;
+        int numOutputs = 0;
+        int numUnanswered = 0;
+        for (ReplayResult result : results) {
+            var game = new DescriptiveStatistics(result.getLatenciesMillis());
+            System.out.printf(Locale.ROOT,
+                    "game %d (%s): %d events, %d messages, %d events without reaction, "
+                            + "latency ms p50 %.1f p90 %.1f max %.1f%n",
+                    result.getGameId(), result.getScenario(), result.getNumEvents(),
+                    result.getOutputs().size(), result.getNumUnanswered(),
+                    game.getPercentile(50), game.getPercentile(90), game.getMax());
+            Arrays.stream(result.getLatenciesMillis()).forEach(all::addValue);
+            numEvents += result.getNumEvents();
+            numOutputs += result.getOutputs().size();
+            numUnanswered += result.getNumUnanswered();
+        }
+        double seconds = wallNanos / 1e9;
+        System.out.printf(Locale.ROOT,
+                "%d games, %d events, %d messages in %.1f s (%.1f events/s)%n"
+                        + "%d events without reaction%n"
+                        + "latency ms: p50 %.1f p90 %.1f p99 %.1f max %.1f%n",
+                results.size(), numEvents, numOutputs, seconds, numEvents / seconds,
+                numUnanswered,
+                all.getPercentile(50), all.getPercentile(90), all.getPercentile(99),
+                all.getMax());
+    }
+
+    private static Connection connect(BrokerConfiguration.DatabaseAddress db) throws SQLException {
+        if (db == null) {
+            usage("No database configured");
+        }
+        return DriverManager.getConnection(db.getUrl(), db.getUsername(), db.getPassword());
+    }
+
+    /**
+     * Reads the replayable events of one game from the database.
+     */
+    static List<ReplayEvent> readDatabase(DSLContext jooq, int gameId)
+            throws InvalidProtocolBufferException {
+        List<ReplayEvent> ret = new ArrayList<>();
+        try (Cursor<GameLogsRecord> cursor = jooq.selectFrom(GAME_LOGS)
+                .where(GAME_LOGS.GAMEID.eq(gameId))
+                .and(GAME_LOGS.DIRECTION.eq(GameLogsDirection.FromClient)
+                        .or(GAME_LOGS.MESSAGE_TYPE.eq("LOG")))
+                .orderBy(GAME_LOGS.ID.asc())
+                .fetchLazy()) {
+            for (GameLogsRecord rec : cursor) {
+                var event = ReplayEvent.fromLogRow(
+                        rec.getDirection() == null ? null : rec.getDirection().name(),
+                        rec.getMessageType(), rec.getMessage(), rec.getTimestamp());
+                if (event != null) {
+                    ret.add(event);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Reads the replayable events of all games in a tab-separated GAME_LOGS export
+     * with a header line, as written by {@code mysql -B}.
+     */
+    static Map<Integer, List<ReplayEvent>> readExport(Path file) throws IOException {
+        Map<Integer, List<ReplayEvent>> ret = new TreeMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            List<String> header = Arrays.asList(reader.readLine().split("\t"));
+            int gameIdCol = header.indexOf("gameid");
+            int directionCol = header.indexOf("direction");
+            int typeCol = header.indexOf("message_type");
+            int messageCol = header.indexOf("message");
+            int timestampCol = header.indexOf("timestamp");
+            if (gameIdCol < 0 || directionCol < 0 || typeCol < 0 || messageCol < 0
+                    || timestampCol < 0) {
+                throw new IOException("Expected columns gameid, direction, message_type, "
+                        + "message and timestamp in " + file);
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] row = line.split("\t", -1);
+                var event = ReplayEvent.fromLogRow(row[directionCol], row[typeCol],
+                        unescape(row[messageCol]),
+                        LocalDateTime.parse(row[timestampCol].replace(' ', 'T')));
+                if (event != null) {
+                    ret.computeIfAbsent(Integer.parseInt(row[gameIdCol]), x -> new ArrayList<>())
+                            .add(event);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Reads the replayable events of all games in a file written by the
+     * file game log sink (see {@link FileGameLogSink}).
+     */
+    static Map<Integer, List<ReplayEvent>> readGameLogFile(Path file) throws IOException {
+        List<GameLogEntry> entries = new ArrayList<>();
+        FileGameLogSink.read(file, entries::add);
+        Map<Integer, List<ReplayEvent>> ret = new TreeMap<>();
+        for (GameLogEntry entry : entries) {
+            var event = ReplayEvent.fromLogRow(
+                    entry.getDirection() == null ? null : entry.getDirection().name(),
+                    entry.getMessageType(), entry.getMessage(), entry.getTimestamp());
+            if (event != null) {
+                ret.computeIfAbsent(entry.getGameId(), x -> new ArrayList<>()).add(event);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Undoes the escaping of special characters in {@code mysql -B} output.
+     */
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        var ret = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                switch (next) {
+                    case 'n':
+                        ret.append('\n');
+                        break;
+                    case 't':
+                        ret.append('\t');
+                        break;
+                    case '0':
+                        ret.append('\0');
+                        break;
+                    default:
+                        ret.append(next);
+                        break;
+                }
+            } else {
+                ret.append(c);
+            }
+        }
+        return ret.toString();
+    }
+
+    private static void usage(String error) {
+        System.err.println(error);
+        System.err.println("Usage: ReplayTool [--architect host:port] [--speed factor|max] "
+                + "[--linger ms] [--parallel n] [--output file.tsv] [--config broker-config.yaml] "
+                + "[--file export.tsv --scenario name] [gameId | from-to ...]");
+        System.exit(1);
+    }
+}
@@ -0,0 +1,10 @@
+CREATE TABLE if not exists REACTION_TIMES (
+  id int(11) unsigned NOT NULL AUTO_INCREMENT PRIMARY KEY,
+  gameid int(11),
+  event_type varchar(50),
+  reaction_type varchar(50),
+  latency_ms int(11),
+  timestamp TIMESTAMP(3)
+);
+
+CREATE INDEX reaction_times_gameid ON REACTION_TIMES (gameid);
@@ -0,0 +1,31 @@
+CREATE TABLE if not exists GAME_SUMMARY (
+  gameid int(11) NOT NULL PRIMARY KEY,
+  num_blocks_placed int(11) NOT NULL DEFAULT 0,
+  num_blocks_destroyed int(11) NOT NULL DEFAULT 0,
+  num_mistakes int(11) NOT NULL DEFAULT 0,
+  last_game_state varchar(50),
+  success_time TIMESTAMP(3) NULL,
+  first_timestamp TIMESTAMP(3) NULL,
+  last_timestamp TIMESTAMP(3) NULL
+);
+
+-- summarize the games played before this table existed
+INSERT INTO GAME_SUMMARY (gameid, num_blocks_placed, num_blocks_destroyed, num_mistakes,
+                          success_time, first_timestamp, last_timestamp)
+SELECT gameid,
+       SUM(CASE WHEN direction = 'FromClient' AND message_type = 'BlockPlacedMessage'
+                THEN 1 ELSE 0 END),
+       SUM(CASE WHEN direction = 'FromClient' AND message_type = 'BlockDestroyedMessage'
+                THEN 1 ELSE 0 END),
+       SUM(CASE WHEN direction = 'PassToClient' AND message_type = 'TextMessage'
+                     AND message LIKE '%Not there! please remove that block again%'
+                THEN 1 ELSE 0 END),
+       MIN(CASE WHEN message LIKE '%"newGameState": "SuccessfullyFinished"%'
+                THEN timestamp END),
+       MIN(timestamp),
+       MAX(timestamp)
+FROM GAME_LOGS
+WHERE gameid IS NOT NULL
+GROUP BY gameid;
+
+UPDATE GAME_SUMMARY SET last_game_state = 'SuccessfullyFinished' WHERE success_time IS NOT NULL;
@@ -0,0 +1,11 @@
+CREATE TABLE if not exists SCENARIO_STATISTICS (
+  scenario varchar(200) NOT NULL,
+  architect_info varchar(500) NOT NULL,
+  num_games int(11) NOT NULL DEFAULT 0,
+  num_successful int(11) NOT NULL DEFAULT 0,
+  sum_completion_seconds bigint NOT NULL DEFAULT 0,
+  num_mistakes int(11) NOT NULL DEFAULT 0,
+  num_games_with_mistakes int(11) NOT NULL DEFAULT 0,
+  completion_histogram varchar(4000),
+  PRIMARY KEY (scenario, architect_info)
+);
@@ -0,0 +1,4 @@
+ALTER TABLE GAME_LOGS ADD COLUMN mono_nanos bigint;
+ALTER TABLE GAME_LOGS ADD COLUMN game_seq int(11);
+
+CREATE INDEX game_logs_gameid_seq ON GAME_LOGS (gameid, game_seq);
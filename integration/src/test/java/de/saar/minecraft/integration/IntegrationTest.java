@@ -5,8 +5,12 @@ import de.saar.minecraft.architect.DummyArchitect;
 import de.saar.minecraft.broker.Broker;
 import de.saar.minecraft.broker.BrokerConfiguration;
 import de.saar.minecraft.broker.TestClient;
+import de.saar.minecraft.broker.db.GameLogsDirection;
+import de.saar.minecraft.broker.logging.MemoryGameLogSink;
 import de.saar.minecraft.shared.None;
 import de.saar.minecraft.shared.TextMessage;
+import de.saar.minecraft.tracing.TraceContext;
+import de.saar.minecraft.tracing.Tracer;
 import io.grpc.stub.StreamObserver;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -24,6 +28,8 @@ public class IntegrationTest {
 
     private static final int ARCHITECT_PORT = 20001;
     private static final int BROKER_PORT = 20002;
+    private static final int IN_PROCESS_BROKER_PORT = 20003;
+    private static final int SHADOW_BROKER_PORT = 20004;
 
     /**
      * Starts a new architectServer, broker, and client.
@@ -186,4 +192,135 @@ public class IntegrationTest {
         boolean errorReceived = latch.await(2000, TimeUnit.MILLISECONDS);
         assert errorReceived;
     }
+
+    @Test
+    public void testTraceContextReachesClient() throws InterruptedException {
+        List<String> traceIds = new ArrayList<>();
+        client.enableTracing(new Tracer("client",
+                (serviceName, span) -> traceIds.add(span.context().getTraceId())), 1);
+        CountDownLatch latch = new CountDownLatch(1);
+        List<String> traceParents = new ArrayList<>();
+        int gameId = client.registerGame("test", new StreamObserver<>() {
+            @Override
+            public void onNext(TextMessage value) {
+                traceParents.add(value.getTraceParent());
+                latch.countDown();
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+
+            @Override
+            public void onCompleted() {
+            }
+        });
+        client.sendStatusMessage(gameId, 1, 2, 3, 0.4, 0.0, -0.7);
+        assert latch.await(2000, TimeUnit.MILLISECONDS);
+        client.finishGame(gameId);
+
+        // the architect's answer belongs to the trace the client started for the game
+        assert traceIds.size() == 1;
+        var context = TraceContext.fromTraceParent(traceParents.get(0));
+        assert context != null && context.getTraceId().equals(traceIds.get(0));
+    }
+
+    @Test
+    public void testInProcessArchitect() throws IOException, InterruptedException {
+        var inProcessArchitect = new ArchitectServer(0, "integration-test", null,
+            () -> new DummyArchitect(0, true, 1));
+        inProcessArchitect.start();
+
+        BrokerConfiguration config = new BrokerConfiguration();
+        config.setPort(IN_PROCESS_BROKER_PORT);
+        config.setScenarios(List.of("house"));
+        var addr = new BrokerConfiguration.ArchitectServerAddress();
+        addr.setInProcessName("integration-test");
+        config.setArchitectServers(List.of(addr));
+        var inProcessBroker = new Broker(config);
+        inProcessBroker.start();
+        var inProcessClient = new TestClient("localhost", IN_PROCESS_BROKER_PORT);
+
+        try {
+            CountDownLatch latch = new CountDownLatch(1);
+            int gameId = inProcessClient.registerGame("test", new StreamObserver<>() {
+                @Override
+                public void onNext(TextMessage value) {
+                    latch.countDown();
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                }
+
+                @Override
+                public void onCompleted() {
+                }
+            });
+            inProcessClient.sendStatusMessage(gameId, 1, 2, 3, 0.4, 0.0, -0.7);
+            assert latch.await(2000, TimeUnit.MILLISECONDS);
+            inProcessClient.finishGame(gameId);
+        } finally {
+            inProcessClient.shutdown();
+            inProcessBroker.stop();
+            inProcessArchitect.stop();
+        }
+    }
+
+    @Test
+    public void testShadowArchitect() throws IOException, InterruptedException {
+        var shadowArchitect = new ArchitectServer(0, "integration-test-shadow", null,
+            () -> new DummyArchitect(0, true, 1));
+        shadowArchitect.start();
+
+        BrokerConfiguration config = new BrokerConfiguration();
+        config.setPort(SHADOW_BROKER_PORT);
+        config.setScenarios(List.of("house"));
+        config.setArchitectServers(List.of(
+            new BrokerConfiguration.ArchitectServerAddress("localhost", ARCHITECT_PORT)));
+        var shadowAddr = new BrokerConfiguration.ArchitectServerAddress();
+        shadowAddr.setInProcessName("integration-test-shadow");
+        config.setShadowArchitect(shadowAddr);
+        var sinkConfig = new BrokerConfiguration.GameLogSinkConfiguration();
+        sinkConfig.setType("memory");
+        config.setGameLogSinks(List.of(sinkConfig));
+        var shadowBroker = new Broker(config);
+        shadowBroker.start();
+        var shadowClient = new TestClient("localhost", SHADOW_BROKER_PORT);
+
+        try {
+            CountDownLatch latch = new CountDownLatch(1);
+            int gameId = shadowClient.registerGame("test", new StreamObserver<>() {
+                @Override
+                public void onNext(TextMessage value) {
+                    latch.countDown();
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                }
+
+                @Override
+                public void onCompleted() {
+                }
+            });
+            shadowClient.sendStatusMessage(gameId, 1, 2, 3, 0.4, 0.0, -0.7);
+            assert latch.await(2000, TimeUnit.MILLISECONDS);
+
+            // the answer of the shadow architect is logged
+            var sink = (MemoryGameLogSink) shadowBroker.getGameLogSink();
+            boolean shadowLogged = false;
+            for (int i = 0; i < 20 && !shadowLogged; i++) {
+                shadowLogged = sink.getEntries(gameId).stream()
+                    .anyMatch(e -> e.getDirection() == GameLogsDirection.FromShadowArchitect);
+                Thread.sleep(100);
+            }
+            assert shadowLogged;
+            shadowClient.finishGame(gameId);
+        } finally {
+            shadowClient.shutdown();
+            shadowBroker.stop();
+            shadowArchitect.stop();
+        }
+    }
 }
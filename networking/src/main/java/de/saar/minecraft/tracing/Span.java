@@ -0,0 +1,160 @@
+package de.saar.minecraft.tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One timed stage of the work on a trace, e.g. the handling of an RPC or the
+ * computation of an architect.  Spans are started with {@link Tracer#startSpan} and
+ * exported when they end.  Spans of traces that are not sampled are not recorded;
+ * all methods are cheap for them.
+ */
+public final class Span {
+    /** A span that is not recorded and not part of any trace. */
+    static final Span NONE = new Span(null, null, null, null, null);
+
+    /** The role of a span in an RPC. */
+    public enum Kind {
+        /** handling an RPC that was received. */
+        SERVER,
+        /** waiting for the answer to an RPC that was sent. */
+        CLIENT,
+        /** anything else. */
+        INTERNAL
+    }
+
+    private final Tracer tracer;
+    private final String name;
+    private final Kind kind;
+    private final TraceContext context;
+    private final String parentSpanId;
+    private final long startMicros;
+    private final long startNanos;
+    private long durationMicros = -1;
+    private List<String[]> tags;
+    private List<Object[]> annotations;
+
+    Span(Tracer tracer, String name, Kind kind, TraceContext context, String parentSpanId) {
+        this.tracer = tracer;
+        this.name = name;
+        this.kind = kind;
+        this.context = context;
+        this.parentSpanId = parentSpanId;
+        if (tracer != null) {
+            this.startMicros = Tracer.epochMicros();
+            this.startNanos = System.nanoTime();
+        } else {
+            this.startMicros = 0;
+            this.startNanos = 0;
+        }
+    }
+
+    /**
+     * Returns the trace context of this span, which is passed on to the work done
+     * for it.
+     * @return the trace context, or null if this span is not part of a trace
+     */
+    public TraceContext context() {
+        return context;
+    }
+
+    /**
+     * Checks whether this span is recorded and exported when it ends.
+     * @return true if the span is recorded
+     */
+    public boolean isRecording() {
+        return tracer != null;
+    }
+
+    /**
+     * Adds a tag, e.g. the game ID, to the span.
+     * @param key the key
+     * @param value the value
+     * @return this span
+     */
+    public Span tag(String key, Object value) {
+        if (tracer != null) {
+            synchronized (this) {
+                if (tags == null) {
+                    tags = new ArrayList<>();
+                }
+                tags.add(new String[] {key, String.valueOf(value)});
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Records that something happened at this moment while the span was running,
+     * e.g. that a waiting event was picked up.
+     * @param value what happened
+     */
+    public void annotate(String value) {
+        if (tracer != null) {
+            long micros = Tracer.epochMicros();
+            synchronized (this) {
+                if (annotations == null) {
+                    annotations = new ArrayList<>();
+                }
+                annotations.add(new Object[] {micros, value});
+            }
+        }
+    }
+
+    /**
+     * Runs the given work with the context of this span as the current trace context,
+     * so that spans started by it and RPCs it sends belong to this span.
+     * @param work the work
+     */
+    public void run(Runnable work) {
+        if (context == null) {
+            work.run();
+        } else {
+            context.toGrpcContext().run(work);
+        }
+    }
+
+    /**
+     * Ends the span and exports it if it is recorded.  Only the first call has an effect.
+     */
+    public void end() {
+        if (tracer == null) {
+            return;
+        }
+        synchronized (this) {
+            if (durationMicros >= 0) {
+                return;
+            }
+            durationMicros = Math.max(1, (System.nanoTime() - startNanos) / 1000);
+        }
+        tracer.export(this);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Kind getKind() {
+        return kind;
+    }
+
+    String getParentSpanId() {
+        return parentSpanId;
+    }
+
+    long getStartMicros() {
+        return startMicros;
+    }
+
+    synchronized long getDurationMicros() {
+        return durationMicros;
+    }
+
+    synchronized List<String[]> getTags() {
+        return tags == null ? List.of() : new ArrayList<>(tags);
+    }
+
+    synchronized List<Object[]> getAnnotations() {
+        return annotations == null ? List.of() : new ArrayList<>(annotations);
+    }
+}
@@ -0,0 +1,30 @@
+package de.saar.minecraft.tracing;
+
+/**
+ * Stores the spans that were recorded by a {@link Tracer}.  Implementations must be
+ * thread-safe, as spans end on the threads of all games.
+ */
+public interface SpanExporter extends AutoCloseable {
+    /**
+     * Stores a span that has ended.  Exporters may buffer spans until {@link #flush()}
+     * is called.  This is called when the span ends, on the path of the traced call,
+     * so exporters must not throw if they cannot store the span.
+     * @param serviceName the process that recorded the span, e.g. broker
+     * @param span the span
+     */
+    void export(String serviceName, Span span);
+
+    /**
+     * Makes sure all spans exported so far are stored.
+     */
+    default void flush() {
+    }
+
+    /**
+     * Flushes the exporter and releases its resources.
+     */
+    @Override
+    default void close() {
+        flush();
+    }
+}
@@ -0,0 +1,136 @@
+package de.saar.minecraft.tracing;
+
+import io.grpc.Context;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Identifies a span within a trace, as in the W3C trace context standard.  Trace
+ * contexts are passed between broker, architect servers and clients in the
+ * "traceparent" gRPC header (see {@link TracingInterceptor}); within a process, the
+ * trace context of the span that is currently running is kept in the gRPC
+ * {@link Context}, see {@link #current()}.
+ */
+public final class TraceContext {
+    /** Key of the current trace context in the gRPC context. */
+    static final Context.Key<TraceContext> KEY = Context.key("traceparent");
+
+    private final String traceId;
+    private final String spanId;
+    private final boolean sampled;
+
+    private TraceContext(String traceId, String spanId, boolean sampled) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.sampled = sampled;
+    }
+
+    /**
+     * Starts a new trace.
+     * @param sampled whether the spans of the trace are recorded
+     * @return the context of the root span of the trace
+     */
+    public static TraceContext newTrace(boolean sampled) {
+        var random = ThreadLocalRandom.current();
+        return new TraceContext(hex(random.nextLong()) + hex(random.nextLong()),
+                hex(random.nextLong()), sampled);
+    }
+
+    /**
+     * Returns the context of a new span within the same trace.
+     * @return the context of the child span
+     */
+    public TraceContext newChild() {
+        return new TraceContext(traceId, hex(ThreadLocalRandom.current().nextLong()), sampled);
+    }
+
+    /**
+     * Returns the trace context of the span that is currently running on this thread.
+     * @return the trace context, or null if the current work is not traced
+     */
+    public static TraceContext current() {
+        return KEY.get();
+    }
+
+    /**
+     * Returns a gRPC context in which this trace context is the current one.  Work
+     * done e.g. on other threads can be traced with {@link Context#wrap(Runnable)}.
+     * @return the gRPC context
+     */
+    public Context toGrpcContext() {
+        return Context.current().withValue(KEY, this);
+    }
+
+    /**
+     * Parses a W3C traceparent header, e.g.
+     * 00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01.
+     * @param traceParent the header value
+     * @return the trace context, or null if the header is empty or malformed
+     */
+    public static TraceContext fromTraceParent(String traceParent) {
+        if (traceParent == null || traceParent.length() != 55
+                || traceParent.charAt(2) != '-' || traceParent.charAt(35) != '-'
+                || traceParent.charAt(52) != '-') {
+            return null;
+        }
+        String traceId = traceParent.substring(3, 35);
+        String spanId = traceParent.substring(36, 52);
+        if (!isHex(traceId) || !isHex(spanId) || !isHex(traceParent.substring(53))) {
+            return null;
+        }
+        int flags = Integer.parseInt(traceParent.substring(53), 16);
+        return new TraceContext(traceId, spanId, (flags & 1) != 0);
+    }
+
+    /**
+     * Formats this trace context as a W3C traceparent header.
+     * @return the header value
+     */
+    public String toTraceParent() {
+        return "00-" + traceId + "-" + spanId + (sampled ? "-01" : "-00");
+    }
+
+    /**
+     * Returns the ID of the trace, 32 hex digits.
+     * @return the trace ID
+     */
+    public String getTraceId() {
+        return traceId;
+    }
+
+    /**
+     * Returns the ID of the span, 16 hex digits.
+     * @return the span ID
+     */
+    public String getSpanId() {
+        return spanId;
+    }
+
+    /**
+     * Checks whether the spans of this trace are recorded.  The decision is made once
+     * per trace, e.g. per game, and passed on to all processes the trace goes through.
+     * @return true if the trace is sampled
+     */
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    @Override
+    public String toString() {
+        return toTraceParent();
+    }
+
+    private static String hex(long value) {
+        String digits = Long.toHexString(value);
+        return "0000000000000000".substring(digits.length()) + digits;
+    }
+
+    private static boolean isHex(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
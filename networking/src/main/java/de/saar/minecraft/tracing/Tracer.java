@@ -0,0 +1,111 @@
+package de.saar.minecraft.tracing;
+
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Starts the spans of one process, e.g. the broker, and hands them to an exporter
+ * when they end.  A tracer without an exporter records nothing, but still passes on
+ * the trace contexts it gets, so that the processes after it can record their spans.
+ */
+public class Tracer {
+    private final String serviceName;
+    private final SpanExporter exporter;
+
+    /**
+     * Creates a tracer.
+     * @param serviceName name of the process in the exported spans, e.g. broker
+     * @param exporter where the spans go, or null to record no spans
+     */
+    public Tracer(String serviceName, SpanExporter exporter) {
+        this.serviceName = serviceName;
+        this.exporter = exporter;
+    }
+
+    /**
+     * Checks whether this tracer records spans.
+     * @return true if the tracer has an exporter
+     */
+    public boolean isEnabled() {
+        return exporter != null;
+    }
+
+    /**
+     * Starts a new trace, e.g. for a game, and its root span.  Whether the trace is
+     * sampled is decided at random here, once for the whole trace.
+     * @param name name of the root span
+     * @param sampleRate fraction of traces that are sampled, between 0 and 1
+     * @return the root span, which is not part of any trace if the trace is not sampled
+     */
+    public Span startTrace(String name, double sampleRate) {
+        if (exporter == null || ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return Span.NONE;
+        }
+        return new Span(this, name, Span.Kind.INTERNAL, TraceContext.newTrace(true), null);
+    }
+
+    /**
+     * Starts a span within the trace of the given parent.
+     * @param name name of the span, e.g. the RPC method
+     * @param kind role of the span in an RPC
+     * @param parent context of the parent span, or null
+     * @return the span; it is only recorded if the parent's trace is sampled
+     */
+    public Span startSpan(String name, Span.Kind kind, TraceContext parent) {
+        if (parent == null) {
+            return Span.NONE;
+        }
+        if (exporter == null || !parent.isSampled()) {
+            // not recorded here, but the processes after us still learn the trace
+            return new Span(null, null, null, parent, null);
+        }
+        return new Span(this, name, kind, parent.newChild(), parent.getSpanId());
+    }
+
+    /**
+     * Starts a span within the trace of the given parent.
+     * @param name name of the span
+     * @param parent context of the parent span, or null
+     * @return the span; it is only recorded if the parent's trace is sampled
+     */
+    public Span startSpan(String name, TraceContext parent) {
+        return startSpan(name, Span.Kind.INTERNAL, parent);
+    }
+
+    /**
+     * Starts a span that is a child of the current trace context, see
+     * {@link TraceContext#current()}.
+     * @param name name of the span
+     * @return the span; it is only recorded if the current trace is sampled
+     */
+    public Span startSpan(String name) {
+        return startSpan(name, Span.Kind.INTERNAL, TraceContext.current());
+    }
+
+    void export(Span span) {
+        exporter.export(serviceName, span);
+    }
+
+    /**
+     * Makes sure all spans that have ended are stored.
+     */
+    public void flush() {
+        if (exporter != null) {
+            exporter.flush();
+        }
+    }
+
+    /**
+     * Flushes and closes the exporter.
+     */
+    public void close() {
+        if (exporter != null) {
+            exporter.close();
+        }
+    }
+
+    static long epochMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000 + now.getNano() / 1000;
+    }
+}
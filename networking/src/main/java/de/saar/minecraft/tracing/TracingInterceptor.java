@@ -0,0 +1,166 @@
+package de.saar.minecraft.tracing;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import java.util.function.Function;
+
+/**
+ * Passes trace contexts between processes in the W3C "traceparent" header of gRPC
+ * calls and records a span for every traced call.  As a client interceptor, it sends
+ * the current trace context (see {@link TraceContext#current()}) along with each
+ * call; as a server interceptor, it makes the trace context of the caller the current
+ * one while the call is handled.  Calls without a trace context are passed through
+ * unchanged.
+ */
+public class TracingInterceptor implements ClientInterceptor, ServerInterceptor {
+    static final Metadata.Key<String> TRACEPARENT =
+            Metadata.Key.of("traceparent", Metadata.ASCII_STRING_MARSHALLER);
+
+    private final Tracer tracer;
+    private final Function<Object, TraceContext> fallback;
+
+    /**
+     * Creates an interceptor that records spans with the given tracer.
+     * @param tracer the tracer
+     */
+    public TracingInterceptor(Tracer tracer) {
+        this(tracer, null);
+    }
+
+    /**
+     * Creates an interceptor that records spans with the given tracer.  Received calls
+     * without a trace context are traced with the context the fallback returns for
+     * their request, e.g. the trace of the game the request belongs to.
+     * @param tracer the tracer
+     * @param fallback returns the trace context for a request, or null
+     */
+    public TracingInterceptor(Tracer tracer, Function<Object, TraceContext> fallback) {
+        this.tracer = tracer;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(
+            MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
+        TraceContext parent = TraceContext.current();
+        if (parent == null) {
+            return next.newCall(method, callOptions);
+        }
+        Span span = tracer.startSpan(method.getFullMethodName(), Span.Kind.CLIENT, parent);
+        return new ForwardingClientCall.SimpleForwardingClientCall<>(
+                next.newCall(method, callOptions)) {
+            @Override
+            public void start(Listener<RespT> responseListener, Metadata headers) {
+                headers.put(TRACEPARENT, span.context().toTraceParent());
+                super.start(new ForwardingClientCallListener
+                        .SimpleForwardingClientCallListener<>(responseListener) {
+                    @Override
+                    public void onClose(Status status, Metadata trailers) {
+                        if (!status.isOk()) {
+                            span.tag("grpc.status", status.getCode());
+                        }
+                        span.end();
+                        super.onClose(status, trailers);
+                    }
+                }, headers);
+            }
+        };
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+            ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        TraceContext parent = TraceContext.fromTraceParent(headers.get(TRACEPARENT));
+        if (parent == null && fallback == null) {
+            return next.startCall(call, headers);
+        }
+        var tracedCall = new TracedServerCall<>(call);
+        if (parent != null) {
+            tracedCall.startSpan(parent);
+        }
+        return tracedCall.wrap(next.startCall(tracedCall, headers));
+    }
+
+    /**
+     * A received call whose span ends when the call is closed.  If the caller sent no
+     * trace context, the span is started when the request arrives.
+     */
+    private class TracedServerCall<ReqT, RespT>
+            extends ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT> {
+        private volatile Span span;
+
+        TracedServerCall(ServerCall<ReqT, RespT> delegate) {
+            super(delegate);
+        }
+
+        void startSpan(TraceContext parent) {
+            span = tracer.startSpan(getMethodDescriptor().getFullMethodName(),
+                    Span.Kind.SERVER, parent);
+        }
+
+        @Override
+        public void close(Status status, Metadata trailers) {
+            Span current = span;
+            if (current != null) {
+                if (!status.isOk()) {
+                    current.tag("grpc.status", status.getCode());
+                }
+                current.end();
+            }
+            super.close(status, trailers);
+        }
+
+        ServerCall.Listener<ReqT> wrap(ServerCall.Listener<ReqT> listener) {
+            return new ForwardingServerCallListener.SimpleForwardingServerCallListener<>(listener) {
+                @Override
+                public void onMessage(ReqT message) {
+                    if (span == null) {
+                        startSpan(fallback.apply(message));
+                    }
+                    span.run(() -> super.onMessage(message));
+                }
+
+                @Override
+                public void onHalfClose() {
+                    run(super::onHalfClose);
+                }
+
+                @Override
+                public void onCancel() {
+                    run(super::onCancel);
+                }
+
+                @Override
+                public void onComplete() {
+                    run(super::onComplete);
+                }
+
+                @Override
+                public void onReady() {
+                    run(super::onReady);
+                }
+            };
+        }
+
+        private void run(Runnable work) {
+            Span current = span;
+            if (current == null) {
+                work.run();
+            } else {
+                current.run(work);
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package de.saar.minecraft.tracing;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.tinylog.Logger;
+
+/**
+ * Appends spans to a file in the Zipkin v2 JSON format, one span per line.  The
+ * lines can be uploaded to Zipkin or Jaeger as a json array, e.g. with
+ * {@code jq -s . traces.ndjson | curl -H 'Content-Type: application/json'
+ * -d @- http://localhost:9411/api/v2/spans}.
+ *
+ * <p>Processes in the same JVM, e.g. a broker and an in-process architect server,
+ * share the exporter of a file, see {@link #open}.  Spans are buffered and written
+ * at most a second after they ended, by a background thread, or when the exporter
+ * is flushed.  Tracing must never break the traced calls: spans that cannot be
+ * written are logged and dropped.</p>
+ */
+public class ZipkinFileExporter implements SpanExporter {
+    private static final long FLUSH_INTERVAL_SECONDS = 1;
+    private static final Map<Path, ZipkinFileExporter> openExporters = new HashMap<>();
+    /** Flushes all open exporters periodically. */
+    private static final ScheduledExecutorService flusher =
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "zipkin-file-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final Path file;
+    private final Writer writer;
+    private final StringBuilder line = new StringBuilder();
+    private final ScheduledFuture<?> flushTask;
+    private int users;
+    /** Set after a failed write, so that a broken file is reported once and not per span. */
+    private boolean failing;
+
+    private ZipkinFileExporter(Path file) throws IOException {
+        this.file = file;
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        flushTask = flusher.scheduleWithFixedDelay(this::flush,
+                FLUSH_INTERVAL_SECONDS, FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Opens the exporter for the given file, creating the file if it does not exist.
+     * If the file is already open in this JVM, its exporter is shared; it is closed
+     * when all users have closed it.
+     * @param file the file
+     * @return the exporter
+     * @throws IOException if the file cannot be opened
+     */
+    public static ZipkinFileExporter open(Path file) throws IOException {
+        Path key = file.toAbsolutePath().normalize();
+        synchronized (openExporters) {
+            ZipkinFileExporter ret = openExporters.get(key);
+            if (ret == null) {
+                ret = new ZipkinFileExporter(key);
+                openExporters.put(key, ret);
+            }
+            synchronized (ret) {
+                ret.users++;
+            }
+            return ret;
+        }
+    }
+
+    @Override
+    public synchronized void export(String serviceName, Span span) {
+        TraceContext context = span.context();
+        line.setLength(0);
+        line.append("{\"traceId\":\"").append(context.getTraceId())
+                .append("\",\"id\":\"").append(context.getSpanId()).append('"');
+        if (span.getParentSpanId() != null) {
+            line.append(",\"parentId\":\"").append(span.getParentSpanId()).append('"');
+        }
+        line.append(",\"name\":");
+        appendString(span.getName());
+        if (span.getKind() != Span.Kind.INTERNAL) {
+            line.append(",\"kind\":\"").append(span.getKind().name()).append('"');
+        }
+        line.append(",\"timestamp\":").append(span.getStartMicros())
+                .append(",\"duration\":").append(span.getDurationMicros())
+                .append(",\"localEndpoint\":{\"serviceName\":");
+        appendString(serviceName);
+        line.append('}');
+        var annotations = span.getAnnotations();
+        if (!annotations.isEmpty()) {
+            line.append(",\"annotations\":[");
+            for (int i = 0; i < annotations.size(); i++) {
+                line.append(i == 0 ? "{" : ",{")
+                        .append("\"timestamp\":").append(annotations.get(i)[0])
+                        .append(",\"value\":");
+                appendString((String) annotations.get(i)[1]);
+                line.append('}');
+            }
+            line.append(']');
+        }
+        var tags = span.getTags();
+        if (!tags.isEmpty()) {
+            line.append(",\"tags\":{");
+            for (int i = 0; i < tags.size(); i++) {
+                if (i > 0) {
+                    line.append(',');
+                }
+                appendString(tags.get(i)[0]);
+                line.append(':');
+                appendString(tags.get(i)[1]);
+            }
+            line.append('}');
+        }
+        line.append("}\n");
+        try {
+            writer.append(line);
+            failing = false;
+        } catch (IOException e) {
+            writeFailed("Dropped span, could not write to", e);
+        }
+    }
+
+    private void writeFailed(String what, IOException e) {
+        if (!failing) {
+            failing = true;
+            Logger.warn("{} {}: {}", what, file, e.toString());
+        }
+    }
+
+    private void appendString(String value) {
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < 0x20) {
+                line.append(String.format("\\u%04x", (int) c));
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    @Override
+    public synchronized void flush() {
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            writeFailed("Dropped spans, could not write to", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (openExporters) {
+            synchronized (this) {
+                if (--users > 0) {
+                    flush();
+                    return;
+                }
+                openExporters.remove(file);
+                flushTask.cancel(false);
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    Logger.warn("Could not close {}: {}", file, e.toString());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package de.saar.minecraft.util;
+
+import java.util.List;
+import jdk.jfr.Event;
+import jdk.jfr.Recording;
+
+/**
+ * Turns on custom JDK Flight Recorder events.  The events of the broker and the
+ * architect servers are disabled by default, so that they cost next to nothing.
+ * Enabling them starts a recording that keeps them enabled; every flight recording
+ * running in the JVM, e.g. one started with -XX:StartFlightRecording or jcmd, then
+ * contains them along with the JVM's own events.
+ */
+public class FlightRecorderEvents {
+    private static Recording recording;
+
+    /**
+     * Enables the given event types for as long as the JVM runs.
+     * @param eventTypes the event types
+     */
+    public static synchronized void enable(List<Class<? extends Event>> eventTypes) {
+        if (recording == null) {
+            recording = new Recording();
+            recording.setName("minecraft-events");
+            // the events only need to be enabled; other recordings write them to disk
+            recording.setToDisk(false);
+            recording.start();
+        }
+        for (Class<? extends Event> eventType : eventTypes) {
+            recording.enable(eventType).withoutStackTrace();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package de.saar.minecraft.util;
+
+/**
+ * Tuning options for the gRPC servers of the broker and the architect servers, see
+ * {@link Transports#configure}.  All options have defaults that leave the setting of
+ * gRPC unchanged; numbers of 0 mean the default of gRPC.  The options can be read
+ * from the broker configuration, e.g.
+ * <pre>
+ * grpcServer:
+ *   executor: fixed
+ *   executorThreads: 16
+ *   workerEventLoopThreads: 4
+ *   flowControlWindow: 4194304
+ *   keepAliveTime: 60
+ *   compression: gzip
+ * </pre>
+ */
+public class ServerOptions {
+    /** The executor of gRPC, a cached thread pool. */
+    public static final String EXECUTOR_DEFAULT = "default";
+    /** A thread pool with {@link #getExecutorThreads()} threads. */
+    public static final String EXECUTOR_FIXED = "fixed";
+    /** A new virtual thread per call; needs Java 21. */
+    public static final String EXECUTOR_VIRTUAL = "virtual";
+    /** The event loop threads themselves; only for handlers that never block. */
+    public static final String EXECUTOR_DIRECT = "direct";
+
+    private String executor = EXECUTOR_DEFAULT;
+    private int executorThreads;
+    private int bossEventLoopThreads;
+    private int workerEventLoopThreads;
+    private int flowControlWindow;
+    private int maxInboundMessageSize;
+    private long keepAliveTime;
+    private long keepAliveTimeout;
+    private long permitKeepAliveTime;
+    private boolean permitKeepAliveWithoutCalls;
+    private String compression;
+
+    /**
+     * Returns the executor that runs the handlers of the calls: default, fixed,
+     * virtual or direct.  The direct executor saves a thread switch per message, but
+     * a handler that blocks, e.g. on a database or a blocking stub, holds up all calls
+     * on its connection.
+     * @return the name of the executor
+     */
+    public String getExecutor() {
+        return executor;
+    }
+
+    public void setExecutor(String executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the number of threads of the fixed executor.
+     * @return the number of threads, 0 for the number of processors
+     */
+    public int getExecutorThreads() {
+        return executorThreads;
+    }
+
+    public void setExecutorThreads(int executorThreads) {
+        this.executorThreads = executorThreads;
+    }
+
+    /**
+     * Returns the number of threads that accept TCP connections.
+     * @return the number of threads, 0 for one
+     */
+    public int getBossEventLoopThreads() {
+        return bossEventLoopThreads;
+    }
+
+    public void setBossEventLoopThreads(int bossEventLoopThreads) {
+        this.bossEventLoopThreads = bossEventLoopThreads;
+    }
+
+    /**
+     * Returns the number of threads that read and write the TCP connections.  Each
+     * connection is served by one of them.
+     * @return the number of threads, 0 for twice the number of processors
+     */
+    public int getWorkerEventLoopThreads() {
+        return workerEventLoopThreads;
+    }
+
+    public void setWorkerEventLoopThreads(int workerEventLoopThreads) {
+        this.workerEventLoopThreads = workerEventLoopThreads;
+    }
+
+    /**
+     * Returns the HTTP/2 flow-control window per stream, i.e. how many bytes a client
+     * may send before the server has read them.
+     * @return the window in bytes, 0 for 1 MiB
+     */
+    public int getFlowControlWindow() {
+        return flowControlWindow;
+    }
+
+    public void setFlowControlWindow(int flowControlWindow) {
+        this.flowControlWindow = flowControlWindow;
+    }
+
+    /**
+     * Returns the size of the largest message the server accepts.
+     * @return the size in bytes, 0 for 4 MiB
+     */
+    public int getMaxInboundMessageSize() {
+        return maxInboundMessageSize;
+    }
+
+    public void setMaxInboundMessageSize(int maxInboundMessageSize) {
+        this.maxInboundMessageSize = maxInboundMessageSize;
+    }
+
+    /**
+     * Returns after how many seconds without reads the server pings a client to find
+     * out whether the connection still works.
+     * @return the time in seconds, 0 for two hours
+     */
+    public long getKeepAliveTime() {
+        return keepAliveTime;
+    }
+
+    public void setKeepAliveTime(long keepAliveTime) {
+        this.keepAliveTime = keepAliveTime;
+    }
+
+    /**
+     * Returns how long the server waits for the answer to a ping before it closes
+     * the connection.
+     * @return the time in seconds, 0 for 20 seconds
+     */
+    public long getKeepAliveTimeout() {
+        return keepAliveTimeout;
+    }
+
+    public void setKeepAliveTimeout(long keepAliveTimeout) {
+        this.keepAliveTimeout = keepAliveTimeout;
+    }
+
+    /**
+     * Returns how often clients may ping the server; clients that ping more often are
+     * disconnected.
+     * @return the minimal time between pings in seconds, 0 for five minutes
+     */
+    public long getPermitKeepAliveTime() {
+        return permitKeepAliveTime;
+    }
+
+    public void setPermitKeepAliveTime(long permitKeepAliveTime) {
+        this.permitKeepAliveTime = permitKeepAliveTime;
+    }
+
+    /**
+     * Returns whether clients may ping the server while they have no calls running.
+     * @return true if they may
+     */
+    public boolean getPermitKeepAliveWithoutCalls() {
+        return permitKeepAliveWithoutCalls;
+    }
+
+    public void setPermitKeepAliveWithoutCalls(boolean permitKeepAliveWithoutCalls) {
+        this.permitKeepAliveWithoutCalls = permitKeepAliveWithoutCalls;
+    }
+
+    /**
+     * Returns the compression of the messages the server sends, e.g. gzip.  Clients
+     * decompress them automatically.
+     * @return the name of the compressor, or null to send uncompressed messages
+     */
+    public String getCompression() {
+        return compression;
+    }
+
+    public void setCompression(String compression) {
+        this.compression = compression;
+    }
+}
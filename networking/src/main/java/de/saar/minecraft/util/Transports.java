@@ -0,0 +1,261 @@
+package de.saar.minecraft.util;
+
+import io.grpc.CompressorRegistry;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.ServerBuilder;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.Epoll;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollDomainSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollServerDomainSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollServerSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.unix.DomainSocketAddress;
+import io.grpc.netty.shaded.io.netty.util.concurrent.DefaultThreadFactory;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates gRPC servers and channels for the transports between broker and architects.
+ * Besides TCP, an architect server can be reached in-process if it runs in the same JVM
+ * as the broker, where messages are handed over without serialization, or through a
+ * Unix domain socket if it runs on the same (Linux) host.
+ *
+ * <p>Servers can be tuned with {@link ServerOptions}.  Event loops and executors
+ * created for the options are shared by all servers in the JVM that use the same
+ * number of threads, and run as long as the JVM.</p>
+ */
+public class Transports {
+    private static EventLoopGroup domainSocketEventLoops;
+    private static final Map<String, EventLoopGroup> tcpEventLoops = new HashMap<>();
+    private static final Map<Integer, Executor> fixedExecutors = new HashMap<>();
+    private static Executor virtualThreadExecutor;
+
+    /**
+     * Opens a plaintext TCP channel to the given host and port.
+     * @param hostname the host
+     * @param port the port
+     * @return the channel
+     */
+    public static ManagedChannel tcpChannel(String hostname, int port) {
+        return ManagedChannelBuilder
+                .forAddress(hostname, port)
+                // Channels are secure by default (via SSL/TLS).
+                // we disable TLS to avoid needing certificates.
+                .usePlaintext()
+                .build();
+    }
+
+    /**
+     * Opens a channel to the in-process server with the given name.
+     * @param name name of the in-process server
+     * @return the channel
+     */
+    public static ManagedChannel inProcessChannel(String name) {
+        return InProcessChannelBuilder.forName(name).build();
+    }
+
+    /**
+     * Opens a channel to the server listening on the given Unix domain socket.
+     * @param socketPath path of the socket file
+     * @return the channel
+     */
+    public static ManagedChannel unixSocketChannel(String socketPath) {
+        return NettyChannelBuilder.forAddress(new DomainSocketAddress(socketPath))
+                .channelType(EpollDomainSocketChannel.class)
+                .eventLoopGroup(getDomainSocketEventLoops())
+                .usePlaintext()
+                .build();
+    }
+
+    /**
+     * Returns a builder for a server listening on the given TCP port, configured with
+     * the given options (see {@link #configure}).
+     * @param port the port
+     * @param options the options
+     * @return the server builder
+     */
+    public static ServerBuilder<?> tcpServer(int port, ServerOptions options) {
+        var builder = NettyServerBuilder.forPort(port);
+        if (options.getBossEventLoopThreads() > 0 || options.getWorkerEventLoopThreads() > 0) {
+            // gRPC only accepts own event loops together with the channel type
+            builder.channelType(Epoll.isAvailable()
+                            ? EpollServerSocketChannel.class : NioServerSocketChannel.class)
+                    .bossEventLoopGroup(getTcpEventLoops("grpc-boss",
+                            Math.max(1, options.getBossEventLoopThreads())))
+                    .workerEventLoopGroup(getTcpEventLoops("grpc-worker",
+                            options.getWorkerEventLoopThreads()));
+        }
+        return configure(builder, options);
+    }
+
+    /**
+     * Applies the executor, message size and compression of the given options to a
+     * server builder, and the flow-control window and keepalive settings if it is a
+     * Netty server (TCP or Unix domain socket).  The event loop threads are set by
+     * {@link #tcpServer} only.
+     * @param builder the server builder
+     * @param options the options
+     * @return the server builder
+     * @throws IllegalArgumentException if the executor or the compression is unknown
+     * @throws UnsupportedOperationException if the JVM has no virtual threads
+     */
+    public static ServerBuilder<?> configure(ServerBuilder<?> builder, ServerOptions options) {
+        String executor = options.getExecutor() == null
+                ? ServerOptions.EXECUTOR_DEFAULT : options.getExecutor();
+        switch (executor) {
+            case ServerOptions.EXECUTOR_DEFAULT:
+                break;
+            case ServerOptions.EXECUTOR_FIXED:
+                builder.executor(getFixedExecutor(options.getExecutorThreads() > 0
+                        ? options.getExecutorThreads()
+                        : Runtime.getRuntime().availableProcessors()));
+                break;
+            case ServerOptions.EXECUTOR_VIRTUAL:
+                builder.executor(getVirtualThreadExecutor());
+                break;
+            case ServerOptions.EXECUTOR_DIRECT:
+                builder.directExecutor();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown executor " + executor
+                        + ", expected default, fixed, virtual or direct");
+        }
+        if (options.getMaxInboundMessageSize() > 0) {
+            builder.maxInboundMessageSize(options.getMaxInboundMessageSize());
+        }
+        String compression = options.getCompression();
+        if (compression != null) {
+            if (CompressorRegistry.getDefaultInstance().lookupCompressor(compression) == null) {
+                throw new IllegalArgumentException("Unknown compression " + compression);
+            }
+            builder.intercept(new ServerInterceptor() {
+                @Override
+                public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+                        ServerCall<ReqT, RespT> call, Metadata headers,
+                        ServerCallHandler<ReqT, RespT> next) {
+                    call.setCompression(compression);
+                    return next.startCall(call, headers);
+                }
+            });
+        }
+        if (builder instanceof NettyServerBuilder) {
+            var netty = (NettyServerBuilder) builder;
+            if (options.getFlowControlWindow() > 0) {
+                netty.flowControlWindow(options.getFlowControlWindow());
+            }
+            if (options.getKeepAliveTime() > 0) {
+                netty.keepAliveTime(options.getKeepAliveTime(), TimeUnit.SECONDS);
+            }
+            if (options.getKeepAliveTimeout() > 0) {
+                netty.keepAliveTimeout(options.getKeepAliveTimeout(), TimeUnit.SECONDS);
+            }
+            if (options.getPermitKeepAliveTime() > 0) {
+                netty.permitKeepAliveTime(options.getPermitKeepAliveTime(), TimeUnit.SECONDS);
+            }
+            netty.permitKeepAliveWithoutCalls(options.getPermitKeepAliveWithoutCalls());
+        }
+        return builder;
+    }
+
+    /**
+     * Returns a builder for a server that is reachable in-process under the given name.
+     * @param name name of the in-process server
+     * @return the server builder
+     */
+    public static ServerBuilder<?> inProcessServer(String name) {
+        return InProcessServerBuilder.forName(name);
+    }
+
+    /**
+     * Returns a builder for a server listening on the given Unix domain socket.
+     * A socket file left over from a previous run is deleted.
+     * @param socketPath path of the socket file
+     * @return the server builder
+     */
+    public static ServerBuilder<?> unixSocketServer(String socketPath) {
+        new File(socketPath).delete();
+        var eventLoops = getDomainSocketEventLoops();
+        return NettyServerBuilder.forAddress(new DomainSocketAddress(socketPath))
+                .channelType(EpollServerDomainSocketChannel.class)
+                .bossEventLoopGroup(eventLoops)
+                .workerEventLoopGroup(eventLoops);
+    }
+
+    /**
+     * Returns the event loops with the given number of threads for TCP servers,
+     * creating them on first use.  0 threads means twice the number of processors.
+     */
+    private static synchronized EventLoopGroup getTcpEventLoops(String name, int threads) {
+        return tcpEventLoops.computeIfAbsent(name + "-" + threads, key -> {
+            var threadFactory = new DefaultThreadFactory(key, true);
+            return Epoll.isAvailable()
+                    ? new EpollEventLoopGroup(threads, threadFactory)
+                    : new NioEventLoopGroup(threads, threadFactory);
+        });
+    }
+
+    /**
+     * Returns the thread pool with the given number of threads for server calls,
+     * creating it on first use.
+     */
+    private static synchronized Executor getFixedExecutor(int threads) {
+        return fixedExecutors.computeIfAbsent(threads, n -> {
+            var threadNumber = new AtomicInteger();
+            return Executors.newFixedThreadPool(n, runnable -> {
+                var thread = new Thread(runnable,
+                        "grpc-executor-" + n + "-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        });
+    }
+
+    /**
+     * Returns an executor that runs every task in a new virtual thread.  It is looked
+     * up by reflection, because the code is compiled for Java 17, which has no
+     * virtual threads.
+     */
+    private static synchronized Executor getVirtualThreadExecutor() {
+        if (virtualThreadExecutor == null) {
+            try {
+                virtualThreadExecutor = (Executor) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                throw new UnsupportedOperationException(
+                        "Virtual threads need Java 21 or later", e);
+            }
+        }
+        return virtualThreadExecutor;
+    }
+
+    /**
+     * Returns the event loops shared by all Unix domain socket servers and channels.
+     */
+    private static synchronized EventLoopGroup getDomainSocketEventLoops() {
+        if (!Epoll.isAvailable()) {
+            throw new UnsupportedOperationException(
+                    "Unix domain sockets are only supported on Linux", Epoll.unavailabilityCause());
+        }
+        if (domainSocketEventLoops == null) {
+            domainSocketEventLoops = new EpollEventLoopGroup(0,
+                    new DefaultThreadFactory("grpc-unix-socket", true));
+        }
+        return domainSocketEventLoops;
+    }
+}